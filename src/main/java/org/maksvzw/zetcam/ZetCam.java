@@ -18,9 +18,12 @@
  */
 package org.maksvzw.zetcam;
 
+import com.xuggle.xuggler.IAudioSamples.Format;
 import java.io.File;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sound.sampled.AudioSystem;
@@ -29,7 +32,10 @@ import javax.sound.sampled.Line;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.Mixer;
 import javax.sound.sampled.SourceDataLine;
+import org.maksvzw.zetcam.core.audio.AudioFileType;
+import org.maksvzw.zetcam.core.audio.AudioFormat;
 import org.maksvzw.zetcam.gui.MainWindow;
+import org.maksvzw.zetcam.io.BatchTranscoder;
 
 /**
  *
@@ -42,6 +48,11 @@ public class ZetCam
      */
     public static void main(String[] args) 
     {
+        if (args.length > 0 && "--batch".equals(args[0])) {
+            System.exit(runBatch(args));
+            return;
+        }
+        
         MainWindow window = new MainWindow();
         window.setVisible(true);
         
@@ -108,6 +119,62 @@ public class ZetCam
         }
     }
     
+    /**
+     * Transcodes a batch of audio files without a user interface.
+     * Usage: --batch &lt;directory|glob&gt; &lt;output directory&gt; [--threads n]
+     * [--rate hz] [--channels n] [--format u8|s16|s32|flt|dbl] [--raw]
+     * @param args the command line arguments
+     * @return the exit code, which is 0 if all files have been transcoded, 1
+     * if any file failed to transcode and 2 if the arguments are invalid
+     */
+    private static int runBatch(String[] args) 
+    {
+        if (args.length < 3) {
+            System.err.println("Usage: --batch <directory|glob> <output directory> "
+                    + "[--threads n] [--rate hz] [--channels n] "
+                    + "[--format u8|s16|s32|flt|dbl] [--raw]");
+            return 2;
+        }
+        
+        int numOfThreads = Runtime.getRuntime().availableProcessors();
+        int sampleRate = 44100, channels = 2;
+        Format sampleFormat = Format.FMT_S16;
+        AudioFileType fileType = AudioFileType.WAV;
+        
+        try {
+            for(int i = 3; i < args.length; i++) {
+                switch(args[i]) {
+                    case "--threads": numOfThreads = Integer.parseInt(args[++i]); break;
+                    case "--rate": sampleRate = Integer.parseInt(args[++i]); break;
+                    case "--channels": channels = Integer.parseInt(args[++i]); break;
+                    case "--format": sampleFormat = Format.valueOf("FMT_" + args[++i].toUpperCase()); break;
+                    case "--raw": fileType = AudioFileType.RAW; break;
+                    default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            
+            final BatchTranscoder transcoder = new BatchTranscoder(
+                    new AudioFormat(sampleRate, sampleFormat, channels), 
+                    fileType, 
+                    numOfThreads);
+            final List<Path> inputFiles = BatchTranscoder.findFiles(args[1]);
+            System.out.println("Transcoding " + inputFiles.size() + " files on " + numOfThreads + " threads.");
+            
+            final BatchTranscoder.BatchResult result = transcoder.transcode(
+                    inputFiles, Paths.get(args[2]), System.out::println);
+            System.out.println(result);
+            return result.getNumOfFailures() > 0 ? 1 : 0;
+        }
+        catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            System.err.println("Invalid arguments: " + ex.getMessage());
+            return 2;
+        }
+        catch (Exception ex) {
+            Logger.getLogger(ZetCam.class.getName()).log(Level.SEVERE, null, ex);
+            return 1;
+        }
+    }
+    
     private static void encodeVideo(File outputFile) 
     {
         /*VideoEncoding encoding = new VideoEncoding.Builder()
@@ -18,7 +18,12 @@
  */
 package org.maksvzw.zetcam.core;
 
+import java.util.function.Consumer;
 import org.maksvzw.zetcam.core.MediaType;
+import org.maksvzw.zetcam.core.metrics.MediaEvents;
+import org.maksvzw.zetcam.core.metrics.MediaMetrics;
+import org.maksvzw.zetcam.core.metrics.MediaStage;
+import org.maksvzw.zetcam.core.metrics.SampleTimer;
 
 /**
  *
@@ -29,6 +34,7 @@ public abstract class MediaFilter<T>
 {
     private MediaFilter<T> nextFilter;
     private MediaFilter<T> prevFilter;
+    private SampleTimer timer;
     
     public MediaFilter() {
         this.nextFilter = null;
@@ -67,7 +73,28 @@ public abstract class MediaFilter<T>
         if (media == null)
             throw new IllegalArgumentException("No source media has been specified.");
         
-        final T dstMedia = this.onFilter(media);
+        final T dstMedia;
+        final boolean isTimed = MediaMetrics.getInstance().isEnabled();
+        final MediaEvents.BlockEvent event = MediaEvents.begin(MediaStage.FILTER);
+        if (isTimed || event != null) {
+            /* The size and time stamp are determined up front, since filters
+            may discard or replace the media. */
+            final long size = this.getMediaSize(media);
+            final long pts = this.getMediaTimeStamp(media);
+            final long startTime = System.nanoTime();
+            dstMedia = this.onFilter(media);
+            if (isTimed)
+                this.getTimer().record(System.nanoTime() - startTime, size);
+            if (event != null)
+                MediaEvents.end(event, this.getClass().getSimpleName(), this.getType(), size, pts);
+        }
+        else {
+            dstMedia = this.onFilter(media);
+        }
+        
+        /* Media that is discarded by this filter is not passed on. */
+        if (dstMedia == null)
+            return null;
         
         if (this.nextFilter != null)
             return this.nextFilter.filter(dstMedia);
@@ -77,6 +104,67 @@ public abstract class MediaFilter<T>
     
     protected abstract T onFilter(final T media);
     
+    /**
+     * Signals the end of the stream to this filter and the filters after it.
+     * Media that a filter still holds back, e.g. the last samples of a 
+     * resampler, is passed through the remaining filters and then to the 
+     * given consumer.
+     * @param output the consumer of the media that leaves the filter chain
+     */
+    public void flush(final Consumer<? super T> output)
+    {
+        if (output == null)
+            throw new IllegalArgumentException("No output has been specified.");
+        
+        final T media = this.onFlush();
+        if (media != null) {
+            final T dstMedia = this.nextFilter != null 
+                    ? this.nextFilter.filter(media) 
+                    : media;
+            if (dstMedia != null)
+                output.accept(dstMedia);
+        }
+        
+        if (this.nextFilter != null)
+            this.nextFilter.flush(output);
+    }
+    
+    /**
+     * Returns the media that this filter still holds back at the end of the
+     * stream. Filters that do not hold back any media return null.
+     * @return the remaining media, or null
+     */
+    protected T onFlush() {
+        return null;
+    }
+    
+    /**
+     * Gets the size of the given media in the unit in which the throughput of
+     * this filter is measured, e.g. the number of samples of audio.
+     * @param media the media to measure
+     * @return the size of the given media
+     */
+    protected long getMediaSize(final T media) {
+        return 1;
+    }
+    
+    /**
+     * Gets the presentation time stamp of the given media.
+     * @param media the media to get the time stamp of
+     * @return the time stamp of the given media in microseconds, or zero if
+     * the media has no time stamp
+     */
+    protected long getMediaTimeStamp(final T media) {
+        return 0;
+    }
+    
+    private SampleTimer getTimer() 
+    {
+        if (this.timer == null)
+            this.timer = MediaMetrics.getInstance().timer("filter." + this.getClass().getSimpleName());
+        return this.timer;
+    }
+    
     public void reset() 
     {
         if (this.nextFilter != null)
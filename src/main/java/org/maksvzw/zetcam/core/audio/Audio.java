@@ -18,9 +18,13 @@
  */
 package org.maksvzw.zetcam.core.audio;
 
+import com.xuggle.ferry.IBuffer;
 import com.xuggle.xuggler.IAudioSamples;
 import com.xuggle.xuggler.IRational;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.time.Duration;
+import org.maksvzw.zetcam.core.metrics.MediaMetrics;
 
 /**
  *
@@ -44,7 +48,28 @@ public final class Audio
                 numOfSamples, 
                 audioFormat.getChannels(), 
                 audioFormat.getSampleFormat());
-
+        MediaMetrics.getInstance().counter(MediaMetrics.BUFFER_ALLOCATIONS).increment();
+        
+        completeSamples(samples, audioFormat, numOfSamples, ptsInSamples);
+        return samples;
+    }
+    
+    /**
+     * Marks the given audio samples as complete, holding the given number of 
+     * samples of the given format, and sets their time stamps. 
+     * This is used for newly allocated samples as well as for samples that 
+     * are reused.
+     * @param samples the audio samples to complete
+     * @param audioFormat the format of the audio samples
+     * @param numOfSamples the number of valid samples (per channel)
+     * @param ptsInSamples the time stamp, in samples
+     */
+    public static final void completeSamples(
+            final IAudioSamples samples,
+            final AudioFormat audioFormat, 
+            final long numOfSamples, 
+            final long ptsInSamples)
+    {
         /* Set time properties of IMediaData interface. The time stamp must be
         in time base of 1/(sample rate) which means the time stamp actually
         represents the number of samples passed since the start of the signal. */
@@ -69,8 +94,63 @@ public final class Audio
                 audioFormat.getChannels(), 
                 audioFormat.getSampleFormat(), 
                 pts);
+    }
+    
+    /**
+     * Changes the number of valid samples and the time stamps of the given 
+     * complete audio samples, keeping their format and time base.
+     * Unlike {@link #completeSamples(IAudioSamples, AudioFormat, long, long)},
+     * this does not allocate any native objects, so that samples can be 
+     * reused for every block of a stream.
+     * @param samples the audio samples to reset
+     * @param numOfSamples the number of valid samples (per channel), which 
+     * cannot exceed the capacity of the audio samples
+     * @param ptsInSamples the time stamp, in samples
+     */
+    public static final void resetSamples(
+            final IAudioSamples samples,
+            final long numOfSamples, 
+            final long ptsInSamples)
+    {
+        if (numOfSamples < 0 || numOfSamples > samples.getMaxSamples())
+            throw new IllegalArgumentException("The specified number of samples is out of range.");
         
-        return samples;
+        final int sampleRate = samples.getSampleRate();
+        samples.setTimeStamp(ptsInSamples);
+        
+        final long pts = IRational.rescale(
+                        ptsInSamples, 
+                        1, 1000000,
+                        1, sampleRate,
+                        IRational.Rounding.ROUND_NEAR_INF);
+        
+        samples.setComplete(
+                true, 
+                numOfSamples, 
+                sampleRate, 
+                samples.getChannels(), 
+                samples.getFormat(), 
+                pts);
+    }
+    
+    /**
+     * Gets a direct view of the native memory of the given audio samples, in
+     * native byte order. 
+     * The view spans the entire buffer, regardless of the number of samples 
+     * that are marked as valid, and keeps the native memory alive for as long
+     * as it is referenced.
+     * @param samples the audio samples to get a view of
+     * @return a direct, native-ordered view of the given audio samples
+     */
+    public static final ByteBuffer getByteBuffer(final IAudioSamples samples)
+    {
+        final IBuffer data = samples.getData();
+        try {
+            return data.getByteBuffer(0, data.getBufferSize())
+                    .order(ByteOrder.nativeOrder());
+        } finally {
+            data.delete();
+        }
     }
     
     public static final long getNumOfSamples(final AudioFormat audioFormat, final Duration d) 
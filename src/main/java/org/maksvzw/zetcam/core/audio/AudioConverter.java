@@ -0,0 +1,528 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+import com.xuggle.xuggler.IAudioSamples;
+import com.xuggle.xuggler.IRational;
+import java.nio.ByteBuffer;
+import org.maksvzw.zetcam.core.audio.buffers.AudioSampleBuffer;
+import org.maksvzw.zetcam.core.metrics.MediaMetrics;
+
+/**
+ * This class converts audio samples of any format to a given format, without 
+ * crossing the JNI boundary for anything but the samples themselves.
+ * <p>
+ * Samples are converted in up to three steps on normalized 32-bit floating 
+ * point values: channels are up- or down-mixed through a channel matrix, the
+ * sample rate is converted by a {@link PolyphaseResampler} and the samples 
+ * are converted to the output sample format. Steps that are not needed are 
+ * skipped, so that a conversion of only the sample format or of only the 
+ * channel layout does not involve a resampler at all. Input samples are read
+ * by a reader that is reused for as long as the input format does not change,
+ * while output samples are scaled by the {@link AudioSampleBuffer} of the 
+ * output format.
+ * </p><p>
+ * Samples of planar formats are expected to hold their planes back to back.
+ * Note that Xuggler already interleaves the samples of planar formats when 
+ * decoding, so in practice only interleaved samples are passed. Xuggler does
+ * not expose the channel layout of the samples either, so multi-channel 
+ * samples are assumed to be in the default order of FFmpeg, e.g. front left,
+ * front right, front center, low frequency, back left and back right for 
+ * 5.1 audio.
+ * </p><p>
+ * The converted samples are held by a buffer that is reused for every call,
+ * so they are only valid until the next call. Instances are not thread-safe.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class AudioConverter implements AutoCloseable
+{
+    private static final float CENTER_GAIN = 0.70710677f;
+    
+    private final AudioFormat dstFormat;
+    private volatile ResamplerQuality quality;
+    private PolyphaseResampler resampler;
+    private AudioSampleBuffer<?> outputBuffer;
+    private float[][] matrix;
+    private int matrixChannels;
+    private SampleReader reader;
+    private IAudioSamples.Format readerFormat;
+    private IAudioSamples readerSamples;
+    private ByteBuffer readerData;
+    private float[] floats;
+    private float[] scratchFloats;
+    private long nextPts;
+    private boolean isClosed;
+    
+    public AudioConverter(final AudioFormat dstFormat) {
+        this(dstFormat, ResamplerQuality.PREVIEW);
+    }
+    
+    /**
+     * Creates a new audio converter.
+     * @param dstFormat the format to convert audio samples to
+     * @param quality the quality of the sample rate conversion, if any
+     */
+    public AudioConverter(final AudioFormat dstFormat, final ResamplerQuality quality) 
+    {
+        if (dstFormat == null)
+            throw new IllegalArgumentException("No audio format has been specified.");
+        if (quality == null)
+            throw new IllegalArgumentException("No resampler quality has been specified.");
+        
+        this.dstFormat = dstFormat;
+        this.quality = quality;
+        this.floats = new float[0];
+        this.scratchFloats = new float[0];
+    }
+    
+    public AudioFormat getOutputFormat() {
+        return this.dstFormat;
+    }
+    
+    public ResamplerQuality getQuality() {
+        return this.quality;
+    }
+    
+    /**
+     * Sets the quality of the sample rate conversion. This method may be 
+     * called from any thread; the new quality takes effect with the next 
+     * call to {@link #convert(IAudioSamples)}. The resampler of the new 
+     * quality continues where the current one left off.
+     * @param quality the quality of the sample rate conversion, if any
+     */
+    public void setQuality(final ResamplerQuality quality) 
+    {
+        if (quality == null)
+            throw new IllegalArgumentException("No resampler quality has been specified.");
+        
+        this.quality = quality;
+    }
+    
+    public boolean isClosed() {
+        return this.isClosed;
+    }
+    
+    /**
+     * Converts the given audio samples to the output format.
+     * @param samples the audio samples to convert
+     * @return the given audio samples if they already are of the output 
+     * format, or the converted samples otherwise, which remain owned by this
+     * converter and are only valid until the next call
+     */
+    public IAudioSamples convert(final IAudioSamples samples) 
+    {
+        if (this.isClosed)
+            throw new IllegalStateException("This audio converter has been closed.");
+        if (samples == null)
+            throw new IllegalArgumentException("No audio samples have been specified.");
+        
+        final int srcChannels = samples.getChannels(), 
+                srcRate = samples.getSampleRate(),
+                dstChannels = this.dstFormat.getChannels(),
+                dstRate = this.dstFormat.getSampleRate();
+        final IAudioSamples.Format srcFormat = samples.getFormat();
+        
+        if (srcChannels == dstChannels && srcRate == dstRate && 
+            srcFormat == this.dstFormat.getSampleFormat())
+            return samples;
+        
+        if (this.resampler != null && this.resampler.getInputRate() != srcRate)
+            this.resampler = null;
+        /* A new quality tier continues the state of the current resampler, 
+        so that the output does not glitch. */
+        if (this.resampler != null && this.resampler.getQuality() != this.quality) {
+            this.resampler = this.resampler.withQuality(this.quality);
+            MediaMetrics.getInstance().counter(MediaMetrics.RESAMPLER_CREATIONS).increment();
+        }
+        if (this.resampler == null) {
+            if (srcRate != dstRate) {
+                this.resampler = new PolyphaseResampler(dstChannels, srcRate, dstRate, this.quality);
+                MediaMetrics.getInstance().counter(MediaMetrics.RESAMPLER_CREATIONS).increment();
+            }
+            
+            /* Output time stamps continue from the time stamp of the first 
+            input samples, in a time base of 1/(sample rate). */
+            this.nextPts = IRational.rescale(
+                    samples.getPts(), 
+                    1, dstRate, 
+                    1, 1000000, 
+                    IRational.Rounding.ROUND_NEAR_INF);
+        }
+        
+        /* Read the input samples as normalized, interleaved floating point 
+        values. */
+        final int numOfInputSamples = (int)samples.getNumSamples();
+        this.readFloats(samples, numOfInputSamples);
+        if (AudioFormat.isPlanar(samples.getFormat())) {
+            this.scratchFloats = ensureLength(this.scratchFloats, numOfInputSamples * srcChannels);
+            interleave(this.floats, this.scratchFloats, srcChannels, numOfInputSamples);
+            this.swap();
+        }
+        
+        /* Up- or down-mix the channels. */
+        if (srcChannels != dstChannels) {
+            this.scratchFloats = ensureLength(this.scratchFloats, numOfInputSamples * dstChannels);
+            mixChannels(this.floats, srcChannels, this.scratchFloats, dstChannels, 
+                    numOfInputSamples, this.getChannelMatrix(srcChannels));
+            this.swap();
+        }
+        
+        /* Convert the sample rate. */
+        int numOfOutputSamples = numOfInputSamples;
+        if (this.resampler != null) {
+            final int maxOutputSamples = this.resampler.getMaxOutputSamples(numOfInputSamples);
+            this.scratchFloats = ensureLength(this.scratchFloats, maxOutputSamples * dstChannels);
+            numOfOutputSamples = this.resampler.resample(
+                    this.floats, 0, numOfInputSamples, 
+                    this.scratchFloats, 0, maxOutputSamples);
+            this.swap();
+        }
+        
+        return this.output(numOfOutputSamples);
+    }
+    
+    /**
+     * Emits the samples that the resampler still holds back at the end of a 
+     * stream, so that the output covers the same duration as the input. The
+     * next call to {@link #convert(IAudioSamples)} starts a new stream.
+     * @return the remaining converted samples, which remain owned by this 
+     * converter and are only valid until the next call, or null if no samples
+     * are held back
+     */
+    public IAudioSamples flush() 
+    {
+        if (this.isClosed)
+            throw new IllegalStateException("This audio converter has been closed.");
+        if (this.resampler == null)
+            return null;
+        
+        final int maxOutputSamples = this.resampler.getMaxFlushSamples();
+        this.scratchFloats = ensureLength(this.scratchFloats, maxOutputSamples * this.dstFormat.getChannels());
+        final int numOfOutputSamples = this.resampler.flush(this.scratchFloats, 0, maxOutputSamples);
+        this.swap();
+        this.resampler = null;
+        
+        return numOfOutputSamples > 0 ? this.output(numOfOutputSamples) : null;
+    }
+    
+    /**
+     * Converts the given number of interleaved floating point samples, which
+     * are of the output sample rate and channel layout, to the output format.
+     */
+    private IAudioSamples output(final int numOfOutputSamples) 
+    {
+        final int dstChannels = this.dstFormat.getChannels();
+        if (this.dstFormat.isPlanar()) {
+            this.scratchFloats = ensureLength(this.scratchFloats, numOfOutputSamples * dstChannels);
+            deinterleave(this.floats, this.scratchFloats, dstChannels, numOfOutputSamples);
+            this.swap();
+        }
+        
+        /* Convert to the output sample format. */
+        final AudioSampleBuffer<?> buffer = this.getOutputBuffer(numOfOutputSamples);
+        buffer.reset(numOfOutputSamples, this.nextPts);
+        buffer.putFloats(this.floats, 0, numOfOutputSamples * dstChannels);
+        this.nextPts += numOfOutputSamples;
+        return buffer.getDataCached();
+    }
+    
+    /**
+     * Makes the scratch array, which holds the result of the last step, the 
+     * current array and the current array the scratch array.
+     */
+    private void swap() 
+    {
+        final float[] current = this.floats;
+        this.floats = this.scratchFloats;
+        this.scratchFloats = current;
+    }
+    
+    private static float[] ensureLength(final float[] array, final int length) {
+        return array.length >= length ? array : new float[length];
+    }
+    
+    private void readFloats(final IAudioSamples samples, final int numOfSamples) 
+    {
+        final int length = numOfSamples * samples.getChannels();
+        this.floats = ensureLength(this.floats, length);
+        
+        /* Decoders usually pass the same samples for every packet, so the 
+        view of their native memory and the reader of their format are only 
+        looked up when they change. */
+        if (samples.getFormat() != this.readerFormat) {
+            this.reader = SampleReader.of(samples.getFormat());
+            this.readerFormat = samples.getFormat();
+        }
+        if (samples != this.readerSamples || 
+            this.readerData.capacity() < length * this.reader.sampleSize) 
+        {
+            this.readerSamples = samples;
+            this.readerData = Audio.getByteBuffer(samples);
+        }
+        this.reader.read(this.readerData, this.floats, length);
+    }
+    
+    private AudioSampleBuffer<?> getOutputBuffer(final int numOfSamples) 
+    {
+        if (this.outputBuffer != null && 
+            this.outputBuffer.getDataCached().getMaxSamples() < numOfSamples) 
+        {
+            this.outputBuffer.close();
+            this.outputBuffer = null;
+        }
+        
+        if (this.outputBuffer == null)
+            this.outputBuffer = AudioSampleBuffer.allocate(this.dstFormat, numOfSamples);
+        return this.outputBuffer;
+    }
+    
+    private float[][] getChannelMatrix(final int srcChannels) 
+    {
+        if (this.matrix == null || this.matrixChannels != srcChannels) {
+            this.matrix = createChannelMatrix(srcChannels, this.dstFormat.getChannels());
+            this.matrixChannels = srcChannels;
+        }
+        return this.matrix;
+    }
+    
+    /**
+     * Resets the state of this converter, e.g. after seeking.
+     */
+    public void reset() {
+        this.resampler = null;
+    }
+
+    @Override
+    public void close() 
+    {
+        if (this.isClosed)
+            return;
+        
+        if (this.outputBuffer != null) {
+            this.outputBuffer.close();
+            this.outputBuffer = null;
+        }
+        this.resampler = null;
+        this.readerSamples = null;
+        this.readerData = null;
+        this.isClosed = true;
+    }
+    
+    /**
+     * Creates a matrix that mixes the given number of input channels into the
+     * given number of output channels. Each row holds the gains of all input 
+     * channels for a single output channel.
+     * <p>
+     * Mono is copied to the front left and right channels and mixed down by 
+     * averaging all channels. Stereo is copied to the front left and right 
+     * channels. Multi-channel layouts in the usual order (front left, front 
+     * right, center, low frequency, back/side left, back/side right, ...) are
+     * mixed down to stereo with the center and surround channels attenuated 
+     * by 3 dB and the low frequency channel dropped. Any other combination 
+     * copies each channel that exists in both layouts.
+     * </p><p>
+     * Since the channel layout is not known, 5.1 audio is assumed to be in the
+     * order front left, front right, front center, low frequency, back left 
+     * and back right, which is the order in which FFmpeg decodes it.
+     * </p>
+     * @param srcChannels the number of input channels
+     * @param dstChannels the number of output channels
+     * @return the channel matrix
+     */
+    public static float[][] createChannelMatrix(final int srcChannels, final int dstChannels) 
+    {
+        if (srcChannels <= 0 || dstChannels <= 0)
+            throw new IllegalArgumentException("Invalid number of channels has been specified. The value must be larger than zero.");
+        
+        final float[][] matrix = new float[dstChannels][srcChannels];
+        if (srcChannels == 1) {
+            matrix[0][0] = 1.0f;
+            if (dstChannels > 1)
+                matrix[1][0] = 1.0f;
+        }
+        else if (dstChannels == 1) {
+            for(int c = 0; c < srcChannels; c++)
+                matrix[0][c] = 1.0f / srcChannels;
+        }
+        else if (dstChannels == 2 && srcChannels > 2) {
+            float norm = 1.0f + CENTER_GAIN;
+            matrix[0][0] = matrix[1][1] = 1.0f;
+            matrix[0][2] = matrix[1][2] = CENTER_GAIN;
+            for(int c = 4; c < srcChannels; c++) {
+                matrix[c % 2][c] = CENTER_GAIN;
+                if (c % 2 == 0)
+                    norm += CENTER_GAIN;
+            }
+            /* Normalize so that the downmix cannot exceed full scale by more 
+            than the inputs do. */
+            for(int c = 0; c < srcChannels; c++) {
+                matrix[0][c] /= norm;
+                matrix[1][c] /= norm;
+            }
+        }
+        else {
+            for(int c = 0; c < Math.min(srcChannels, dstChannels); c++)
+                matrix[c][c] = 1.0f;
+        }
+        return matrix;
+    }
+    
+    /**
+     * Mixes interleaved samples into a different number of channels.
+     * @param src the interleaved input samples
+     * @param srcChannels the number of input channels
+     * @param dst the array to write interleaved output samples to
+     * @param dstChannels the number of output channels
+     * @param numOfSamples the number of samples (per channel)
+     * @param matrix the channel matrix, see {@link #createChannelMatrix(int, int)}
+     */
+    public static void mixChannels(
+            final float[] src, final int srcChannels, 
+            final float[] dst, final int dstChannels, 
+            final int numOfSamples, final float[][] matrix) 
+    {
+        for(int i = 0; i < numOfSamples; i++) {
+            final int srcIndex = i * srcChannels, dstIndex = i * dstChannels;
+            for(int d = 0; d < dstChannels; d++) {
+                final float[] gains = matrix[d];
+                float sum = 0.0f;
+                for(int s = 0; s < srcChannels; s++)
+                    sum += src[srcIndex + s] * gains[s];
+                dst[dstIndex + d] = sum;
+            }
+        }
+    }
+    
+    /**
+     * Interleaves samples that are stored as consecutive planes.
+     * @param src the planar input samples
+     * @param dst the array to write interleaved samples to
+     * @param channels the number of channels
+     * @param numOfSamples the number of samples (per channel)
+     */
+    public static void interleave(
+            final float[] src, final float[] dst, 
+            final int channels, final int numOfSamples) 
+    {
+        for(int c = 0; c < channels; c++) {
+            final int plane = c * numOfSamples;
+            for(int i = 0; i < numOfSamples; i++)
+                dst[i * channels + c] = src[plane + i];
+        }
+    }
+    
+    /**
+     * Splits interleaved samples into consecutive planes.
+     * @param src the interleaved input samples
+     * @param dst the array to write planar samples to
+     * @param channels the number of channels
+     * @param numOfSamples the number of samples (per channel)
+     */
+    public static void deinterleave(
+            final float[] src, final float[] dst, 
+            final int channels, final int numOfSamples) 
+    {
+        for(int c = 0; c < channels; c++) {
+            final int plane = c * numOfSamples;
+            for(int i = 0; i < numOfSamples; i++)
+                dst[plane + i] = src[i * channels + c];
+        }
+    }
+    
+    /**
+     * Reads the samples of a sample format from a direct, native-ordered view
+     * as normalized floating point values, with the same scaling as the 
+     * {@link AudioSampleBuffer} of the format, but without wrapping the 
+     * samples in a buffer for every packet.
+     */
+    private enum SampleReader 
+    {
+        UINT8(1) {
+            @Override
+            void read(final ByteBuffer src, final float[] dst, final int length) {
+                for(int i = 0; i < length; i++)
+                    dst[i] = ((src.get(i) & 0xFF) - 128) / 128.0f;
+            }
+        },
+        INT16(2) {
+            @Override
+            void read(final ByteBuffer src, final float[] dst, final int length) {
+                for(int i = 0; i < length; i++)
+                    dst[i] = src.getShort(i << 1) / 32768.0f;
+            }
+        },
+        INT32(4) {
+            @Override
+            void read(final ByteBuffer src, final float[] dst, final int length) {
+                for(int i = 0; i < length; i++)
+                    dst[i] = (float)(src.getInt(i << 2) / 2147483648.0);
+            }
+        },
+        FLOAT(4) {
+            @Override
+            void read(final ByteBuffer src, final float[] dst, final int length) {
+                for(int i = 0; i < length; i++)
+                    dst[i] = src.getFloat(i << 2);
+            }
+        },
+        DOUBLE(8) {
+            @Override
+            void read(final ByteBuffer src, final float[] dst, final int length) {
+                for(int i = 0; i < length; i++)
+                    dst[i] = (float)src.getDouble(i << 3);
+            }
+        };
+        
+        final int sampleSize;
+        
+        SampleReader(final int sampleSize) {
+            this.sampleSize = sampleSize;
+        }
+        
+        /**
+         * Reads the given number of samples, starting at the first sample of
+         * the given view.
+         */
+        abstract void read(ByteBuffer src, float[] dst, int length);
+        
+        static SampleReader of(final IAudioSamples.Format format) 
+        {
+            switch(format) {
+                case FMT_U8:
+                case FMT_U8P:
+                    return UINT8;
+                case FMT_S16:
+                case FMT_S16P:
+                    return INT16;
+                case FMT_S32:
+                case FMT_S32P:
+                    return INT32;
+                case FMT_FLT:
+                case FMT_FLTP:
+                    return FLOAT;
+                case FMT_DBL:
+                case FMT_DBLP:
+                    return DOUBLE;
+                default:
+                    throw new UnsupportedOperationException("Unsupported sample format: " + format);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+/**
+ * The types of files that a {@link FileSink} can write.
+ * 
+ * @author Lenny Knockaert
+ */
+public enum AudioFileType 
+{
+    /**
+     * A RIFF WAVE file, which is promoted to an RF64 file if it grows beyond
+     * the 4 GB that a RIFF file can hold.
+     */
+    WAV,
+    
+    /**
+     * Headerless, interleaved little-endian PCM samples.
+     */
+    RAW
+}
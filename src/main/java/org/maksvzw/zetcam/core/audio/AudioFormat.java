@@ -31,6 +31,14 @@ import java.util.Objects;
  */
 public final class AudioFormat implements Serializable
 {
+    /**
+     * The sample format in which audio is processed internally. 
+     * Every source is converted to interleaved 32-bit floating point samples
+     * once, all filters and mixers operate on those samples and only the 
+     * final sink converts them back, clipping them exactly once.
+     */
+    public static final Format PROCESSING_SAMPLE_FORMAT = Format.FMT_FLT;
+    
     public static final AudioFormat of(final IAudioSamples samples) 
     {
         return new AudioFormat(
@@ -39,6 +47,27 @@ public final class AudioFormat implements Serializable
                 samples.getChannels());
     }
     
+    /**
+     * Determines whether the given sample format has a plane of samples for
+     * each audio channel, without creating an audio format, e.g. for every 
+     * packet of a stream.
+     * @param sampleFormat the sample format
+     * @return true if each audio channel has a plane of samples
+     */
+    public static final boolean isPlanar(final Format sampleFormat) 
+    {
+        switch(sampleFormat) {
+            case FMT_U8P:
+            case FMT_S16P:
+            case FMT_S32P:
+            case FMT_FLTP:
+            case FMT_DBLP:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
     private final int sampleRate;
     private final Format sampleFormat;
     private final int sampleSize;
@@ -59,34 +88,29 @@ public final class AudioFormat implements Serializable
         this.channels = channels;
         
         int bytes = 0;
-        boolean planar = false;
         switch(sampleFormat) {
             case FMT_U8P:
-                planar = true;
             case FMT_U8:
                 bytes = 1;
                 break;
             case FMT_S16P:
-                planar = true;
             case FMT_S16:
                 bytes = 2;
                 break;
             case FMT_S32P:
             case FMT_FLTP:
-                planar = true;
             case FMT_S32:
             case FMT_FLT:
                 bytes = 4;
                 break;
             case FMT_DBLP:
-                planar = true;
             case FMT_DBL:
                 bytes = 8;
                 break;
         }
         
         this.sampleSize = bytes;
-        this.isPlanar = planar;
+        this.isPlanar = isPlanar(sampleFormat);
     }
     
     /**
@@ -156,6 +180,29 @@ public final class AudioFormat implements Serializable
         return this.isPlanar;
     }
     
+    /**
+     * Determines whether or not this audio format is the format in which 
+     * audio is processed internally.
+     * @return true if the samples are interleaved 32-bit floating point values
+     */
+    public boolean isProcessingFormat() {
+        return this.sampleFormat == PROCESSING_SAMPLE_FORMAT;
+    }
+    
+    /**
+     * Gets the format in which audio of this format is processed internally.
+     * The processing format has the same sample rate and number of channels 
+     * but stores interleaved 32-bit floating point samples.
+     * @return the processing format for this audio format
+     */
+    public AudioFormat toProcessingFormat() 
+    {
+        if (this.isProcessingFormat())
+            return this;
+        
+        return new AudioFormat(this.sampleRate, PROCESSING_SAMPLE_FORMAT, this.channels);
+    }
+    
     /**
      * Gets the number of bits played or recorded per second.
      * This method will return the bit rate of the raw, uncompressed PCM data
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+import com.xuggle.mediatool.IMediaGenerator;
+
+/**
+ * This interface represents a source of audio samples that can be read 
+ * block by block, such as an {@link AudioSource} that decodes a media file or
+ * a {@link MappedPcmSource} that reads previously decoded samples.
+ * Samples are passed to the listeners of the input as they are read.
+ * 
+ * @author Lenny Knockaert
+ */
+public interface AudioInput extends IMediaGenerator, AutoCloseable
+{
+    boolean isOpen();
+    
+    boolean EOF();
+    
+    void open();
+    
+    /**
+     * Reads the next block of audio samples and passes it to the listeners.
+     * @return true if a block has been read, false if the end of the input 
+     * has been reached
+     */
+    boolean read();
+    
+    @Override
+    void close();
+}
@@ -24,8 +24,18 @@ import com.xuggle.mediatool.MediaGeneratorAdapter;
 import com.xuggle.mediatool.event.AudioSamplesEvent;
 import com.xuggle.xuggler.IAudioSamples;
 import com.xuggle.xuggler.IAudioSamples.Format;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import org.maksvzw.zetcam.core.audio.buffers.AudioSampleBuffer;
 import org.maksvzw.zetcam.core.audio.buffers.fifo.AudioSampleFifoBuffer;
+import org.maksvzw.zetcam.core.audio.buffers.fifo.AudioSampleFifoListener;
+import org.maksvzw.zetcam.core.MediaType;
+import org.maksvzw.zetcam.core.metrics.MediaEvents;
+import org.maksvzw.zetcam.core.metrics.MediaMetrics;
+import org.maksvzw.zetcam.core.metrics.MediaStage;
+import org.maksvzw.zetcam.core.metrics.SampleTimer;
 
 /**
  *
@@ -34,7 +44,19 @@ import org.maksvzw.zetcam.core.audio.buffers.fifo.AudioSampleFifoBuffer;
 // TODO: refactor!!
 public final class AudioMixer extends MediaGeneratorAdapter implements AutoCloseable
 {
+    private static final AtomicInteger MIXER_IDS = new AtomicInteger();
+    private static final String MIX_STAGE = "mix";
+    private static final String OUTPUT_STAGE = "output";
+    /* The initial size of the FIFO buffer of each input. */
+    private static final int FIFO_SIZE = 8192;
+    
+    private final int mixerId;
+    private final String[] inputStages;
+    private ResamplerQuality resamplerQuality;
+    private DeadlineMonitor deadlineMonitor;
+    private final SampleTimer readTimer;
     private final AudioFormat dstFormat;
+    private final AudioFormat mixFormat;
     private final int maxNumOfInputs;
     private int numOfInputs;
     private int numOfActiveInputs;
@@ -43,13 +65,47 @@ public final class AudioMixer extends MediaGeneratorAdapter implements AutoClose
     private long nextPts;
     private double scaleNorm;
     private boolean isClosed;
+    private float[] accumulator;
+    private AudioSampleBuffer<?> outBuffer;
+    private AudioSamplesEvent outEvent;
+    private IMediaListener[] listeners;
+    private int decodeAheadSamples;
     
     private final InputContext[] inputCtx;
 
-    public AudioMixer() 
+    public AudioMixer() {
+        this(new AudioFormat(44100, Format.FMT_S16, 2), 3);
+    }
+    
+    public AudioMixer(final AudioFormat outputFormat, final int maxNumOfInputs) {
+        this(outputFormat, maxNumOfInputs, ResamplerQuality.PREVIEW);
+    }
+    
+    /**
+     * Creates a new audio mixer.
+     * @param outputFormat the format of the mixed audio samples
+     * @param maxNumOfInputs the maximum number of inputs that can be linked
+     * @param quality the quality with which inputs of a different sample rate
+     * are resampled
+     */
+    public AudioMixer(
+            final AudioFormat outputFormat, 
+            final int maxNumOfInputs, 
+            final ResamplerQuality quality) 
     {
-        this.dstFormat = new AudioFormat(44100, Format.FMT_S16, 2);
-        this.maxNumOfInputs = 3;
+        if (outputFormat == null)
+            throw new IllegalArgumentException("No output format has been specified.");
+        if (maxNumOfInputs <= 0)
+            throw new IllegalArgumentException("Invalid maximum number of inputs has been specified. The value must be larger than zero.");
+        if (quality == null)
+            throw new IllegalArgumentException("No resampler quality has been specified.");
+        
+        this.mixerId = MIXER_IDS.getAndIncrement();
+        this.resamplerQuality = quality;
+        this.readTimer = MediaMetrics.getInstance().timer("mixer.read");
+        this.dstFormat = outputFormat;
+        this.mixFormat = this.dstFormat.toProcessingFormat();
+        this.maxNumOfInputs = maxNumOfInputs;
         this.numOfInputs = 0;
         this.numOfActiveInputs = 0;
         this.dropOutTransition = 2.0;
@@ -57,13 +113,20 @@ public final class AudioMixer extends MediaGeneratorAdapter implements AutoClose
         this.nextPts = 0;
         this.scaleNorm = this.numOfActiveInputs;
         this.isClosed = false;
+        this.accumulator = new float[0];
+        this.listeners = new IMediaListener[0];
         
         this.inputCtx = new InputContext[this.maxNumOfInputs];
+        this.inputStages = new String[this.maxNumOfInputs];
         for(int i = 0; i < this.maxNumOfInputs; i++) {
-            this.inputCtx[i] = new InputContext(this.dstFormat);
-            this.inputCtx[i].fifo = AudioSampleFifoBuffer.allocate(this.dstFormat, 8192);
+            /* Inputs are converted to the processing format as soon as they
+            are decoded, so that scaling and mixing run on floating point 
+            samples only. */
+            this.inputCtx[i] = new InputContext(this.mixFormat, quality);
+            this.inputCtx[i].fifo = AudioSampleFifoBuffer.allocate(this.mixFormat, FIFO_SIZE);
             this.inputCtx[i].state = InputState.OFF;
             this.inputCtx[i].scale = 1.0;
+            this.inputStages[i] = "input." + i;
         }
     }
 
@@ -92,8 +155,174 @@ public final class AudioMixer extends MediaGeneratorAdapter implements AutoClose
         return this.durationMethod;
     }
     
-    public void read(int numOfSamples) 
+    /**
+     * Gets the number of samples (per channel) that each input decodes ahead
+     * on its own worker thread.
+     * @return the number of samples to decode ahead, or zero if inputs are 
+     * decoded on the thread that reads from this mixer
+     */
+    public int getDecodeAheadSamples() {
+        return this.decodeAheadSamples;
+    }
+    
+    /**
+     * Sets the number of samples (per channel) that each input decodes ahead
+     * on its own worker thread.
+     * <p>
+     * In threaded mode, decoding, resampling and filtering of each linked 
+     * input runs on a dedicated worker that keeps the FIFO buffer of the input
+     * filled up to the given number of samples, so that reading from this 
+     * mixer only has to mix samples that are ready. Listeners of the inputs 
+     * are therefore invoked on the worker threads. The FIFO buffer of each 
+     * input is bounded to twice the decode-ahead, or twice the largest read 
+     * request, and a worker waits for the mixer once its input reaches the 
+     * decode-ahead, until half of it has been mixed. Note that each read request
+     * should not exceed the given number of samples, or the inputs cannot run
+     * ahead of the mixer.
+     * </p>
+     * @param numOfSamples the number of samples to decode ahead, or zero to 
+     * decode all inputs on the thread that reads from this mixer
+     */
+    public void setDecodeAheadSamples(int numOfSamples) 
+    {
+        if (numOfSamples < 0)
+            throw new IllegalArgumentException("Invalid number of samples has been specified. The value cannot be smaller than zero.");
+        if (this.numOfInputs > 0)
+            throw new IllegalStateException("The decode ahead mode cannot be changed while inputs are linked.");
+        
+        this.decodeAheadSamples = numOfSamples;
+    }
+    
+    public ResamplerQuality getResamplerQuality() {
+        return this.resamplerQuality;
+    }
+    
+    /**
+     * Sets the quality with which inputs of a different sample rate are 
+     * resampled. Inputs that are being resampled continue where their current
+     * resampler left off, so that changing the quality while playing does not
+     * cause a glitch.
+     * @param quality the resampler quality
+     */
+    public void setResamplerQuality(final ResamplerQuality quality) 
+    {
+        if (quality == null)
+            throw new IllegalArgumentException("No resampler quality has been specified.");
+        
+        for(InputContext ctx : this.inputCtx)
+            ctx.setResamplerQuality(quality);
+        this.resamplerQuality = quality;
+    }
+    
+    public DeadlineMonitor getDeadlineMonitor() {
+        return this.deadlineMonitor;
+    }
+    
+    /**
+     * Sets the monitor that checks whether each read completes within the 
+     * time it takes to play the samples that are read. The time spent is 
+     * broken down into the stages "input.&lt;index&gt;" for filling the FIFO 
+     * buffer of each input, "mix" and "output" for passing the mixed samples
+     * to the listeners. If the monitor is adaptive, the resampler quality of
+     * this mixer follows the quality recommended by the monitor.
+     * @param monitor the deadline monitor, or null to stop monitoring
+     */
+    public void setDeadlineMonitor(final DeadlineMonitor monitor) {
+        this.deadlineMonitor = monitor;
+    }
+    
+    /**
+     * Gets the number of samples (per channel) that should be read at once,
+     * which is the block size recommended by the deadline monitor, if any. In
+     * threaded mode, the block size is capped at the number of samples that
+     * are decoded ahead, so that the inputs can still run ahead of the mixer.
+     * @param baseBlockSize the block size to use as long as blocks are 
+     * produced in time
+     * @return the recommended block size
+     */
+    public int getRecommendedBlockSize(final int baseBlockSize) 
+    {
+        if (baseBlockSize <= 0)
+            throw new IllegalArgumentException("Invalid block size has been specified. The value must be larger than zero.");
+        
+        final DeadlineMonitor monitor = this.deadlineMonitor;
+        final int blockSize = monitor == null 
+                ? baseBlockSize 
+                : monitor.getRecommendedBlockSize(baseBlockSize);
+        return this.decodeAheadSamples > 0 
+                ? Math.min(blockSize, this.decodeAheadSamples) 
+                : blockSize;
+    }
+    
+    /**
+     * Mixes the given number of samples (per channel) of all active inputs 
+     * and passes them to the listeners of this mixer.
+     * <p>
+     * The output and scratch buffers are allocated for the largest number of
+     * samples requested so far and reused by every subsequent call, so that 
+     * mixing does not allocate any memory in a steady state. As a consequence,
+     * the audio samples that are passed to the listeners remain owned by this
+     * mixer and are only valid for the duration of the callback: they are 
+     * overwritten by the next call. Listeners that need to retain samples 
+     * have to copy them, e.g. into an audio buffer or FIFO buffer of their 
+     * own, rather than keeping a reference.
+     * </p>
+     * <p>
+     * Fewer samples than requested are mixed once the active inputs run out
+     * of samples, so that the last block does not contain any trailing 
+     * silence. Nothing is passed to the listeners once no input has any 
+     * samples left.
+     * </p>
+     * @param numOfSamples the number of samples (per channel) to mix
+     * @return the number of samples (per channel) that were mixed, which is 
+     * the largest number of samples any active input had available, or zero 
+     * if all inputs are exhausted
+     */
+    public int read(int numOfSamples) 
+    {
+        final DeadlineMonitor monitor = this.deadlineMonitor;
+        final boolean isTimed = MediaMetrics.getInstance().isEnabled();
+        final MediaEvents.BlockEvent event = MediaEvents.begin(MediaStage.MIX);
+        if (!isTimed && event == null && monitor == null)
+            return this.mix(numOfSamples, null);
+        
+        final long pts = this.nextPts * 1000000L / this.dstFormat.getSampleRate();
+        final long startTime = System.nanoTime();
+        if (monitor != null)
+            monitor.beginBlock(numOfSamples, this.dstFormat.getSampleRate());
+        
+        final int numOfMixedSamples = this.mix(numOfSamples, monitor);
+        
+        if (isTimed)
+            this.readTimer.record(System.nanoTime() - startTime, numOfMixedSamples);
+        if (event != null)
+            MediaEvents.end(event, "AudioMixer#" + this.mixerId, MediaType.AUDIO, numOfMixedSamples, pts);
+        if (monitor != null) {
+            monitor.endBlock(pts);
+            if (monitor.isAdaptive() && monitor.getQuality() != this.resamplerQuality)
+                this.setResamplerQuality(monitor.getQuality());
+        }
+        return numOfMixedSamples;
+    }
+    
+    /**
+     * Records the time spent in the given stage since the given time, if a
+     * deadline monitor has been set, and returns the current time.
+     */
+    private static long lap(final DeadlineMonitor monitor, final String stage, final long startTime) 
+    {
+        if (monitor == null)
+            return 0;
+        
+        final long now = System.nanoTime();
+        monitor.recordStage(stage, now - startTime);
+        return now;
+    }
+    
+    private int mix(int numOfSamples, DeadlineMonitor monitor) 
     {
+        long lapTime = monitor == null ? 0 : System.nanoTime();
+        
         /* Ensure each active input has buffered enough samples to satisfy 
         the request. */
         int maxAvailableSamples = 0;
@@ -101,15 +330,20 @@ public final class AudioMixer extends MediaGeneratorAdapter implements AutoClose
             if (this.inputCtx[i].state != InputState.ON)
                 continue;
             
-            while(this.inputCtx[i].fifo.delay() < numOfSamples && 
-                 this.inputCtx[i].source.read()) 
-            { }
-            
-            if (this.inputCtx[i].fifo.delay() <= 0)
+            final int availableSamples = this.inputCtx[i].fill(numOfSamples);
+            lapTime = lap(monitor, this.inputStages[i], lapTime);
+            if (availableSamples <= 0)
                 this.inputCtx[i].state = InputState.INACTIVE;
             else
-                maxAvailableSamples = Math.max(
-                        maxAvailableSamples, this.inputCtx[i].fifo.delay());
+                maxAvailableSamples = Math.max(maxAvailableSamples, availableSamples);
+        }
+        
+        /* Only the last block of the longest input can be shorter than 
+        requested, since filling only returns less at the end of a source. */
+        final int numOfMixedSamples = Math.min(numOfSamples, maxAvailableSamples);
+        if (numOfMixedSamples <= 0) {
+            this.calculateActiveInputs();
+            return 0;
         }
 
         /* Samples of each input are scaled in order to balance the full 
@@ -117,49 +351,89 @@ public final class AudioMixer extends MediaGeneratorAdapter implements AutoClose
          when EOF is encountered on an input but mixing continues with the
          remaining inputs. */
         this.calculateActiveInputs();
-        this.calculateScales(numOfSamples);
+        this.calculateScales(numOfMixedSamples);
         
-        /* Allocate output buffer and configure its time stamps.  */
-        try(AudioSampleBuffer outBuffer = AudioSampleBuffer.allocate(
-                this.dstFormat, numOfSamples, this.nextPts);
-            AudioSampleBuffer tempBuffer = AudioSampleBuffer.allocate(
-                this.dstFormat, numOfSamples))
-        {
-            final IAudioSamples tempSamples = tempBuffer.getDataCached();
-
-            int numOfSamplesToRead;
-            for(int i = 0; i < this.maxNumOfInputs; i++) {
-                /* Do not consider closed inputs or inactive inputs with  
-                empty FIFO buffers. */
-                if (this.inputCtx[i].state != InputState.ON)
-                    continue;
-
-                numOfSamplesToRead = Math.min(numOfSamples, this.inputCtx[i].fifo.delay());
-                tempBuffer.clear().limit(numOfSamplesToRead);
-                
-                /* Read samples from FIFO into a temporary buffer. */
-                this.inputCtx[i].fifo.get(tempSamples, 0, numOfSamplesToRead);
+        /* All active inputs are added, each with its own scaling factor, to
+        a floating point accumulator that is wide enough to hold the sum of 
+        any number of inputs without clipping. */
+        final int accLength = numOfMixedSamples * this.mixFormat.getChannels();
+        this.ensureCapacity(numOfMixedSamples);
+        final float[] acc = this.accumulator;
+        Arrays.fill(acc, 0, accLength, 0.0f);
+        
+        for(int i = 0; i < this.maxNumOfInputs; i++) {
+            /* Do not consider closed inputs or inactive inputs with empty 
+            FIFO buffers. */
+            if (this.inputCtx[i].state != InputState.ON)
+                continue;
 
-                /* Apply scaling factor to each sample. */
-                tempBuffer.scaleAll(this.inputCtx[i].scale).rewind();
-                /* Mix samples in the temporary buffer with samples in the output buffer. */
-                outBuffer.mix(tempBuffer).rewind();
-            }
-            this.nextPts += numOfSamples;
-            this.raiseAudioSamplesEvent(outBuffer.getDataCached());
+            this.inputCtx[i].mixInto(acc, numOfMixedSamples);
         }
+        lapTime = lap(monitor, MIX_STAGE, lapTime);
+        
+        /* Configure the time stamps of the output buffer and convert the 
+        mixed samples to the output format. This is the only place where the
+        samples are clipped. */
+        this.outBuffer.reset(numOfMixedSamples, this.nextPts);
+        this.outBuffer.putFloats(acc, 0, accLength);
+        this.nextPts += numOfMixedSamples;
+        this.raiseAudioSamplesEvent();
+        lap(monitor, OUTPUT_STAGE, lapTime);
+        return numOfMixedSamples;
+    }
+    
+    /**
+     * Grows the output and scratch buffers if they cannot hold the given 
+     * number of samples (per channel).
+     */
+    private void ensureCapacity(int numOfSamples) 
+    {
+        final int accLength = numOfSamples * this.mixFormat.getChannels();
+        if (this.accumulator.length < accLength)
+            this.accumulator = new float[accLength];
+        
+        if (this.outBuffer != null && 
+            this.outBuffer.getDataCached().getMaxSamples() >= numOfSamples)
+            return;
+        
+        if (this.outBuffer != null)
+            this.outBuffer.close();
+        
+        this.outBuffer = AudioSampleBuffer.allocate(this.dstFormat, numOfSamples, this.nextPts);
+        /* The event only refers to the samples, which are reused, so it can 
+        be reused as well. */
+        this.outEvent = new AudioSamplesEvent(this, this.outBuffer.getDataCached(), 0);
     }
     
-    private void raiseAudioSamplesEvent(IAudioSamples samples) 
+    private void raiseAudioSamplesEvent() 
     {
-        AudioSamplesEvent iase = new AudioSamplesEvent(this, samples, 0);
-        for(IMediaListener listener : this.getListeners())
-            listener.onAudioSamples(iase);
+        for(IMediaListener listener : this.listeners)
+            listener.onAudioSamples(this.outEvent);
     }
     
-    public void link(int index, AudioSource audioSource) 
+    @Override
+    public boolean addListener(IMediaListener listener) 
     {
-        if (index < 0 || index > this.maxNumOfInputs)
+        if (!super.addListener(listener))
+            return false;
+        
+        this.listeners = this.getListeners().toArray(new IMediaListener[0]);
+        return true;
+    }
+    
+    @Override
+    public boolean removeListener(IMediaListener listener) 
+    {
+        if (!super.removeListener(listener))
+            return false;
+        
+        this.listeners = this.getListeners().toArray(new IMediaListener[0]);
+        return true;
+    }
+    
+    public void link(int index, AudioInput audioSource) 
+    {
+        if (index < 0 || index >= this.maxNumOfInputs)
             throw new IndexOutOfBoundsException("Index: "+index+"; Size: "+this.maxNumOfInputs);
         if (audioSource == null)
             throw new IllegalArgumentException("No audio source has been specified.");
@@ -177,24 +451,45 @@ public final class AudioMixer extends MediaGeneratorAdapter implements AutoClose
         this.inputCtx[index].state = InputState.ON;
         this.inputCtx[index].scale = 1.0;
         this.numOfInputs++;
+        
+        if (this.decodeAheadSamples > 0)
+            this.inputCtx[index].start(index, this.decodeAheadSamples);
+        
+        /* The depth is read without holding the lock of the input, which is 
+        good enough for monitoring. */
+        final InputContext ctx = this.inputCtx[index];
+        MediaMetrics.getInstance().registerGauge(this.getFifoGaugeName(index), () -> {
+            final AudioSampleFifoBuffer fifo = ctx.fifo;
+            return fifo == null ? 0 : fifo.delay();
+        });
     }
     
     public void unlink(int index) 
     {
-        if (index < 0 || index > this.maxNumOfInputs)
+        if (index < 0 || index >= this.maxNumOfInputs)
             throw new IndexOutOfBoundsException("Index: "+index+"; Size: "+this.maxNumOfInputs);
         
         if (this.inputCtx[index].state == InputState.OFF)
             return;
         
+        MediaMetrics.getInstance().unregisterGauge(this.getFifoGaugeName(index));
+        
+        /* The worker has to be stopped before the source is closed, since it
+        may be reading from it. */
+        this.inputCtx[index].stop();
         this.inputCtx[index].source.removeListener(this.inputCtx[index]);
         this.inputCtx[index].source.close();
+        this.inputCtx[index].fifo.clear();
         this.inputCtx[index].source = null;
         this.inputCtx[index].state = InputState.OFF;
         this.inputCtx[index].scale = 0.0;
         this.numOfInputs--;
     }
     
+    private String getFifoGaugeName(int index) {
+        return "mixer." + this.mixerId + ".input." + index + ".fifoDepth";
+    }
+    
     private boolean calculateActiveInputs() 
     {
         int activeInputs = 0;
@@ -234,27 +529,245 @@ public final class AudioMixer extends MediaGeneratorAdapter implements AutoClose
             return;
         
         for(int i = 0; i < this.maxNumOfInputs; i++) {
+            this.unlink(i);
             this.inputCtx[i].fifo.close();
             this.inputCtx[i].fifo = null;
-            this.unlink(i);
+        }
+        
+        if (this.outBuffer != null) {
+            this.outBuffer.close();
+            this.outBuffer = null;
+            this.outEvent = null;
         }
         this.isClosed = true;
     }
     
-    private static class InputContext extends AudioSink
+    /**
+     * Holds the state of a single input. The FIFO buffer is guarded by a lock
+     * since it is filled by the worker of the input in threaded mode, while 
+     * it is drained by the thread that reads from the mixer.
+     */
+    private static class InputContext extends AudioSink 
+        implements Runnable, AudioSampleFifoListener
     {
         public AudioSampleFifoBuffer fifo;
-        public AudioSource source;
+        public AudioInput source;
         public InputState state;
         public double scale;
+        
+        private final ReentrantLock lock;
+        private final Condition notEmpty;
+        private final Condition notFull;
+        private Thread worker;
+        private int decodeAheadSamples;
+        private int requestedSamples;
+        private boolean isFull;
+        private boolean running;
+        private boolean eof;
+        private RuntimeException error;
 
-        public InputContext(AudioFormat audioFormat) {
-            super(audioFormat);
+        public InputContext(AudioFormat audioFormat, ResamplerQuality quality) 
+        {
+            super(audioFormat, quality);
+            this.lock = new ReentrantLock();
+            this.notEmpty = this.lock.newCondition();
+            this.notFull = this.lock.newCondition();
+        }
+        
+        /**
+         * Starts decoding the source of this input on a worker thread.
+         */
+        public void start(int index, int decodeAheadSamples) 
+        {
+            this.decodeAheadSamples = decodeAheadSamples;
+            this.requestedSamples = 0;
+            /* The worker pauses once the FIFO buffer reaches the decode-ahead
+            and resumes once half of it has been mixed. The FIFO buffer is 
+            bounded, so that a stalled mixer cannot make it grow without 
+            limit. */
+            this.fifo.setWatermarks(decodeAheadSamples / 2, decodeAheadSamples, this);
+            this.fifo.setMaxCapacity(getMaxFifoCapacity(decodeAheadSamples));
+            this.isFull = this.fifo.delay() >= decodeAheadSamples;
+            this.running = true;
+            this.eof = false;
+            this.error = null;
+            
+            this.worker = new Thread(this, "AudioMixer input #"+index);
+            this.worker.setDaemon(true);
+            this.worker.start();
+        }
+        
+        /**
+         * Stops the worker thread of this input, if any, and waits for it to
+         * finish.
+         */
+        public void stop() 
+        {
+            if (this.worker == null)
+                return;
+            
+            this.lock.lock();
+            try {
+                this.running = false;
+                this.notFull.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+            
+            try {
+                this.worker.join();
+            } 
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            this.worker = null;
+            this.fifo.setWatermarks(0, Integer.MAX_VALUE, null);
+            this.fifo.setMaxCapacity(Integer.MAX_VALUE);
+        }
+        
+        /**
+         * Gets the maximum capacity of the FIFO buffer of an input that is 
+         * read in blocks of the given size, which leaves room for a block on 
+         * top of the samples that are decoded ahead.
+         */
+        private static int getMaxFifoCapacity(int numOfSamples) {
+            return Math.max(FIFO_SIZE, 2 * numOfSamples);
         }
 
         @Override
-        protected void onAudioSamples(IAudioSamples samples) {
-            this.fifo.put(samples, 0, (int)samples.getNumSamples());
+        public void run() 
+        {
+            try {
+                while (true) {
+                    this.lock.lock();
+                    try {
+                        /* The worker waits from the high watermark to the 
+                        low watermark. A pending request for more samples 
+                        than the decode-ahead overrides it, otherwise the 
+                        worker and the reader would wait for each other. */
+                        while (this.running && this.isFull && 
+                               this.fifo.delay() >= this.requestedSamples)
+                            this.notFull.await();
+                        if (!this.running)
+                            return;
+                    } finally {
+                        this.lock.unlock();
+                    }
+                    
+                    /* Decoding and filtering run outside of the lock, only
+                    the transfer to the FIFO buffer is guarded. */
+                    if (!this.source.read())
+                        return;
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            catch (RuntimeException ex) {
+                this.error = ex;
+            }
+            finally {
+                this.lock.lock();
+                try {
+                    this.eof = true;
+                    this.notEmpty.signalAll();
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+        }
+        
+        /**
+         * Ensures the FIFO buffer of this input holds the given number of 
+         * samples, unless the end of the source has been reached.
+         * @return the number of samples available
+         */
+        public int fill(int numOfSamples) 
+        {
+            if (this.worker == null) {
+                while(this.fifo.delay() < numOfSamples && this.source.read()) 
+                { }
+                return this.fifo.delay();
+            }
+            
+            this.lock.lock();
+            try {
+                if (2 * numOfSamples > this.fifo.getMaxCapacity())
+                    this.fifo.setMaxCapacity(getMaxFifoCapacity(numOfSamples));
+                this.requestedSamples = numOfSamples;
+                this.notFull.signal();
+                
+                while (this.fifo.delay() < numOfSamples && !this.eof)
+                    this.notEmpty.await();
+                if (this.error != null)
+                    throw this.error;
+                return this.fifo.delay();
+            } 
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return this.fifo.delay();
+            }
+            finally {
+                this.requestedSamples = 0;
+                this.lock.unlock();
+            }
+        }
+        
+        public void mixInto(float[] acc, int numOfSamples) 
+        {
+            this.lock.lock();
+            try {
+                this.fifo.mixInto(acc, Math.min(numOfSamples, this.fifo.delay()), (float)this.scale);
+                /* Wake up a worker that is waiting for room in the FIFO 
+                buffer to write the rest of a packet. */
+                this.notFull.signal();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        @Override
+        public void onHighWatermark(AudioSampleFifoBuffer<?> fifo) {
+            this.isFull = true;
+        }
+
+        @Override
+        public void onLowWatermark(AudioSampleFifoBuffer<?> fifo) 
+        {
+            this.isFull = false;
+            this.notFull.signal();
+        }
+
+        @Override
+        protected void onAudioSamples(IAudioSamples samples) 
+        {
+            final int numOfSamples = (int)samples.getNumSamples();
+            
+            this.lock.lock();
+            try {
+                /* A packet that does not fit within the maximum capacity of 
+                the FIFO buffer is written in parts, as the mixer makes room. 
+                Without a worker, the FIFO buffer is not bounded. */
+                int written = 0;
+                while (true) {
+                    final int length = Math.min(numOfSamples - written, this.fifo.remainingCapacity());
+                    if (length > 0) {
+                        this.fifo.put(samples, written, length);
+                        written += length;
+                        this.notEmpty.signal();
+                    }
+                    if (written == numOfSamples || this.worker == null || !this.running)
+                        return;
+                    
+                    this.notFull.await();
+                }
+            } 
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                this.lock.unlock();
+            }
         }
     }
     
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+import com.xuggle.mediatool.event.FlushEvent;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class plays the output of an audio mixer on a playback sink, while a
+ * deadline monitor checks whether each block is mixed in time.
+ * <p>
+ * Before each block is mixed, the player waits for the sink to make room for
+ * it, so that the time spent waiting for the audio device is not counted 
+ * against the deadline of the block. The size of each block follows the 
+ * block size recommended by the mixer, which is capped at the number of 
+ * samples its inputs decode ahead, and at half of the jitter buffer of the 
+ * sink. If the monitor is adaptive, the mixer lowers its resampler quality
+ * when blocks get close to their deadline.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class AudioPlayer implements AutoCloseable
+{
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    
+    private final AudioMixer mixer;
+    private final PlaybackSink sink;
+    private final DeadlineMonitor monitor;
+    private final int blockSize;
+    private final int maxBlockSize;
+    private volatile boolean isStopped;
+    
+    public AudioPlayer(final AudioMixer mixer, final PlaybackSink sink) 
+    {
+        this(mixer, sink, 
+             new DeadlineMonitor(mixer == null ? ResamplerQuality.PREVIEW : mixer.getResamplerQuality(), true), 
+             DEFAULT_BLOCK_SIZE);
+    }
+    
+    /**
+     * Creates a new audio player, which installs the given deadline monitor 
+     * on the given mixer and adds the given sink as a listener of the mixer,
+     * until the player is closed.
+     * @param mixer the mixer to play the output of
+     * @param sink the sink to play the output on
+     * @param monitor the deadline monitor to time each block with
+     * @param blockSize the number of samples (per channel) to mix at once, as
+     * long as blocks are produced in time
+     */
+    public AudioPlayer(
+            final AudioMixer mixer, 
+            final PlaybackSink sink, 
+            final DeadlineMonitor monitor, 
+            final int blockSize) 
+    {
+        if (mixer == null)
+            throw new IllegalArgumentException("No audio mixer has been specified.");
+        if (sink == null)
+            throw new IllegalArgumentException("No playback sink has been specified.");
+        if (monitor == null)
+            throw new IllegalArgumentException("No deadline monitor has been specified.");
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("Invalid block size has been specified. The value must be larger than zero.");
+        
+        this.mixer = mixer;
+        this.sink = sink;
+        this.monitor = monitor;
+        this.blockSize = blockSize;
+        this.maxBlockSize = (int)Math.max(1, 
+                Audio.getNumOfSamples(mixer.getOutputFormat(), sink.getBufferCapacity()) / 2);
+        
+        this.mixer.setDeadlineMonitor(monitor);
+        this.mixer.addListener(sink);
+    }
+    
+    public DeadlineMonitor getDeadlineMonitor() {
+        return this.monitor;
+    }
+    
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+    
+    /**
+     * Plays the output of the mixer until all of its inputs are exhausted or
+     * until {@link #stop()} is called. This method blocks the calling thread.
+     * @return the number of samples (per channel) that were played
+     */
+    public long play() 
+    {
+        final int sampleRate = this.mixer.getOutputFormat().getSampleRate();
+        long numOfSamples = 0;
+        
+        this.isStopped = false;
+        while (!this.isStopped) {
+            final int numOfBlockSamples = Math.min(
+                    this.mixer.getRecommendedBlockSize(this.blockSize), 
+                    this.maxBlockSize);
+            final Duration blockDuration = Duration.ofNanos(
+                    numOfBlockSamples * 1000000000L / sampleRate);
+            
+            /* Wait for the audio device outside of the monitored block. */
+            if (!this.sink.awaitCapacity(blockDuration, 1, TimeUnit.SECONDS)) {
+                if (Thread.currentThread().isInterrupted())
+                    break;
+                continue;
+            }
+            
+            final int numOfMixedSamples = this.mixer.read(numOfBlockSamples);
+            if (numOfMixedSamples == 0) {
+                this.sink.onFlush(new FlushEvent(this.mixer));
+                break;
+            }
+            numOfSamples += numOfMixedSamples;
+        }
+        return numOfSamples;
+    }
+    
+    /**
+     * Stops playing after the current block. This method may be called from
+     * any thread.
+     */
+    public void stop() {
+        this.isStopped = true;
+    }
+
+    @Override
+    public void close() 
+    {
+        this.stop();
+        this.mixer.removeListener(this.sink);
+        if (this.mixer.getDeadlineMonitor() == this.monitor)
+            this.mixer.setDeadlineMonitor(null);
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+import com.xuggle.xuggler.IAudioSamples;
+import com.xuggle.xuggler.IAudioSamples.Format;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.maksvzw.zetcam.core.metrics.MediaMetrics;
+
+/**
+ * A pool of native audio samples, bucketed by audio format and capacity. 
+ * <p>
+ * Requests are rounded up to the next power of two, so that buffers of 
+ * slightly different sizes, like the output of a resampler, share the same 
+ * bucket. Once the pipeline has reached a steady state, every request is 
+ * satisfied by a buffer that has been released earlier and no native memory 
+ * is allocated anymore. Looking up the bucket of a request does not allocate
+ * either, since the buckets of each format are indexed by the base 2 
+ * logarithm of their capacity.
+ * </p><p>
+ * This class is thread-safe.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class AudioSamplesPool 
+{
+    private static final AudioSamplesPool DEFAULT = new AudioSamplesPool(16);
+    private static final LongAdder ALLOCATIONS = MediaMetrics.getInstance().counter(MediaMetrics.BUFFER_ALLOCATIONS);
+    
+    /**
+     * Gets the pool that is shared by all audio buffers.
+     * @return the shared pool of audio samples
+     */
+    public static AudioSamplesPool getDefault() {
+        return DEFAULT;
+    }
+    
+    /* Formats are only ever added, by replacing the array with a copy, so 
+    that they can be looked up without locking. */
+    private volatile FormatBuckets[] formats;
+    private final int maxBucketSize;
+    
+    public AudioSamplesPool(final int maxBucketSize) 
+    {
+        if (maxBucketSize < 0)
+            throw new IllegalArgumentException("The specified bucket size cannot be smaller than zero.");
+        
+        this.formats = new FormatBuckets[0];
+        this.maxBucketSize = maxBucketSize;
+    }
+    
+    /**
+     * Gets the maximum number of idle audio samples that are retained for 
+     * each combination of audio format and capacity.
+     * @return the maximum number of idle audio samples per bucket
+     */
+    public int getMaxBucketSize() {
+        return this.maxBucketSize;
+    }
+    
+    /**
+     * Takes audio samples from this pool or allocates them if this pool has 
+     * none of the given format and size. 
+     * The returned samples are complete and have the given number of samples 
+     * and time stamp, but their contents are undefined.
+     * <p>
+     * Ownership of the returned object is passed to the caller, who should
+     * either hand it back through {@link #release(IAudioSamples)} or delete it.
+     * </p>
+     * @param audioFormat the format of the audio samples
+     * @param numOfSamples the number of samples (per channel)
+     * @param ptsInSamples the time stamp, in samples
+     * @return the audio samples
+     */
+    public IAudioSamples acquire(
+            final AudioFormat audioFormat, 
+            final long numOfSamples, 
+            final long ptsInSamples)
+    {
+        if (audioFormat == null)
+            throw new IllegalArgumentException("No audio format has been specified.");
+        if (numOfSamples < 0 || numOfSamples > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The specified number of samples is out of range.");
+        
+        final int capacity = toCapacity((int)numOfSamples);
+        /* Requests beyond the largest power of two are not pooled. */
+        final Bucket bucket = Integer.bitCount(capacity) == 1 
+                ? this.getBucket(audioFormat.getSampleRate(), audioFormat.getSampleFormat(), 
+                        audioFormat.getChannels(), capacity, false)
+                : null;
+        
+        IAudioSamples samples = null;
+        if (bucket != null && (samples = bucket.samples.pollFirst()) != null)
+            bucket.size.decrementAndGet();
+        
+        /* Pooled samples are complete and already have the time base of the
+        format, so only their size and time stamps have to be reset, which 
+        does not allocate any native objects. */
+        if (samples != null) {
+            Audio.resetSamples(samples, numOfSamples, ptsInSamples);
+            return samples;
+        }
+        
+        samples = IAudioSamples.make(capacity, audioFormat.getChannels(), audioFormat.getSampleFormat());
+        ALLOCATIONS.increment();
+        Audio.completeSamples(samples, audioFormat, numOfSamples, ptsInSamples);
+        return samples;
+    }
+    
+    /**
+     * Returns the given audio samples to this pool.
+     * Ownership of the given object is passed to this pool. If the bucket it 
+     * belongs to is full, if it is still referenced elsewhere, or if it is not
+     * complete, it is simply deleted instead. Released samples should have a
+     * time base of 1/(sample rate), like the samples handed out by this pool.
+     * @param samples the audio samples to release
+     */
+    public void release(final IAudioSamples samples) 
+    {
+        if (samples == null)
+            throw new IllegalArgumentException("No audio samples have been specified.");
+        
+        final long maxSamples = samples.getMaxSamples();
+        if (samples.getCurrentRefCount() > 1 || !samples.isComplete() || 
+            maxSamples <= 0 || maxSamples > Integer.MAX_VALUE) {
+            samples.delete();
+            return;
+        }
+        
+        /* The capacity of pooled samples is a power of two, any padding added
+        by the native allocator is discarded by rounding down. */
+        final int capacity = Integer.highestOneBit((int)maxSamples);
+        final Bucket bucket = this.getBucket(samples.getSampleRate(), samples.getFormat(), 
+                samples.getChannels(), capacity, true);
+        
+        if (bucket.size.incrementAndGet() > this.maxBucketSize) {
+            bucket.size.decrementAndGet();
+            samples.delete();
+            return;
+        }
+        bucket.samples.offerFirst(samples);
+    }
+    
+    /**
+     * Deletes all idle audio samples of this pool.
+     */
+    public void clear() 
+    {
+        IAudioSamples samples;
+        for(FormatBuckets format : this.formats) {
+            for(Bucket bucket : format.buckets) {
+                while((samples = bucket.samples.pollFirst()) != null) {
+                    bucket.size.decrementAndGet();
+                    samples.delete();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Gets the bucket of the given format and capacity, which must be a power
+     * of two.
+     * @param create whether to add the format if this pool has no buckets for
+     * it yet
+     * @return the bucket, or null if this pool has no buckets for the format
+     * and none should be created
+     */
+    private Bucket getBucket(
+            final int sampleRate, 
+            final Format sampleFormat, 
+            final int channels, 
+            final int capacity, 
+            final boolean create) 
+    {
+        final int index = Integer.numberOfTrailingZeros(capacity);
+        for(FormatBuckets format : this.formats) {
+            if (format.matches(sampleRate, sampleFormat, channels))
+                return format.buckets[index];
+        }
+        return create 
+                ? this.addFormat(sampleRate, sampleFormat, channels).buckets[index] 
+                : null;
+    }
+    
+    private synchronized FormatBuckets addFormat(
+            final int sampleRate, 
+            final Format sampleFormat, 
+            final int channels) 
+    {
+        /* Another thread may have added the format in the meantime. */
+        final FormatBuckets[] formats = this.formats;
+        for(FormatBuckets format : formats) {
+            if (format.matches(sampleRate, sampleFormat, channels))
+                return format;
+        }
+        
+        final FormatBuckets format = new FormatBuckets(sampleRate, sampleFormat, channels);
+        final FormatBuckets[] newFormats = Arrays.copyOf(formats, formats.length + 1);
+        newFormats[formats.length] = format;
+        this.formats = newFormats;
+        return format;
+    }
+    
+    private static int toCapacity(final int numOfSamples) 
+    {
+        if (numOfSamples <= 1)
+            return 1;
+        
+        final int capacity = Integer.highestOneBit(numOfSamples - 1) << 1;
+        /* Requests beyond the largest power of two are allocated exactly. */
+        return capacity > 0 ? capacity : numOfSamples;
+    }
+    
+    private static final class Bucket 
+    {
+        /* The deque is used as a stack, so that recently released and 
+        therefore likely cached samples are handed out first. */
+        final ConcurrentLinkedDeque<IAudioSamples> samples = new ConcurrentLinkedDeque<>();
+        final AtomicInteger size = new AtomicInteger();
+    }
+    
+    /**
+     * The buckets of a single audio format, one for each power of two.
+     */
+    private static final class FormatBuckets 
+    {
+        final int sampleRate;
+        final Format sampleFormat;
+        final int channels;
+        final Bucket[] buckets;
+        
+        FormatBuckets(final int sampleRate, final Format sampleFormat, final int channels) 
+        {
+            this.sampleRate = sampleRate;
+            this.sampleFormat = sampleFormat;
+            this.channels = channels;
+            this.buckets = new Bucket[Integer.SIZE - 1];
+            for(int i = 0; i < this.buckets.length; i++)
+                this.buckets[i] = new Bucket();
+        }
+        
+        boolean matches(final int sampleRate, final Format sampleFormat, final int channels) 
+        {
+            return this.sampleRate == sampleRate && 
+                    this.sampleFormat == sampleFormat && 
+                    this.channels == channels;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * This class maps presentation time stamps of an audio stream to the byte 
+ * offsets of the packets that carry them.
+ * <p>
+ * Seeking on compressed streams with a variable bit rate, such as MP3 or AAC,
+ * can only be done approximately by the container. An index of every n-th 
+ * packet allows to jump straight to the nearest preceding packet of any 
+ * position by its byte offset, after which only a few frames have to be 
+ * decoded to reach the exact sample.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class AudioSeekIndex implements Serializable
+{
+    /**
+     * The default number of packets between two entries of an index.
+     */
+    public static final int DEFAULT_INTERVAL = 32;
+    
+    private final int interval;
+    private final long[] timeStamps;
+    private final long[] positions;
+    
+    private AudioSeekIndex(
+            final int interval, 
+            final long[] timeStamps, 
+            final long[] positions) 
+    {
+        this.interval = interval;
+        this.timeStamps = timeStamps;
+        this.positions = positions;
+    }
+    
+    /**
+     * Gets the number of packets between two entries of this index.
+     * @return the number of packets between two entries
+     */
+    public int getInterval() {
+        return this.interval;
+    }
+    
+    /**
+     * Gets the number of entries of this index.
+     * @return the number of entries
+     */
+    public int getNumOfEntries() {
+        return this.timeStamps.length;
+    }
+    
+    /**
+     * Gets the time stamp of the packet of the given entry, in the time base
+     * of the audio stream.
+     * @param entry the index of the entry
+     * @return the time stamp of the packet
+     */
+    public long getTimeStamp(final int entry) {
+        return this.timeStamps[entry];
+    }
+    
+    /**
+     * Gets the byte offset of the packet of the given entry.
+     * @param entry the index of the entry
+     * @return the byte offset of the packet
+     */
+    public long getPosition(final int entry) {
+        return this.positions[entry];
+    }
+    
+    /**
+     * Finds the entry of the last indexed packet that starts at or before the
+     * given time stamp.
+     * @param timeStamp the time stamp to find, in the time base of the audio
+     * stream
+     * @return the index of the entry, or -1 if no indexed packet starts at or
+     * before the given time stamp
+     */
+    public int floorEntry(final long timeStamp) 
+    {
+        final int i = Arrays.binarySearch(this.timeStamps, timeStamp);
+        return i >= 0 ? i : -i - 2;
+    }
+    
+    /**
+     * This class builds a seek index from the packets that are read from an
+     * audio stream, in the order in which they are read.
+     */
+    public static final class Builder
+    {
+        private final int interval;
+        private long[] timeStamps;
+        private long[] positions;
+        private int numOfEntries;
+        private int numOfPackets;
+        private long lastTimeStamp;
+        
+        public Builder() {
+            this(DEFAULT_INTERVAL);
+        }
+        
+        public Builder(final int interval) 
+        {
+            if (interval <= 0)
+                throw new IllegalArgumentException("Invalid interval has been specified. The value must be larger than zero.");
+            
+            this.interval = interval;
+            this.timeStamps = new long[64];
+            this.positions = new long[64];
+            this.lastTimeStamp = Long.MIN_VALUE;
+        }
+        
+        /**
+         * Adds a packet that has been read from the audio stream.
+         * Only every n-th packet with a known time stamp and byte offset is 
+         * recorded.
+         * @param timeStamp the presentation time stamp of the packet
+         * @param position the byte offset of the packet
+         */
+        public void add(final long timeStamp, final long position) 
+        {
+            /* Packets without a time stamp or byte offset, or that are out of
+               order, cannot be seeked to. */
+            if (timeStamp < 0 || position < 0 || timeStamp <= this.lastTimeStamp)
+                return;
+            
+            if (this.numOfPackets++ % this.interval != 0)
+                return;
+            
+            if (this.numOfEntries == this.timeStamps.length) {
+                this.timeStamps = Arrays.copyOf(this.timeStamps, this.numOfEntries * 2);
+                this.positions = Arrays.copyOf(this.positions, this.numOfEntries * 2);
+            }
+            
+            this.timeStamps[this.numOfEntries] = timeStamp;
+            this.positions[this.numOfEntries] = position;
+            this.numOfEntries++;
+            this.lastTimeStamp = timeStamp;
+        }
+        
+        public AudioSeekIndex build() 
+        {
+            return new AudioSeekIndex(
+                    this.interval,
+                    Arrays.copyOf(this.timeStamps, this.numOfEntries),
+                    Arrays.copyOf(this.positions, this.numOfEntries));
+        }
+    }
+}
@@ -18,30 +18,39 @@
  */
 package org.maksvzw.zetcam.core.audio;
 
-import org.maksvzw.zetcam.core.audio.AudioFormat;
 import com.xuggle.mediatool.MediaListenerAdapter;
 import com.xuggle.mediatool.event.IAudioSamplesEvent;
-import com.xuggle.xuggler.IAudioResampler;
+import com.xuggle.mediatool.event.IFlushEvent;
 import com.xuggle.xuggler.IAudioSamples;
-import com.xuggle.xuggler.IAudioSamples.Format;
-import org.maksvzw.zetcam.core.audio.buffers.AudioSampleBuffer;
+import org.maksvzw.zetcam.core.metrics.MediaMetrics;
+import org.maksvzw.zetcam.core.metrics.SampleTimer;
 
 /**
- *
+ * Base class of media listeners that consume audio samples of a given 
+ * format. Samples of any other format are converted by an 
+ * {@link AudioConverter} first, which only resamples if the sample rates 
+ * differ. A flush event marks the end of the stream, upon which the samples
+ * that the resampler still holds back are consumed as well.
+ * 
  * @author Lenny Knockaert
  */
 public abstract class AudioSink extends MediaListenerAdapter implements AutoCloseable
 { 
-    private final AudioFormat dstFormat;
-    private IAudioResampler resampler;
+    private final AudioConverter converter;
+    private final SampleTimer timer;
     private boolean isClosed;
     
-    public AudioSink(AudioFormat audioFormat) 
+    public AudioSink(AudioFormat audioFormat) {
+        this(audioFormat, ResamplerQuality.PREVIEW);
+    }
+    
+    public AudioSink(AudioFormat audioFormat, ResamplerQuality quality) 
     {
         if (audioFormat == null)
             throw new IllegalArgumentException("No audio format has been specified.");
         
-        this.dstFormat = audioFormat;
+        this.converter = new AudioConverter(audioFormat, quality);
+        this.timer = MediaMetrics.getInstance().timer("sink." + this.getClass().getSimpleName());
         this.isClosed = false;
     }
     
@@ -49,54 +58,54 @@ public abstract class AudioSink extends MediaListenerAdapter implements AutoClos
         return this.isClosed;
     }
     
+    public ResamplerQuality getResamplerQuality() {
+        return this.converter.getQuality();
+    }
+    
+    /**
+     * Sets the quality with which samples of a different sample rate are 
+     * resampled. This method may be called from any thread.
+     * @param quality the resampler quality
+     */
+    public void setResamplerQuality(final ResamplerQuality quality) {
+        this.converter.setQuality(quality);
+    }
+    
     @Override
     public final void onAudioSamples(IAudioSamplesEvent iase) 
     {
         if (this.isClosed)
             return;
         
-        final IAudioSamples inputSamples = iase.getAudioSamples();
-        final int inputChannels = inputSamples.getChannels(),
-                inputRate = inputSamples.getSampleRate();
-        final Format inputFormat = inputSamples.getFormat();
-        
-        if (this.resampler != null && 
-            (inputRate != this.resampler.getInputRate() || 
-             inputFormat != this.resampler.getInputFormat() ||
-             inputChannels != this.resampler.getInputChannels()))
-        {
-            this.resampler.delete();
-            this.resampler = null;
+        if (!MediaMetrics.getInstance().isEnabled()) {
+            this.onAudioSamples(this.converter.convert(iase.getAudioSamples()));
+            return;
         }
         
-        if (this.resampler == null && 
-            (inputRate != this.dstFormat.getSampleRate() ||
-            inputFormat != this.dstFormat.getSampleFormat() ||
-            inputChannels != this.dstFormat.getChannels()))
-        {
-            this.resampler = IAudioResampler.make(
-                    this.dstFormat.getChannels(), inputChannels, 
-                    this.dstFormat.getSampleRate(), inputRate, 
-                    this.dstFormat.getSampleFormat(), inputFormat);
-        }
+        /* The time spent converting the samples is included. */
+        final IAudioSamples samples = iase.getAudioSamples();
+        final long startTime = System.nanoTime();
+        this.onAudioSamples(this.converter.convert(samples));
+        this.timer.record(System.nanoTime() - startTime, samples.getNumSamples());
+    }
+    
+    @Override
+    public void onFlush(IFlushEvent ife) 
+    {
+        if (this.isClosed)
+            return;
         
-        if (this.resampler != null) {
-            final int numOfInputSamples = (int)inputSamples.getNumSamples();
-            final int numOfOutputSamples = (int)this.resampler.getMinimumNumSamplesRequiredInOutputSamples(inputSamples);
-            
-            try (AudioSampleBuffer outputBuffer = AudioSampleBuffer.allocate(
-                    this.dstFormat, numOfOutputSamples)) 
-            {
-                final IAudioSamples outputSamples = outputBuffer.getDataCached();
-                this.resampler.resample(outputSamples, inputSamples, numOfInputSamples);
-                this.onAudioSamples(outputSamples);
-            }
-        } 
-        else {
-            this.onAudioSamples(inputSamples);
-        }
+        final IAudioSamples samples = this.converter.flush();
+        if (samples != null)
+            this.onAudioSamples(samples);
     }
     
+    /**
+     * Consumes the given audio samples, which are of the format of this sink.
+     * The samples may be held by a buffer that is reused for the next call, so
+     * they must be copied if they are needed afterwards.
+     * @param samples the audio samples to consume
+     */
     protected abstract void onAudioSamples(IAudioSamples samples);
     
     @Override
@@ -105,11 +114,7 @@ public abstract class AudioSink extends MediaListenerAdapter implements AutoClos
         if (this.isClosed)
             return;
         
-        if (this.resampler != null) {
-            this.resampler.delete();
-            this.resampler = null;
-        }
-        
+        this.converter.close();
         this.isClosed = true;
     }
 }
\ No newline at end of file
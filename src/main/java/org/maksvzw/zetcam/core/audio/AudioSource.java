@@ -21,12 +21,28 @@ package org.maksvzw.zetcam.core.audio;
 import com.xuggle.mediatool.IMediaListener;
 import com.xuggle.mediatool.IMediaReader;
 import com.xuggle.mediatool.MediaGeneratorAdapter;
+import com.xuggle.mediatool.MediaListenerAdapter;
 import com.xuggle.mediatool.ToolFactory;
+import com.xuggle.mediatool.event.FlushEvent;
+import com.xuggle.mediatool.event.IAudioSamplesEvent;
+import com.xuggle.mediatool.event.IFlushEvent;
+import com.xuggle.mediatool.event.IReadPacketEvent;
+import com.xuggle.xuggler.Global;
+import com.xuggle.xuggler.IAudioSamples;
 import com.xuggle.xuggler.ICodec;
 import com.xuggle.xuggler.IContainer;
 import com.xuggle.xuggler.IError;
+import com.xuggle.xuggler.IPacket;
+import com.xuggle.xuggler.IRational;
 import com.xuggle.xuggler.IStream;
+import com.xuggle.xuggler.IStreamCoder;
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.function.Consumer;
+import org.maksvzw.zetcam.core.MediaType;
+import org.maksvzw.zetcam.core.metrics.MediaEvents;
+import org.maksvzw.zetcam.core.metrics.MediaStage;
 
 /**
  *
@@ -40,12 +56,24 @@ AudioSource implements IMediaGenerator
         -> rewind();
         -> close();
 */
-public class AudioSource extends MediaGeneratorAdapter implements AutoCloseable
+public class AudioSource extends MediaGeneratorAdapter implements AudioInput
 {
     private final File audioFile;
+    private final PacketTracker packetTracker;
     private boolean isOpen;
     private boolean eof;
     private IMediaReader reader;
+    private IRational timeBase;
+    private IRational sampleTimeBase;
+    private int sampleRate;
+    private Duration trimStartTime;
+    private Duration trimDuration;
+    private long trimStartSample;
+    private long trimEndSample;
+    private long firstSample;
+    private AudioSeekIndex seekIndex;
+    private Consumer<AudioSeekIndex> fullDecodeListener;
+    private boolean isDecodingInFull;
     
     public AudioSource(File audioFile) 
     {
@@ -53,6 +81,8 @@ public class AudioSource extends MediaGeneratorAdapter implements AutoCloseable
             throw new IllegalArgumentException("No audio file has been specified.");
 
         this.audioFile = audioFile;
+        this.packetTracker = new PacketTracker();
+        this.trimEndSample = Long.MAX_VALUE;
     }
     
     public boolean isOpen() {
@@ -63,6 +93,107 @@ public class AudioSource extends MediaGeneratorAdapter implements AutoCloseable
         return this.eof;
     }
     
+    /**
+     * Gets the seek index of this audio source.
+     * An index is built while this audio source is decoded in full for the
+     * first time, that is from its start up to its end without seeking.
+     * @return the seek index, or null if no index has been built or set yet
+     */
+    public AudioSeekIndex getSeekIndex() {
+        return this.seekIndex;
+    }
+    
+    /**
+     * Sets the seek index of this audio source, e.g. a previously built index
+     * that has been persisted with the resource, so that seeking can jump 
+     * straight to the nearest indexed packet by its byte offset.
+     * @param seekIndex the seek index, or null to seek by time stamp
+     */
+    public void setSeekIndex(final AudioSeekIndex seekIndex) {
+        this.seekIndex = seekIndex;
+    }
+    
+    /**
+     * Sets the listener that is notified, on the thread that reads from this
+     * audio source, each time this audio source has been decoded in full, 
+     * that is from its start up to its end without seeking. The listener 
+     * receives the seek index of this audio source, which has been built 
+     * during the decode if it had none, e.g. in order to store it with the 
+     * resource so that it does not have to be built again. It is notified 
+     * after the flush event has been passed to the listeners of this audio
+     * source, so that they have received all samples.
+     * @param listener the listener of full decodes, or null
+     */
+    public void setFullDecodeListener(final Consumer<AudioSeekIndex> listener) {
+        this.fullDecodeListener = listener;
+    }
+    
+    /**
+     * Gets the start time of the trimmed range of this audio source.
+     * @return the start time of the trimmed range, or null if this audio 
+     * source isn't trimmed
+     */
+    public Duration getTrimStartTime() {
+        return this.trimStartTime;
+    }
+    
+    /**
+     * Gets the duration of the trimmed range of this audio source.
+     * @return the duration of the trimmed range, or null if this audio source
+     * isn't trimmed
+     */
+    public Duration getTrimDuration() {
+        return this.trimDuration;
+    }
+    
+    /**
+     * Restricts this audio source to the given range.
+     * Opening or rewinding this audio source seeks to the start of the range 
+     * and reading stops once the end of the range has been read, instead of
+     * decoding and discarding everything outside of it.
+     * <p>
+     * The range is sample-exact: samples that are decoded before the start of
+     * the range, since seeking is only accurate up to the nearest preceding 
+     * key frame, and samples after the end of the range are cut from the 
+     * packets they are part of before they are passed to the listeners.
+     * </p>
+     * @param startTime the start time of the range
+     * @param duration the duration of the range
+     */
+    public void setTrim(final Duration startTime, final Duration duration) 
+    {
+        if (startTime == null)
+            throw new IllegalArgumentException("No start time has been specified.");
+        if (duration == null)
+            throw new IllegalArgumentException("No duration has been specified.");
+        if (startTime.isNegative())
+            throw new IllegalArgumentException("Invalid start time has been specified. The value cannot be smaller than zero.");
+        if (duration.compareTo(Duration.ZERO) <= 0)
+            throw new IllegalArgumentException("Invalid duration has been specified. The value must be larger than zero.");
+        
+        this.trimStartTime = startTime;
+        this.trimDuration = duration;
+        if (this.isOpen)
+            this.updateTrimSamples();
+    }
+    
+    /**
+     * Removes the trimmed range of this audio source.
+     */
+    public void clearTrim() 
+    {
+        this.trimStartTime = null;
+        this.trimDuration = null;
+        this.trimStartSample = 0;
+        this.trimEndSample = Long.MAX_VALUE;
+    }
+    
+    private void updateTrimSamples() 
+    {
+        this.trimStartSample = this.toSample(this.trimStartTime);
+        this.trimEndSample = this.toSample(this.trimStartTime.plus(this.trimDuration));
+    }
+    
     public void open() 
     {
         if (this.isOpen)
@@ -71,9 +202,6 @@ public class AudioSource extends MediaGeneratorAdapter implements AutoCloseable
         this.reader = ToolFactory.makeReader(this.audioFile.getAbsolutePath());
         if (this.reader == null)
             throw new IllegalArgumentException("No audio file has been specified.");
-            
-        for(IMediaListener listener : this.getListeners())
-            this.reader.addListener(listener);
         
         final IContainer container;
         final IStream stream;
@@ -93,7 +221,150 @@ public class AudioSource extends MediaGeneratorAdapter implements AutoCloseable
             this.reader.close();
             throw ex;
         }
+        
+        this.timeBase = stream.getTimeBase();
+        this.sampleRate = stream.getStreamCoder().getSampleRate();
+        this.sampleTimeBase = IRational.make(1, this.sampleRate);
+        /* Decoded samples are passed to the listeners by the packet tracker,
+        so that they can be trimmed first. */
+        this.reader.addListener(this.packetTracker);
+        this.packetTracker.nextSample = Long.MIN_VALUE;
+        this.firstSample = 0;
         this.isOpen = true;
+        
+        if (this.trimStartTime != null) {
+            this.updateTrimSamples();
+            this.seek(this.trimStartTime);
+        }
+        else {
+            this.isDecodingInFull = true;
+            /* Index the packets while decoding the whole stream. */
+            if (this.seekIndex == null)
+                this.packetTracker.indexBuilder = new AudioSeekIndex.Builder();
+        }
+    }
+    
+    /**
+     * Seeks to the given position.
+     * The container is positioned at the nearest key frame at or before the
+     * given position, or at the byte offset of the nearest indexed packet if 
+     * this audio source has a seek index. The samples that are decoded before
+     * the given position are discarded, so that the first sample passed to 
+     * the listeners is the sample at the given position.
+     * <p>
+     * Decoded samples are positioned by counting them from an anchor, rather
+     * than by their time stamps, which are unreliable after a byte seek in a
+     * raw stream. After a byte seek, the anchor is the indexed time stamp of
+     * the packet that has been sought; otherwise it is the time stamp of the 
+     * first packet that is read after the seek. The decoder is reopened, so 
+     * that no state of the previous position, e.g. the bit reservoir of an 
+     * MP3 decoder, leaks into the decoded samples.
+     * @param position the position to seek to, relative to the start of the 
+     * audio source
+     */
+    public void seek(final Duration position) 
+    {
+        if (!this.isOpen)
+            throw new IllegalStateException("This audio source has not yet been opened.");
+        if (position == null)
+            throw new IllegalArgumentException("No position has been specified.");
+        if (position.isNegative())
+            throw new IllegalArgumentException("Invalid position has been specified. The value cannot be smaller than zero.");
+        
+        final long timeStamp = this.toTimeStamp(position);
+        final int entry = this.seekIndex != null 
+                ? this.seekIndex.floorEntry(timeStamp) 
+                : -1;
+        
+        final int result;
+        final long anchorSample;
+        if (entry >= 0) {
+            final long bytePosition = this.seekIndex.getPosition(entry);
+            result = this.reader.getContainer().seekKeyFrame(
+                    0, bytePosition, bytePosition, bytePosition, 
+                    IContainer.SEEK_FLAG_BYTE);
+            anchorSample = this.timeStampToSample(this.seekIndex.getTimeStamp(entry));
+        } 
+        else {
+            result = this.reader.getContainer().seekKeyFrame(
+                    0, Long.MIN_VALUE, timeStamp, timeStamp, 0);
+            anchorSample = Long.MIN_VALUE;
+        }
+        if (result < 0)
+            throw new RuntimeException(IError.make(result).getDescription());
+        
+        this.reopenDecoder();
+        
+        /* The stream is no longer decoded in full, so it cannot be indexed. */
+        this.isDecodingInFull = false;
+        this.packetTracker.indexBuilder = null;
+        this.packetTracker.nextSample = anchorSample;
+        this.packetTracker.endSample = Long.MIN_VALUE;
+        this.firstSample = this.toSample(position);
+        this.eof = false;
+    }
+    
+    /**
+     * Reopens the decoder of the audio stream, if it has been opened, so that
+     * it does not hold on to any state of the position before the last seek.
+     */
+    private void reopenDecoder() 
+    {
+        final IStreamCoder coder = this.reader.getContainer().getStream(0).getStreamCoder();
+        if (!coder.isOpen())
+            return;
+        
+        coder.close();
+        final int result = coder.open(null, null);
+        if (result < 0)
+            throw new RuntimeException(IError.make(result).getDescription());
+    }
+    
+    /**
+     * Seeks to the start of this audio source, or to the start of its trimmed
+     * range if it has one.
+     */
+    public void rewind() {
+        this.seek(this.trimStartTime != null ? this.trimStartTime : Duration.ZERO);
+    }
+    
+    /**
+     * Converts the given time to a time stamp in the time base of the audio 
+     * stream.
+     */
+    private long toTimeStamp(final Duration d) 
+    {
+        return IRational.rescale(
+                d.toNanos(), 
+                this.timeBase.getNumerator(), this.timeBase.getDenominator(), 
+                1, 1000000000, 
+                IRational.Rounding.ROUND_DOWN);
+    }
+    
+    /**
+     * Converts the given time stamp in the time base of the audio stream to a
+     * sample number at the sample rate of the audio stream.
+     */
+    private long timeStampToSample(final long timeStamp) 
+    {
+        return IRational.rescale(
+                timeStamp, 
+                1, this.sampleRate, 
+                this.timeBase.getNumerator(), this.timeBase.getDenominator(), 
+                IRational.Rounding.ROUND_NEAR_INF);
+    }
+    
+    /**
+     * Converts the given time to a sample number at the sample rate of the 
+     * audio stream.
+     */
+    private long toSample(final Duration d) 
+    {
+        return IRational.rescale(
+                d.toNanos(), 
+                1, this.sampleRate, 
+                1, 1000000000, 
+                IRational.Rounding.ROUND_NEAR_INF);
     }
     
     public boolean read() 
@@ -103,17 +374,53 @@ public class AudioSource extends MediaGeneratorAdapter implements AutoCloseable
         if (this.eof)
             return false;
         
-        IError err;
-        if ((err = this.reader.readPacket()) == null)
+        final MediaEvents.BlockEvent event = MediaEvents.begin(MediaStage.DECODE);
+        this.packetTracker.numOfSamples = 0;
+        final IError err = this.reader.readPacket();
+        if (event != null)
+            MediaEvents.end(event, this.audioFile.getName(), MediaType.AUDIO, 
+                    this.packetTracker.numOfSamples, this.packetTracker.lastSamplesPts);
+        
+        if (err == null) {
+            /* Stop reading once the end of the trimmed range has been 
+            decoded. */
+            if (this.packetTracker.endSample >= this.trimEndSample) {
+                this.eof = true;
+                this.raiseFlushEvent();
+                return false;
+            }
             return true;
+        }
         
         if (err.getType() == IError.Type.ERROR_EOF) {
+            if (this.packetTracker.indexBuilder != null) {
+                this.seekIndex = this.packetTracker.indexBuilder.build();
+                this.packetTracker.indexBuilder = null;
+            }
             this.eof = true;
+            this.raiseFlushEvent();
+            
+            if (this.isDecodingInFull) {
+                this.isDecodingInFull = false;
+                if (this.fullDecodeListener != null)
+                    this.fullDecodeListener.accept(this.seekIndex);
+            }
             return false;
         }
         throw new RuntimeException(err.getDescription());
     }
     
+    /**
+     * Signals the end of the stream to the listeners, so that listeners which
+     * hold back samples, e.g. to resample them, can pass them on.
+     */
+    private void raiseFlushEvent() 
+    {
+        final IFlushEvent event = new FlushEvent(this);
+        for(IMediaListener listener : this.getListeners())
+            listener.onFlush(event);
+    }
+    
     public void readAll() 
     {
         while(this.read())
@@ -126,25 +433,46 @@ public class AudioSource extends MediaGeneratorAdapter implements AutoCloseable
         if (listener == null || this.getListeners().contains(listener))
             return false;
         
-        if (!super.addListener(listener))
-            return false;
-        
-        if (this.isOpen)
-            this.reader.addListener(listener);
-        
-        return true;
+        return super.addListener(listener);
     }
     
     @Override
     public boolean removeListener(IMediaListener listener) 
     {
-        if (listener == null || !super.removeListener(listener))
-            return false;
-            
-        if (this.isOpen)
-            this.reader.removeListener(listener);
+        return listener != null && super.removeListener(listener);
+    }
+    
+    /**
+     * Passes the given decoded samples to the listeners, without the samples
+     * that precede the position that has been sought or the trimmed range, or
+     * that follow the trimmed range. Samples are cut from the packet in place.
+     * @param sample the position of the first of the given samples
+     */
+    private void raiseAudioSamplesEvent(final IAudioSamplesEvent iase, final long sample) 
+    {
+        final IAudioSamples samples = iase.getAudioSamples();
+        final long numOfSamples = samples.getNumSamples();
         
-        return true;
+        final long startSample = Math.max(sample, Math.max(this.firstSample, this.trimStartSample));
+        final long endSample = Math.min(sample + numOfSamples, this.trimEndSample);
+        if (endSample <= startSample)
+            return;
+        
+        if (startSample > sample) {
+            /* Move the remaining samples to the start of the packet. */
+            final int frameSize = AudioFormat.of(samples).getFrameSize();
+            final ByteBuffer data = Audio.getByteBuffer(samples);
+            data.limit((int)(endSample - sample) * frameSize);
+            data.position((int)(startSample - sample) * frameSize);
+            data.compact();
+        }
+        /* Stamp the samples with their counted position, since the time stamp
+        of the decoder cannot be relied upon after a seek. */
+        samples.setTimeBase(this.sampleTimeBase);
+        Audio.resetSamples(samples, endSample - startSample, startSample);
+        
+        for(IMediaListener listener : this.getListeners())
+            listener.onAudioSamples(iase);
     }
 
     @Override
@@ -154,14 +482,67 @@ public class AudioSource extends MediaGeneratorAdapter implements AutoCloseable
             return;
         
         if (this.reader != null) {
-            for(IMediaListener listener : this.getListeners())
-                this.reader.removeListener(listener);
-            
+            this.reader.removeListener(this.packetTracker);
             this.reader.close();
             this.reader = null;
         }
         
+        this.timeBase = null;
+        this.sampleTimeBase = null;
+        this.isDecodingInFull = false;
+        this.packetTracker.indexBuilder = null;
+        this.packetTracker.nextSample = Long.MIN_VALUE;
+        this.packetTracker.endSample = Long.MIN_VALUE;
         this.isOpen = false;
         this.eof = false;
     }
+    
+    /**
+     * Adds the time stamp of each packet that is read to the seek index that 
+     * is being built, if any, and anchors the position of the decoded samples
+     * at the time stamp of the first packet that is read, unless it has been
+     * anchored by a seek already. It keeps track of the position of the 
+     * samples that are decoded from the packets, which it passes on to the 
+     * listeners of the audio source.
+     */
+    private final class PacketTracker extends MediaListenerAdapter
+    {
+        private long nextSample = Long.MIN_VALUE;
+        private long lastSamplesPts;
+        private long numOfSamples;
+        private long endSample = Long.MIN_VALUE;
+        private AudioSeekIndex.Builder indexBuilder;
+        
+        @Override
+        public void onAudioSamples(IAudioSamplesEvent iase) 
+        {
+            final IAudioSamples samples = iase.getAudioSamples();
+            /* Fall back to the time stamp of the samples if no packet has had
+            a time stamp to anchor them. */
+            final long sample = this.nextSample != Long.MIN_VALUE 
+                    ? this.nextSample
+                    : IRational.rescale(
+                            samples.getPts(), 
+                            1, samples.getSampleRate(), 
+                            1, 1000000, 
+                            IRational.Rounding.ROUND_NEAR_INF);
+            
+            this.lastSamplesPts = samples.getPts();
+            this.numOfSamples += samples.getNumSamples();
+            this.nextSample = sample + samples.getNumSamples();
+            this.endSample = this.nextSample;
+            raiseAudioSamplesEvent(iase, sample);
+        }
+        
+        @Override
+        public void onReadPacket(IReadPacketEvent irpe) 
+        {
+            final IPacket packet = irpe.getPacket();
+            final long timeStamp = packet.getPts();
+            if (this.nextSample == Long.MIN_VALUE && timeStamp != Global.NO_PTS)
+                this.nextSample = timeStampToSample(timeStamp);
+            if (this.indexBuilder != null)
+                this.indexBuilder.add(timeStamp, packet.getPosition());
+        }
+    }
 }
\ No newline at end of file
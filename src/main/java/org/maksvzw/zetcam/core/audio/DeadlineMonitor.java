@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.maksvzw.zetcam.core.metrics.MediaMetrics;
+
+/**
+ * This class keeps track of whether blocks of audio are produced in time for
+ * real-time output.
+ * <p>
+ * Each block of <code>n</code> samples has a budget of <code>n / sample 
+ * rate</code> seconds of wall clock time: the time it takes the output to 
+ * play the block. The margin that is left of the budget is recorded in a 
+ * histogram of {@value #NUM_OF_BUCKETS} buckets: the first bucket counts the
+ * blocks that overran their budget, and each next bucket counts the blocks 
+ * that left another 10% of their budget. An overrun is attributed to the 
+ * stage of the block that took the longest. 
+ * </p><p>
+ * If the monitor is adaptive, it trades quality for time once the average
+ * budget utilization gets too high: it first lowers the resampler quality 
+ * and then raises the recommended block size, so that the fixed cost of each
+ * block is spread over more samples. Both are restored, in reverse order, 
+ * once the utilization is low again.
+ * </p><p>
+ * Blocks are recorded from a single thread, while the statistics can be 
+ * polled from any thread.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class DeadlineMonitor 
+{
+    public static final int NUM_OF_BUCKETS = 11;
+    public static final int MAX_RECENT_OVERRUNS = 64;
+    public static final int MAX_BLOCK_SIZE_FACTOR = 8;
+    
+    private static final Logger LOGGER = Logger.getLogger(DeadlineMonitor.class.getName());
+    private static final LongAdder OVERRUNS = MediaMetrics.getInstance().counter(MediaMetrics.DEADLINE_OVERRUNS);
+    
+    /* The weight of each block in the average utilization, the utilization 
+    above which and below which quality is traded, and the number of blocks
+    to wait after each trade before the next one. */
+    private static final double UTILIZATION_WEIGHT = 0.05;
+    private static final double HIGH_UTILIZATION = 0.8;
+    private static final double LOW_UTILIZATION = 0.4;
+    private static final int COOLDOWN_BLOCKS = 50;
+    
+    private final ResamplerQuality maxQuality;
+    private final boolean isAdaptive;
+    private final AtomicLongArray histogram;
+    private final ConcurrentMap<String, LongAdder> overrunsByStage;
+    private final Deque<Overrun> recentOverruns;
+    
+    private String[] stageNames;
+    private long[] stageNanos;
+    private int numOfStages;
+    private long blockStartTime;
+    private long blockBudget;
+    private int cooldown;
+    
+    private volatile long numOfBlocks;
+    private volatile long numOfOverruns;
+    private volatile long minMargin;
+    private volatile double utilization;
+    private volatile ResamplerQuality quality;
+    private volatile int blockSizeFactor;
+    
+    public DeadlineMonitor() {
+        this(ResamplerQuality.PREVIEW, true);
+    }
+    
+    /**
+     * Creates a new deadline monitor.
+     * @param maxQuality the resampler quality to use as long as blocks are 
+     * produced in time
+     * @param isAdaptive true if quality should be traded for time when the
+     * margin shrinks
+     */
+    public DeadlineMonitor(final ResamplerQuality maxQuality, final boolean isAdaptive) 
+    {
+        if (maxQuality == null)
+            throw new IllegalArgumentException("No resampler quality has been specified.");
+        
+        this.maxQuality = maxQuality;
+        this.isAdaptive = isAdaptive;
+        this.histogram = new AtomicLongArray(NUM_OF_BUCKETS);
+        this.overrunsByStage = new ConcurrentHashMap<>();
+        this.recentOverruns = new ArrayDeque<>(MAX_RECENT_OVERRUNS);
+        this.stageNames = new String[8];
+        this.stageNanos = new long[8];
+        this.minMargin = Long.MAX_VALUE;
+        this.quality = maxQuality;
+        this.blockSizeFactor = 1;
+    }
+    
+    public ResamplerQuality getMaxQuality() {
+        return this.maxQuality;
+    }
+    
+    public boolean isAdaptive() {
+        return this.isAdaptive;
+    }
+    
+    /**
+     * Begins timing a block.
+     * @param numOfSamples the number of samples (per channel) of the block
+     * @param sampleRate the sample rate at which the block is played
+     */
+    public void beginBlock(final int numOfSamples, final int sampleRate) 
+    {
+        if (numOfSamples <= 0)
+            throw new IllegalArgumentException("Invalid number of samples has been specified. The value must be larger than zero.");
+        if (sampleRate <= 0)
+            throw new IllegalArgumentException("Invalid sample rate has been specified. The value must be larger than zero.");
+        
+        this.blockBudget = numOfSamples * 1000000000L / sampleRate;
+        this.numOfStages = 0;
+        this.blockStartTime = System.nanoTime();
+    }
+    
+    /**
+     * Records the time spent in a stage of the current block. Time recorded 
+     * more than once for the same stage is added up.
+     * @param stage the name of the stage
+     * @param nanos the number of nanoseconds spent in the stage
+     */
+    public void recordStage(final String stage, final long nanos) 
+    {
+        for(int i = 0; i < this.numOfStages; i++) {
+            if (this.stageNames[i].equals(stage)) {
+                this.stageNanos[i] += nanos;
+                return;
+            }
+        }
+        
+        if (this.numOfStages == this.stageNames.length) {
+            this.stageNames = Arrays.copyOf(this.stageNames, this.numOfStages * 2);
+            this.stageNanos = Arrays.copyOf(this.stageNanos, this.numOfStages * 2);
+        }
+        this.stageNames[this.numOfStages] = stage;
+        this.stageNanos[this.numOfStages] = nanos;
+        this.numOfStages++;
+    }
+    
+    /**
+     * Ends timing the current block.
+     * @param pts the presentation time stamp of the block, in microseconds
+     */
+    public void endBlock(final long pts) 
+    {
+        final long elapsed = System.nanoTime() - this.blockStartTime;
+        final long margin = this.blockBudget - elapsed;
+        
+        /* Overruns go in the first bucket, all other blocks in the bucket of
+        the tenths of the budget they left. */
+        final int bucket = margin < 0 
+                ? 0 
+                : 1 + (int)Math.min(NUM_OF_BUCKETS - 2, margin * 10 / Math.max(1, this.blockBudget));
+        this.histogram.incrementAndGet(bucket);
+        this.numOfBlocks++;
+        if (margin < this.minMargin)
+            this.minMargin = margin;
+        
+        final double blockUtilization = (double)elapsed / Math.max(1, this.blockBudget);
+        this.utilization = this.numOfBlocks == 1 
+                ? blockUtilization 
+                : this.utilization + UTILIZATION_WEIGHT * (blockUtilization - this.utilization);
+        
+        if (margin < 0)
+            this.recordOverrun(pts, elapsed);
+        if (this.isAdaptive)
+            this.adapt();
+    }
+    
+    private void recordOverrun(final long pts, final long elapsed) 
+    {
+        /* The stage that took the longest is the one to blame. */
+        String stage = "unknown";
+        long maxNanos = -1;
+        for(int i = 0; i < this.numOfStages; i++) {
+            if (this.stageNanos[i] > maxNanos) {
+                maxNanos = this.stageNanos[i];
+                stage = this.stageNames[i];
+            }
+        }
+        
+        final Overrun overrun = new Overrun(pts, 
+                Duration.ofNanos(elapsed), Duration.ofNanos(this.blockBudget), stage);
+        this.numOfOverruns++;
+        this.overrunsByStage.computeIfAbsent(stage, key -> new LongAdder()).increment();
+        OVERRUNS.increment();
+        synchronized(this.recentOverruns) {
+            if (this.recentOverruns.size() == MAX_RECENT_OVERRUNS)
+                this.recentOverruns.removeFirst();
+            this.recentOverruns.addLast(overrun);
+        }
+        
+        if (LOGGER.isLoggable(Level.FINE))
+            LOGGER.log(Level.FINE, "Deadline overrun: {0}", overrun);
+    }
+    
+    private void adapt() 
+    {
+        if (this.cooldown > 0) {
+            this.cooldown--;
+            return;
+        }
+        
+        final ResamplerQuality[] qualities = ResamplerQuality.values();
+        final ResamplerQuality oldQuality = this.quality;
+        final int oldFactor = this.blockSizeFactor;
+        
+        if (this.utilization > HIGH_UTILIZATION) {
+            if (this.quality.ordinal() > 0)
+                this.quality = qualities[this.quality.ordinal() - 1];
+            else if (this.blockSizeFactor < MAX_BLOCK_SIZE_FACTOR)
+                this.blockSizeFactor *= 2;
+        }
+        else if (this.utilization < LOW_UTILIZATION) {
+            if (this.blockSizeFactor > 1)
+                this.blockSizeFactor /= 2;
+            else if (this.quality.ordinal() < this.maxQuality.ordinal())
+                this.quality = qualities[this.quality.ordinal() + 1];
+        }
+        
+        if (this.quality != oldQuality || this.blockSizeFactor != oldFactor) {
+            this.cooldown = COOLDOWN_BLOCKS;
+            LOGGER.log(Level.INFO, 
+                    "Budget utilization is {0}%, using {1} resampler quality and {2}x block size.",
+                    new Object[] { Math.round(this.utilization * 100), this.quality, this.blockSizeFactor });
+        }
+    }
+    
+    /**
+     * Gets the resampler quality that should be used, which is lowered by an
+     * adaptive monitor when blocks are not produced in time.
+     * @return the resampler quality that should be used
+     */
+    public ResamplerQuality getQuality() {
+        return this.quality;
+    }
+    
+    /**
+     * Gets the factor by which blocks should be enlarged, which is raised by
+     * an adaptive monitor when lowering the quality did not suffice.
+     * @return the block size factor, a power of two
+     */
+    public int getBlockSizeFactor() {
+        return this.blockSizeFactor;
+    }
+    
+    /**
+     * Gets the number of samples (per channel) that should be read per block.
+     * @param baseBlockSize the number of samples per block when blocks are 
+     * produced in time
+     * @return the recommended number of samples per block
+     */
+    public int getRecommendedBlockSize(final int baseBlockSize) {
+        return baseBlockSize * this.blockSizeFactor;
+    }
+    
+    public long getNumOfBlocks() {
+        return this.numOfBlocks;
+    }
+    
+    public long getNumOfOverruns() {
+        return this.numOfOverruns;
+    }
+    
+    /**
+     * Gets the smallest margin of any block so far, which is negative if any
+     * block has overrun its budget.
+     * @return the smallest margin, or null if no blocks have been recorded
+     */
+    public Duration getMinMargin() 
+    {
+        final long margin = this.minMargin;
+        return margin == Long.MAX_VALUE ? null : Duration.ofNanos(margin);
+    }
+    
+    /**
+     * Gets the average fraction of the budget of a block that is used, 
+     * weighted towards recent blocks.
+     * @return the average budget utilization, which is larger than one if 
+     * blocks are not produced in time
+     */
+    public double getUtilization() {
+        return this.utilization;
+    }
+    
+    /**
+     * Gets the margin histogram. 
+     * @return the number of blocks that overran their budget, followed by the
+     * number of blocks that left 0-10%, 10-20%, ..., 90-100% of their budget
+     */
+    public long[] getHistogram() 
+    {
+        final long[] counts = new long[NUM_OF_BUCKETS];
+        for(int i = 0; i < NUM_OF_BUCKETS; i++)
+            counts[i] = this.histogram.get(i);
+        return counts;
+    }
+    
+    /**
+     * Gets the number of overruns attributed to each stage.
+     * @return the number of overruns by stage name
+     */
+    public Map<String, Long> getOverrunsByStage() 
+    {
+        final Map<String, Long> counts = new TreeMap<>();
+        this.overrunsByStage.forEach((stage, count) -> counts.put(stage, count.sum()));
+        return counts;
+    }
+    
+    /**
+     * Gets the most recent overruns, at most {@value #MAX_RECENT_OVERRUNS}.
+     * @return the most recent overruns, oldest first
+     */
+    public List<Overrun> getRecentOverruns() 
+    {
+        synchronized(this.recentOverruns) {
+            return new ArrayList<>(this.recentOverruns);
+        }
+    }
+    
+    /**
+     * Holds a single block that overran its budget.
+     */
+    public static final class Overrun 
+    {
+        private final long pts;
+        private final Duration elapsedTime;
+        private final Duration budget;
+        private final String stage;
+        
+        public Overrun(
+                final long pts, 
+                final Duration elapsedTime, 
+                final Duration budget, 
+                final String stage) 
+        {
+            this.pts = pts;
+            this.elapsedTime = elapsedTime;
+            this.budget = budget;
+            this.stage = stage;
+        }
+        
+        /**
+         * Gets the presentation time stamp of the block, in microseconds.
+         */
+        public long getPts() {
+            return this.pts;
+        }
+        
+        public Duration getElapsedTime() {
+            return this.elapsedTime;
+        }
+        
+        public Duration getBudget() {
+            return this.budget;
+        }
+        
+        /**
+         * Gets the name of the stage that took the longest.
+         */
+        public String getStage() {
+            return this.stage;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("block at %.3f s took %.3f ms of a %.3f ms budget, mostly in %s", 
+                    this.pts / 1000000.0, 
+                    this.elapsedTime.toNanos() / 1000000.0, 
+                    this.budget.toNanos() / 1000000.0, 
+                    this.stage);
+        }
+    }
+}
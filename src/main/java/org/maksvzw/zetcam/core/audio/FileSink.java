@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+import com.xuggle.xuggler.IAudioSamples;
+import com.xuggle.xuggler.IAudioSamples.Format;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class writes audio samples to a WAV file or a raw PCM file.
+ * <p>
+ * Samples are copied from the native memory of the audio samples into a 
+ * large direct buffer, which is written to a {@link FileChannel} once it is
+ * full, so that the file is written in few large writes of whole sample 
+ * frames without any copies on the Java heap. WAV and raw files store their 
+ * samples in little-endian byte order, which is the native byte order of 
+ * the samples on most hosts; samples are only byte swapped on big-endian 
+ * hosts.
+ * </p><p>
+ * A WAV file starts with a header that reserves room for an RF64 size chunk.
+ * The header is rewritten when the sink is closed, once the size of the file
+ * is known, and the file is promoted to an RF64 file if its size exceeds the
+ * 4 GB that a RIFF file can hold.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class FileSink extends AudioSink
+{
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    
+    private static final int RIFF_ID = 0x52494646; /* "RIFF" */
+    private static final int RF64_ID = 0x52463634; /* "RF64" */
+    private static final int WAVE_ID = 0x57415645; /* "WAVE" */
+    private static final int JUNK_ID = 0x4A554E4B; /* "JUNK" */
+    private static final int DS64_ID = 0x64733634; /* "ds64" */
+    private static final int FMT_ID = 0x666D7420; /* "fmt " */
+    private static final int DATA_ID = 0x64617461; /* "data" */
+    private static final int DS64_SIZE = 28;
+    private static final int FMT_SIZE = 16;
+    private static final int WAV_HEADER_SIZE = 12 + (8 + DS64_SIZE) + (8 + FMT_SIZE) + 8;
+    private static final short WAVE_FORMAT_PCM = 1;
+    private static final short WAVE_FORMAT_IEEE_FLOAT = 3;
+    private static final long MAX_RIFF_SIZE = 0xFFFFFFFFL;
+    
+    private final AudioFormat format;
+    private final AudioFileType type;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final boolean swapBytes;
+    private long numOfSamples;
+    private long dataSize;
+    
+    public FileSink(final Path filePath, final AudioFormat audioFormat) throws IOException {
+        this(filePath, audioFormat, AudioFileType.WAV, DEFAULT_BUFFER_SIZE);
+    }
+    
+    public FileSink(
+            final Path filePath, 
+            final AudioFormat audioFormat, 
+            final AudioFileType type) 
+            throws IOException 
+    {
+        this(filePath, audioFormat, type, DEFAULT_BUFFER_SIZE);
+    }
+    
+    /**
+     * Creates a new file sink.
+     * @param filePath the path of the file to write, which is overwritten if
+     * it exists
+     * @param audioFormat the format to write the samples in, which cannot be
+     * a planar format
+     * @param type the type of file to write
+     * @param bufferSize the size of the write buffer, in bytes
+     * @throws IOException if the file could not be opened
+     */
+    public FileSink(
+            final Path filePath, 
+            final AudioFormat audioFormat, 
+            final AudioFileType type, 
+            final int bufferSize) 
+            throws IOException 
+    {
+        super(checkFormat(audioFormat));
+        
+        if (filePath == null)
+            throw new IllegalArgumentException("No file path has been specified.");
+        if (type == null)
+            throw new IllegalArgumentException("No audio file type has been specified.");
+        if (bufferSize < audioFormat.getFrameSize())
+            throw new IllegalArgumentException("Invalid buffer size has been specified. The value must be able to hold at least one sample frame.");
+        
+        this.format = audioFormat;
+        this.type = type;
+        this.swapBytes = audioFormat.isBigEndian() && audioFormat.getSampleSize() > 1;
+        
+        /* The buffer holds whole sample frames only, so that every write 
+        ends on a frame boundary. */
+        this.buffer = ByteBuffer.allocateDirect(bufferSize - bufferSize % audioFormat.getFrameSize());
+        this.channel = FileChannel.open(filePath, 
+                StandardOpenOption.CREATE, 
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        
+        try {
+            if (this.type == AudioFileType.WAV) {
+                this.writeHeader();
+                this.channel.position(WAV_HEADER_SIZE);
+            }
+        }
+        catch (IOException ex) 
+        {
+            this.channel.close();
+            throw ex;
+        }
+    }
+    
+    private static AudioFormat checkFormat(final AudioFormat audioFormat) 
+    {
+        if (audioFormat == null)
+            throw new IllegalArgumentException("No audio format has been specified.");
+        if (audioFormat.isPlanar())
+            throw new IllegalArgumentException("Invalid audio format has been specified. Planar sample formats cannot be written to a file.");
+        
+        return audioFormat;
+    }
+    
+    public AudioFormat getFormat() {
+        return this.format;
+    }
+    
+    public AudioFileType getType() {
+        return this.type;
+    }
+    
+    /**
+     * Gets the number of samples (per channel) that have been written.
+     * @return the number of samples that have been written
+     */
+    public long getNumOfSamples() {
+        return this.numOfSamples;
+    }
+
+    @Override
+    protected void onAudioSamples(final IAudioSamples samples) 
+    {
+        final int numOfSamples = (int)samples.getNumSamples();
+        final ByteBuffer data = Audio.getByteBuffer(samples);
+        data.limit(numOfSamples * this.format.getFrameSize());
+        
+        try {
+            while (data.hasRemaining()) {
+                if (!this.buffer.hasRemaining())
+                    this.flush();
+                
+                final int length = Math.min(data.remaining(), this.buffer.remaining());
+                if (this.swapBytes) {
+                    this.putSwapped(data, length);
+                }
+                else {
+                    final int limit = data.limit();
+                    data.limit(data.position() + length);
+                    this.buffer.put(data);
+                    data.limit(limit);
+                }
+            }
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        
+        this.numOfSamples += numOfSamples;
+        this.dataSize += (long)numOfSamples * this.format.getFrameSize();
+    }
+    
+    /**
+     * Copies the given number of bytes, which is a multiple of the sample 
+     * size, to the write buffer while reversing the bytes of each sample.
+     */
+    private void putSwapped(final ByteBuffer data, final int length) 
+    {
+        final int sampleSize = this.format.getSampleSize();
+        final int end = data.position() + length;
+        for(int i = data.position(); i < end; i += sampleSize)
+            for(int b = sampleSize - 1; b >= 0; b--)
+                this.buffer.put(data.get(i + b));
+        data.position(end);
+    }
+    
+    private void flush() throws IOException 
+    {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining())
+            this.channel.write(this.buffer);
+        this.buffer.clear();
+    }
+    
+    /**
+     * Writes the WAV header for the current number of samples. A RIFF header
+     * reserves room for the size chunk of an RF64 header with a junk chunk, so
+     * that the header can be promoted without moving the samples.
+     */
+    private void writeHeader() throws IOException 
+    {
+        /* The data chunk is padded to an even size. */
+        final long paddedDataSize = this.dataSize + (this.dataSize & 1);
+        final long riffSize = WAV_HEADER_SIZE - 8 + paddedDataSize;
+        final boolean isRf64 = riffSize > MAX_RIFF_SIZE;
+        final Format sampleFormat = this.format.getSampleFormat();
+        final boolean isFloat = sampleFormat == Format.FMT_FLT || sampleFormat == Format.FMT_DBL;
+        
+        final ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_SIZE);
+        header.order(ByteOrder.BIG_ENDIAN).putInt(isRf64 ? RF64_ID : RIFF_ID);
+        header.order(ByteOrder.LITTLE_ENDIAN).putInt((int)(isRf64 ? MAX_RIFF_SIZE : riffSize));
+        header.order(ByteOrder.BIG_ENDIAN).putInt(WAVE_ID);
+        
+        header.putInt(isRf64 ? DS64_ID : JUNK_ID);
+        header.order(ByteOrder.LITTLE_ENDIAN).putInt(DS64_SIZE);
+        if (isRf64) {
+            header.putLong(riffSize);
+            header.putLong(this.dataSize);
+            header.putLong(this.numOfSamples);
+            header.putInt(0); /* No table entries. */
+        }
+        else {
+            header.position(header.position() + DS64_SIZE);
+        }
+        
+        header.order(ByteOrder.BIG_ENDIAN).putInt(FMT_ID);
+        header.order(ByteOrder.LITTLE_ENDIAN).putInt(FMT_SIZE);
+        header.putShort(isFloat ? WAVE_FORMAT_IEEE_FLOAT : WAVE_FORMAT_PCM);
+        header.putShort((short)this.format.getChannels());
+        header.putInt(this.format.getSampleRate());
+        header.putInt(this.format.getSampleRate() * this.format.getFrameSize());
+        header.putShort((short)this.format.getFrameSize());
+        header.putShort((short)(this.format.getSampleSize() * 8));
+        
+        header.order(ByteOrder.BIG_ENDIAN).putInt(DATA_ID);
+        header.order(ByteOrder.LITTLE_ENDIAN).putInt((int)(isRf64 ? MAX_RIFF_SIZE : this.dataSize));
+        header.flip();
+        
+        long position = 0;
+        while (header.hasRemaining())
+            position += this.channel.write(header, position);
+    }
+
+    @Override
+    public void close() 
+    {
+        if (this.isClosed())
+            return;
+        
+        super.close();
+        try {
+            try {
+                this.flush();
+                if (this.type == AudioFileType.WAV && (this.dataSize & 1) != 0) {
+                    this.buffer.put((byte)0);
+                    this.flush();
+                }
+                
+                /* Rewrite the header now that the size of the file is known. */
+                if (this.type == AudioFileType.WAV)
+                    this.writeHeader();
+            }
+            finally {
+                this.channel.close();
+            }
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
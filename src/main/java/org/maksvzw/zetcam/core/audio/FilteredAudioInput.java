@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+import com.xuggle.mediatool.IMediaListener;
+import com.xuggle.mediatool.MediaGeneratorAdapter;
+import com.xuggle.mediatool.MediaListenerAdapter;
+import com.xuggle.mediatool.event.AudioSamplesEvent;
+import com.xuggle.mediatool.event.FlushEvent;
+import com.xuggle.mediatool.event.IAudioSamplesEvent;
+import com.xuggle.mediatool.event.IFlushEvent;
+import com.xuggle.xuggler.IAudioSamples;
+import org.maksvzw.zetcam.core.audio.filters.AudioFilter;
+
+/**
+ * This class passes the samples of an audio input through a filter chain 
+ * before they are passed to its own listeners.
+ * <p>
+ * Unlike filters that are added as listeners of the input itself, the filter
+ * chain can discard samples or replace them by samples of a different format,
+ * since only the samples that leave the chain are passed on. When the input
+ * is flushed at the end of its stream, the filter chain is flushed before the
+ * flush event is passed on.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class FilteredAudioInput extends MediaGeneratorAdapter implements AudioInput
+{
+    private final AudioInput input;
+    private final AudioFilter filterChain;
+    private final ChainListener chainListener;
+    
+    /**
+     * Creates a new filtered audio input.
+     * @param input the audio input to filter
+     * @param filterChain the first filter of the filter chain to pass the 
+     * samples through
+     */
+    public FilteredAudioInput(final AudioInput input, final AudioFilter filterChain) 
+    {
+        if (input == null)
+            throw new IllegalArgumentException("No audio input has been specified.");
+        if (filterChain == null)
+            throw new IllegalArgumentException("No audio filter has been specified.");
+        
+        this.input = input;
+        this.filterChain = filterChain;
+        this.chainListener = new ChainListener();
+        this.input.addListener(this.chainListener);
+    }
+    
+    public AudioInput getInput() {
+        return this.input;
+    }
+    
+    public AudioFilter getFilterChain() {
+        return this.filterChain;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.input.isOpen();
+    }
+
+    @Override
+    public boolean EOF() {
+        return this.input.EOF();
+    }
+
+    @Override
+    public void open() {
+        this.input.open();
+    }
+
+    @Override
+    public boolean read() {
+        return this.input.read();
+    }
+
+    /**
+     * Closes the filtered audio input, as well as the audio input it filters,
+     * and resets the filter chain.
+     */
+    @Override
+    public void close() 
+    {
+        this.input.removeListener(this.chainListener);
+        this.input.close();
+        this.filterChain.reset();
+    }
+    
+    private final class ChainListener extends MediaListenerAdapter 
+    {
+        private int streamIndex;
+        
+        @Override
+        public void onAudioSamples(IAudioSamplesEvent iase) 
+        {
+            this.streamIndex = iase.getStreamIndex();
+            this.raiseAudioSamplesEvent(filterChain.filter(iase.getAudioSamples()));
+        }
+
+        @Override
+        public void onFlush(IFlushEvent ife) 
+        {
+            filterChain.flush(this::raiseAudioSamplesEvent);
+            
+            final IFlushEvent event = new FlushEvent(FilteredAudioInput.this);
+            for(IMediaListener listener : getListeners())
+                listener.onFlush(event);
+        }
+        
+        private void raiseAudioSamplesEvent(final IAudioSamples samples) 
+        {
+            if (samples == null)
+                return;
+            
+            final IAudioSamplesEvent event = new AudioSamplesEvent(
+                    FilteredAudioInput.this, samples, this.streamIndex);
+            for(IMediaListener listener : getListeners())
+                listener.onAudioSamples(event);
+        }
+    }
+}
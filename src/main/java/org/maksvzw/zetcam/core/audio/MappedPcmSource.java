@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+import com.xuggle.mediatool.IMediaListener;
+import com.xuggle.mediatool.MediaGeneratorAdapter;
+import com.xuggle.mediatool.event.AudioSamplesEvent;
+import com.xuggle.mediatool.event.FlushEvent;
+import com.xuggle.mediatool.event.IAudioSamplesEvent;
+import com.xuggle.mediatool.event.IFlushEvent;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import org.maksvzw.zetcam.core.audio.buffers.AudioSampleBuffer;
+
+/**
+ * This class reads the samples of a PCM cache file that has been written by a
+ * {@link PcmCacheWriter}.
+ * <p>
+ * The cache file is mapped into memory, so that reading requires no decoding
+ * at all and seeking to any sample takes constant time. Since a single 
+ * mapping cannot exceed 2 GB, the samples are mapped in regions of whole 
+ * sample frames and a block never spans two regions. Each block is copied 
+ * once from the mapping into pooled audio samples, because listeners such as
+ * filters process the samples they receive in place.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class MappedPcmSource extends MediaGeneratorAdapter implements AudioInput
+{
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    /* The maximum size of a single mapped region, in bytes. */
+    private static final int MAX_REGION_SIZE = 1 << 30;
+    
+    private final Path cachePath;
+    private final int blockSize;
+    private AudioFormat format;
+    private long numOfSamples;
+    private long position;
+    private MappedByteBuffer[] regions;
+    private long samplesPerRegion;
+    private boolean isOpen;
+    private boolean eof;
+    
+    public MappedPcmSource(final Path cachePath) {
+        this(cachePath, DEFAULT_BLOCK_SIZE);
+    }
+    
+    public MappedPcmSource(final Path cachePath, final int blockSize) 
+    {
+        if (cachePath == null || !Files.isRegularFile(cachePath))
+            throw new IllegalArgumentException("No cache file has been specified.");
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("Invalid block size has been specified. The value must be larger than zero.");
+        
+        this.cachePath = cachePath;
+        this.blockSize = blockSize;
+    }
+    
+    @Override
+    public boolean isOpen() {
+        return this.isOpen;
+    }
+
+    @Override
+    public boolean EOF() {
+        return this.eof;
+    }
+    
+    /**
+     * Gets the format of the cached samples.
+     * @return the format of the cached samples, or null if this source has 
+     * not yet been opened
+     */
+    public AudioFormat getFormat() {
+        return this.format;
+    }
+    
+    /**
+     * Gets the number of cached samples (per channel).
+     * @return the number of cached samples
+     */
+    public long getNumOfSamples() {
+        return this.numOfSamples;
+    }
+    
+    /**
+     * Gets the position of the next sample to read.
+     * @return the position, in samples
+     */
+    public long getPosition() {
+        return this.position;
+    }
+
+    @Override
+    public void open() 
+    {
+        if (this.isOpen)
+            return;
+        
+        try (FileChannel channel = FileChannel.open(this.cachePath, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < PcmCacheWriter.HEADER_SIZE)
+                throw new IllegalArgumentException("The specified file is not a PCM cache file.");
+            
+            final ByteBuffer header = ByteBuffer.allocate(PcmCacheWriter.HEADER_SIZE);
+            while (header.hasRemaining())
+                if (channel.read(header, header.position()) < 0)
+                    throw new IllegalArgumentException("The specified file is not a PCM cache file.");
+            header.flip();
+            this.readHeader(header, size);
+            
+            /* The mappings remain valid after the channel has been closed. */
+            final int frameSize = this.format.getFrameSize();
+            this.samplesPerRegion = MAX_REGION_SIZE / frameSize;
+            final int numOfRegions = (int)((this.numOfSamples + this.samplesPerRegion - 1) / this.samplesPerRegion);
+            this.regions = new MappedByteBuffer[numOfRegions];
+            for(int i = 0; i < numOfRegions; i++) {
+                final long firstSample = i * this.samplesPerRegion;
+                final long regionSamples = Math.min(this.samplesPerRegion, this.numOfSamples - firstSample);
+                this.regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, 
+                        PcmCacheWriter.HEADER_SIZE + firstSample * frameSize, 
+                        regionSamples * frameSize);
+            }
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        
+        this.position = 0;
+        this.eof = false;
+        this.isOpen = true;
+    }
+    
+    private void readHeader(final ByteBuffer header, final long fileSize) 
+    {
+        header.order(ByteOrder.BIG_ENDIAN);
+        if (header.getInt() != PcmCacheWriter.MAGIC || header.getInt() != PcmCacheWriter.VERSION)
+            throw new IllegalArgumentException("The specified file is not a PCM cache file.");
+        
+        final int sampleRate = header.getInt();
+        final int channels = header.getShort();
+        final int byteOrder = header.getShort();
+        final long samples = header.getLong();
+        
+        final int nativeOrder = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN 
+                ? PcmCacheWriter.BIG_ENDIAN 
+                : PcmCacheWriter.LITTLE_ENDIAN;
+        if (byteOrder != nativeOrder)
+            throw new IllegalArgumentException("The specified PCM cache file has been written in a different byte order.");
+        
+        this.format = new AudioFormat(sampleRate, AudioFormat.PROCESSING_SAMPLE_FORMAT, channels);
+        
+        /* Guard against files that have not been closed properly. */
+        final long maxSamples = (fileSize - PcmCacheWriter.HEADER_SIZE) / this.format.getFrameSize();
+        this.numOfSamples = Math.min(samples, maxSamples);
+    }
+    
+    /**
+     * Seeks to the given position. 
+     * Unlike seeking in compressed audio, this is sample-accurate and takes 
+     * constant time.
+     * @param position the position to seek to, relative to the start of the 
+     * cached audio
+     */
+    public void seek(final Duration position) 
+    {
+        if (position == null)
+            throw new IllegalArgumentException("No position has been specified.");
+        if (position.isNegative())
+            throw new IllegalArgumentException("Invalid position has been specified. The value cannot be smaller than zero.");
+        if (!this.isOpen)
+            throw new IllegalStateException("This audio source has not yet been opened.");
+        
+        this.seek(Audio.getNumOfSamples(this.format, position));
+    }
+    
+    /**
+     * Seeks to the given sample.
+     * @param sample the position to seek to, in samples
+     */
+    public void seek(final long sample) 
+    {
+        if (sample < 0)
+            throw new IllegalArgumentException("Invalid position has been specified. The value cannot be smaller than zero.");
+        if (!this.isOpen)
+            throw new IllegalStateException("This audio source has not yet been opened.");
+        
+        this.position = Math.min(sample, this.numOfSamples);
+        this.eof = false;
+    }
+    
+    public void rewind() {
+        this.seek(0L);
+    }
+
+    @Override
+    public boolean read() 
+    {
+        if (!this.isOpen)
+            throw new IllegalStateException("This audio source has not yet been opened.");
+        if (this.eof)
+            return false;
+        
+        final int region = (int)(this.position / this.samplesPerRegion);
+        final long regionPosition = this.position - region * this.samplesPerRegion;
+        final int length = (int)Math.min(
+                Math.min(this.blockSize, this.numOfSamples - this.position), 
+                this.samplesPerRegion - regionPosition);
+        if (length <= 0) {
+            this.eof = true;
+            final IFlushEvent event = new FlushEvent(this);
+            for(IMediaListener listener : this.getListeners())
+                listener.onFlush(event);
+            return false;
+        }
+        
+        final int frameSize = this.format.getFrameSize();
+        final ByteBuffer src = this.regions[region].duplicate();
+        src.position((int)regionPosition * frameSize);
+        src.limit(src.position() + length * frameSize);
+        
+        try (AudioSampleBuffer buffer = AudioSampleBuffer.allocate(this.format, length, this.position)) {
+            Audio.getByteBuffer(buffer.getDataCached()).put(src);
+            this.position += length;
+            
+            final IAudioSamplesEvent event = new AudioSamplesEvent(this, buffer.getDataCached(), 0);
+            for(IMediaListener listener : this.getListeners())
+                listener.onAudioSamples(event);
+        }
+        return true;
+    }
+    
+    public void readAll() 
+    {
+        while(this.read())
+            ;
+    }
+
+    @Override
+    public void close() 
+    {
+        if (!this.isOpen)
+            return;
+        
+        /* The mapping is released once it is garbage collected. */
+        this.regions = null;
+        this.isOpen = false;
+        this.eof = false;
+    }
+}
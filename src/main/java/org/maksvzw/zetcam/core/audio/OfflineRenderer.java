@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+import com.xuggle.mediatool.event.FlushEvent;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.maksvzw.zetcam.core.audio.filters.AudioFilter;
+import org.maksvzw.zetcam.core.model.AudioSourceSettings;
+
+/**
+ * This class renders a number of audio sources to a single audio sink as fast
+ * as the sources can be decoded, rather than at the pace of a playback clock.
+ * <p>
+ * Each source is passed through the filter chain that is built from its 
+ * settings and mixed by an {@link AudioMixer} in blocks of a fixed size. If
+ * there is more than one source, each source is decoded ahead on a worker 
+ * thread of its own, so that the sources are decoded in parallel while the
+ * calling thread mixes and writes the blocks. Sources of a different sample 
+ * rate are resampled with export quality by default.
+ * </p><p>
+ * A renderer renders its sources once: the sources are closed when rendering
+ * has finished.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class OfflineRenderer implements AutoCloseable
+{
+    public static final int DEFAULT_BLOCK_SIZE = 8192;
+    
+    private final AudioFormat outputFormat;
+    private final ResamplerQuality quality;
+    private final int blockSize;
+    private final List<AudioInput> sources;
+    private boolean isRendered;
+    private boolean isClosed;
+    
+    public OfflineRenderer(final AudioFormat outputFormat) {
+        this(outputFormat, ResamplerQuality.EXPORT, DEFAULT_BLOCK_SIZE);
+    }
+    
+    /**
+     * Creates a new offline renderer.
+     * @param outputFormat the format to render the sources to
+     * @param quality the quality with which sources of a different sample 
+     * rate are resampled
+     * @param blockSize the number of samples (per channel) to mix at once
+     */
+    public OfflineRenderer(
+            final AudioFormat outputFormat, 
+            final ResamplerQuality quality, 
+            final int blockSize) 
+    {
+        if (outputFormat == null)
+            throw new IllegalArgumentException("No output format has been specified.");
+        if (quality == null)
+            throw new IllegalArgumentException("No resampler quality has been specified.");
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("Invalid block size has been specified. The value must be larger than zero.");
+        
+        this.outputFormat = outputFormat;
+        this.quality = quality;
+        this.blockSize = blockSize;
+        this.sources = new ArrayList<>();
+    }
+    
+    public AudioFormat getOutputFormat() {
+        return this.outputFormat;
+    }
+    
+    public ResamplerQuality getQuality() {
+        return this.quality;
+    }
+    
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+    
+    public int getNumOfSources() {
+        return this.sources.size();
+    }
+    
+    /**
+     * Adds an audio file to render.
+     * @param audioFile the audio file to render
+     * @param settings the settings to build the filter chain of the source 
+     * from, or null if the source should not be filtered
+     */
+    public void addSource(final File audioFile, final AudioSourceSettings settings) {
+        this.addSource(new AudioSource(audioFile), settings);
+    }
+    
+    /**
+     * Adds an audio input to render. The renderer takes ownership of the 
+     * input, which is closed when rendering has finished.
+     * @param input the audio input to render
+     * @param settings the settings to build the filter chain of the source 
+     * from, or null if the source should not be filtered
+     */
+    public void addSource(final AudioInput input, final AudioSourceSettings settings) 
+    {
+        if (input == null)
+            throw new IllegalArgumentException("No audio input has been specified.");
+        this.checkState();
+        
+        /* Audio sources trim themselves, sample-exactly and without decoding
+        anything past the trimmed range. */
+        final AudioFilter filterChain;
+        if (settings == null)
+            filterChain = null;
+        else if (input instanceof AudioSource)
+            filterChain = settings.buildFilterChain((AudioSource)input);
+        else
+            filterChain = settings.buildFilterChain();
+        if (filterChain == null)
+            this.sources.add(input);
+        else
+            this.sources.add(new FilteredAudioInput(input, filterChain));
+    }
+    
+    /**
+     * Renders all sources to the given audio sink. This method blocks until
+     * the longest source has been rendered completely.
+     * @param sink the audio sink to write the rendered samples to
+     * @return the statistics of the rendering
+     */
+    public Statistics render(final AudioSink sink) 
+    {
+        if (sink == null)
+            throw new IllegalArgumentException("No audio sink has been specified.");
+        this.checkState();
+        if (this.sources.isEmpty())
+            throw new IllegalStateException("No audio sources have been added.");
+        
+        this.isRendered = true;
+        final long startTime = System.nanoTime();
+        long numOfSamples = 0;
+        
+        try (AudioMixer mixer = new AudioMixer(
+                this.outputFormat, this.sources.size(), this.quality)) 
+        {
+            /* Decode the sources in parallel, each up to a few blocks ahead 
+            of the mixer. */
+            if (this.sources.size() > 1)
+                mixer.setDecodeAheadSamples(this.blockSize * 4);
+            
+            for(int i = 0; i < this.sources.size(); i++)
+                mixer.link(i, this.sources.get(i));
+            
+            mixer.addListener(sink);
+            int numOfMixedSamples;
+            while((numOfMixedSamples = mixer.read(this.blockSize)) > 0)
+                numOfSamples += numOfMixedSamples;
+            sink.onFlush(new FlushEvent(mixer));
+            mixer.removeListener(sink);
+        }
+        finally {
+            this.sources.clear();
+        }
+        
+        return new Statistics(
+                this.outputFormat, 
+                numOfSamples, 
+                Duration.ofNanos(System.nanoTime() - startTime));
+    }
+    
+    /**
+     * Renders all sources to a file in the output format. This method blocks
+     * until the longest source has been rendered completely.
+     * @param outputPath the path of the file to write
+     * @param type the type of file to write
+     * @return the statistics of the rendering
+     * @throws IOException if the file could not be written
+     */
+    public Statistics render(final Path outputPath, final AudioFileType type) 
+            throws IOException
+    {
+        try (FileSink sink = new FileSink(outputPath, this.outputFormat, type)) {
+            return this.render(sink);
+        }
+        catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+    
+    private void checkState() 
+    {
+        if (this.isClosed)
+            throw new IllegalStateException("This offline renderer has been closed.");
+        if (this.isRendered)
+            throw new IllegalStateException("This offline renderer has already rendered its sources.");
+    }
+    
+    /**
+     * Closes all sources that have not been rendered.
+     */
+    @Override
+    public void close() 
+    {
+        if (this.isClosed)
+            return;
+        
+        for(AudioInput source : this.sources)
+            source.close();
+        this.sources.clear();
+        this.isClosed = true;
+    }
+    
+    /**
+     * Holds the statistics of a single rendering.
+     */
+    public static final class Statistics 
+    {
+        private final AudioFormat format;
+        private final long numOfSamples;
+        private final Duration elapsedTime;
+        
+        public Statistics(
+                final AudioFormat format, 
+                final long numOfSamples, 
+                final Duration elapsedTime) 
+        {
+            if (format == null)
+                throw new IllegalArgumentException("No audio format has been specified.");
+            if (numOfSamples < 0)
+                throw new IllegalArgumentException("Invalid number of samples has been specified. The value cannot be smaller than zero.");
+            if (elapsedTime == null)
+                throw new IllegalArgumentException("No elapsed time has been specified.");
+            
+            this.format = format;
+            this.numOfSamples = numOfSamples;
+            this.elapsedTime = elapsedTime;
+        }
+        
+        public AudioFormat getFormat() {
+            return this.format;
+        }
+        
+        /**
+         * Gets the number of samples (per channel) that have been rendered.
+         */
+        public long getNumOfSamples() {
+            return this.numOfSamples;
+        }
+        
+        /**
+         * Gets the duration of the rendered audio.
+         */
+        public Duration getRenderedDuration() 
+        {
+            final int sampleRate = this.format.getSampleRate();
+            return Duration.ofSeconds(
+                    this.numOfSamples / sampleRate, 
+                    (this.numOfSamples % sampleRate) * 1000000000L / sampleRate);
+        }
+        
+        /**
+         * Gets the wall clock time it took to render the audio.
+         */
+        public Duration getElapsedTime() {
+            return this.elapsedTime;
+        }
+        
+        /**
+         * Gets the number of seconds of audio that have been rendered per 
+         * second of wall clock time.
+         * @return the realtime factor, which is larger than one if rendering
+         * is faster than realtime
+         */
+        public double getRealtimeFactor() 
+        {
+            final long elapsedNanos = Math.max(1, this.elapsedTime.toNanos());
+            return (this.numOfSamples * 1000000000.0 / this.format.getSampleRate()) / elapsedNanos;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%d samples (%.3f s) in %.3f s, %.1fx realtime", 
+                    this.numOfSamples, 
+                    this.getRenderedDuration().toMillis() / 1000.0, 
+                    this.elapsedTime.toMillis() / 1000.0, 
+                    this.getRealtimeFactor());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+import com.xuggle.xuggler.IAudioSamples;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class writes decoded audio to a PCM cache file that can be read back
+ * by a {@link MappedPcmSource}.
+ * <p>
+ * A cache file consists of a fixed size header followed by the interleaved 
+ * samples in the processing format, in native byte order. The header holds 
+ * the sample rate, the number of channels and the number of samples, which
+ * is written once the writer is closed.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class PcmCacheWriter extends AudioSink
+{
+    static final int MAGIC = 0x5A50434D; /* "ZPCM" */
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int LITTLE_ENDIAN = 0;
+    static final int BIG_ENDIAN = 1;
+    
+    private final AudioFormat format;
+    private final FileChannel channel;
+    private long numOfSamples;
+    
+    public PcmCacheWriter(final Path cachePath, final AudioFormat audioFormat) 
+            throws IOException
+    {
+        super(checkFormat(audioFormat).toProcessingFormat());
+        
+        if (cachePath == null)
+            throw new IllegalArgumentException("No cache file path has been specified.");
+        
+        this.format = audioFormat.toProcessingFormat();
+        this.channel = FileChannel.open(cachePath, 
+                StandardOpenOption.CREATE, 
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        
+        try {
+            this.writeHeader();
+        }
+        catch (IOException ex) 
+        {
+            this.channel.close();
+            throw ex;
+        }
+    }
+    
+    private static AudioFormat checkFormat(final AudioFormat audioFormat) 
+    {
+        if (audioFormat == null)
+            throw new IllegalArgumentException("No audio format has been specified.");
+        
+        return audioFormat;
+    }
+    
+    /**
+     * Decodes the given audio source in full into a PCM cache file.
+     * @param source the audio source to decode
+     * @param cachePath the path of the cache file to write
+     * @param audioFormat the format to cache the audio in, which is converted
+     * to the processing format
+     * @throws IOException if the cache file could not be written
+     */
+    public static void write(
+            final AudioSource source, 
+            final Path cachePath, 
+            final AudioFormat audioFormat) 
+            throws IOException
+    {
+        if (source == null)
+            throw new IllegalArgumentException("No audio source has been specified.");
+        
+        try (PcmCacheWriter writer = new PcmCacheWriter(cachePath, audioFormat)) {
+            source.addListener(writer);
+            try {
+                if (!source.isOpen())
+                    source.open();
+                source.readAll();
+            }
+            catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            finally {
+                source.removeListener(writer);
+            }
+        }
+    }
+    
+    public AudioFormat getFormat() {
+        return this.format;
+    }
+    
+    public long getNumOfSamples() {
+        return this.numOfSamples;
+    }
+    
+    private void writeHeader() throws IOException 
+    {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .order(ByteOrder.BIG_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(this.format.getSampleRate());
+        header.putShort((short)this.format.getChannels());
+        header.putShort((short)(ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN 
+                ? BIG_ENDIAN 
+                : LITTLE_ENDIAN));
+        header.putLong(this.numOfSamples);
+        header.rewind();
+        
+        long position = 0;
+        while (header.hasRemaining())
+            position += this.channel.write(header, position);
+    }
+
+    @Override
+    protected void onAudioSamples(final IAudioSamples samples) 
+    {
+        final int numOfSamples = (int)samples.getNumSamples();
+        final ByteBuffer data = Audio.getByteBuffer(samples);
+        data.limit(numOfSamples * this.format.getFrameSize());
+        
+        try {
+            while (data.hasRemaining())
+                this.channel.write(data);
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        this.numOfSamples += numOfSamples;
+    }
+
+    @Override
+    public void close() 
+    {
+        if (this.isClosed())
+            return;
+        
+        super.close();
+        try {
+            /* Rewrite the header now that the number of samples is known. */
+            this.writeHeader();
+            this.channel.close();
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
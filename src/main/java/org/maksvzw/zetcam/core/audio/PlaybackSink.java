@@ -22,31 +22,97 @@ import org.maksvzw.zetcam.core.audio.AudioSink;
 import org.maksvzw.zetcam.core.audio.AudioFormat;
 import com.xuggle.xuggler.IAudioSamples;
 import com.xuggle.xuggler.IAudioSamples.Format;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.SourceDataLine;
+import org.maksvzw.zetcam.core.audio.buffers.AudioSampleBuffer;
+import org.maksvzw.zetcam.core.audio.buffers.fifo.AudioSampleRingBuffer;
+import org.maksvzw.zetcam.core.MediaType;
+import org.maksvzw.zetcam.core.metrics.MediaEvents;
+import org.maksvzw.zetcam.core.metrics.MediaMetrics;
+import org.maksvzw.zetcam.core.metrics.MediaStage;
 
 /**
- *
+ * This class plays audio samples on the default audio device.
+ * <p>
+ * Samples are queued into a jitter buffer that is drained into the audio 
+ * device by a dedicated, high priority thread, so that the thread that 
+ * decodes, filters and mixes the samples never blocks on the audio device 
+ * and can run ahead in bursts. Playback only starts, or resumes after an 
+ * underrun, once the jitter buffer holds the target latency. If the playback
+ * thread fails, e.g. because the audio device is lost, its exception is 
+ * rethrown by the next call that queues samples, or by {@link #close()}.
+ * </p>
  * @author Lenny Knockaert
  */
 public class PlaybackSink extends AudioSink
 {
+    public static final Duration DEFAULT_TARGET_LATENCY = Duration.ofMillis(100);
+    
+    private static final LongAdder UNDERRUNS = MediaMetrics.getInstance().counter(MediaMetrics.PLAYBACK_UNDERRUNS);
+    private static final LongAdder OVERRUNS = MediaMetrics.getInstance().counter(MediaMetrics.PLAYBACK_OVERRUNS);
+    
+    /* The jitter buffer holds this many times the target latency, so that 
+    decoding can run ahead of playback. */
+    private static final int JITTER_BUFFER_FACTOR = 4;
+    /* The number of chunks the target latency is divided into. */
+    private static final int CHUNKS_PER_LATENCY = 4;
+    
+    private final AudioFormat lineFormat;
+    private final Duration targetLatency;
+    private final int targetSamples;
+    private final int chunkSize;
+    private final AudioSampleRingBuffer jitterBuffer;
+    private final AtomicLong numOfUnderruns;
+    private final AtomicLong numOfOverruns;
+    private final Thread drainThread;
     private SourceDataLine line;
-    private byte[] playbackBuf;
+    private volatile boolean closing;
+    private volatile RuntimeException drainError;
     
     public PlaybackSink() throws LineUnavailableException 
     {
-        this(new AudioFormat(44100, Format.FMT_S16, 2));
+        this(DEFAULT_TARGET_LATENCY);
+    }
+    
+    /**
+     * Creates a new playback sink.
+     * @param targetLatency the amount of audio that is buffered before 
+     * playback starts
+     * @throws LineUnavailableException if no audio device is available
+     */
+    public PlaybackSink(Duration targetLatency) throws LineUnavailableException 
+    {
+        this(new AudioFormat(44100, Format.FMT_S16, 2), targetLatency);
     }
     
-    private PlaybackSink(AudioFormat format) throws LineUnavailableException 
+    private PlaybackSink(AudioFormat format, Duration targetLatency) throws LineUnavailableException 
     {
-        super(format);
+        /* Samples are queued in the processing format and converted to the 
+        format of the audio device by the playback thread. */
+        super(format.toProcessingFormat());
+        
+        if (targetLatency == null)
+            throw new IllegalArgumentException("No target latency has been specified.");
+        if (targetLatency.isNegative() || targetLatency.isZero())
+            throw new IllegalArgumentException("Invalid target latency has been specified. The value must be larger than zero.");
+        
+        this.lineFormat = format;
+        this.targetLatency = targetLatency;
+        this.targetSamples = (int)Math.max(CHUNKS_PER_LATENCY, Audio.getNumOfSamples(format, targetLatency));
+        this.chunkSize = this.targetSamples / CHUNKS_PER_LATENCY;
+        this.jitterBuffer = new AudioSampleRingBuffer(format, this.targetSamples * JITTER_BUFFER_FACTOR);
+        this.numOfUnderruns = new AtomicLong();
+        this.numOfOverruns = new AtomicLong();
         
         try {
             this.line = AudioSystem.getSourceDataLine(format.toJavaFormat());
-            this.line.open();
+            this.line.open(format.toJavaFormat(), this.targetSamples * format.getFrameSize());
             this.line.start();
         }
         catch (LineUnavailableException ex) 
@@ -60,26 +126,210 @@ public class PlaybackSink extends AudioSink
             this.line.start();*/
             throw ex;
         }
+        
+        this.drainThread = new Thread(this::drain, "PlaybackSink");
+        this.drainThread.setDaemon(true);
+        this.drainThread.setPriority(Thread.MAX_PRIORITY);
+        this.drainThread.start();
+    }
+    
+    public Duration getTargetLatency() {
+        return this.targetLatency;
+    }
+    
+    /**
+     * Gets the amount of audio that is queued in the jitter buffer.
+     * @return the amount of audio queued
+     */
+    public Duration getBufferedDuration() 
+    {
+        return Duration.ofNanos(this.jitterBuffer.available() * 1000000000L 
+                / this.lineFormat.getSampleRate());
+    }
+    
+    /**
+     * Gets the amount of audio the jitter buffer can hold.
+     * @return the capacity of the jitter buffer
+     */
+    public Duration getBufferCapacity() 
+    {
+        return Duration.ofNanos(this.jitterBuffer.capacity() * 1000000000L 
+                / this.lineFormat.getSampleRate());
+    }
+    
+    /**
+     * Waits until the jitter buffer has room for the given amount of audio, 
+     * so that a producer can wait for the playback thread before it starts 
+     * producing a block rather than while passing it on.
+     * @param d the amount of audio to wait for, which is capped at the 
+     * capacity of the jitter buffer
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return true if there is room, false if the timeout has elapsed or the
+     * thread has been interrupted
+     */
+    public boolean awaitCapacity(final Duration d, final long timeout, final TimeUnit unit) 
+    {
+        if (d == null)
+            throw new IllegalArgumentException("No duration has been specified.");
+        
+        this.checkDrainError();
+        
+        final int numOfSamples = (int)Math.min(
+                this.jitterBuffer.capacity(), 
+                Audio.getNumOfSamples(this.lineFormat, d));
+        return this.jitterBuffer.awaitWritable(numOfSamples, timeout, unit);
+    }
+    
+    /**
+     * Gets the number of times the playback thread ran out of samples while
+     * playing.
+     * @return the number of underruns
+     */
+    public long getNumOfUnderruns() {
+        return this.numOfUnderruns.get();
+    }
+    
+    /**
+     * Gets the number of times samples could not be queued right away 
+     * because the jitter buffer was full, so that the producer had to wait.
+     * @return the number of overruns
+     */
+    public long getNumOfOverruns() {
+        return this.numOfOverruns.get();
     }
     
     @Override
     protected void onAudioSamples(IAudioSamples samples) 
     {
-        final int bytesToPlay = samples.getSize();
-        if (this.playbackBuf == null || this.playbackBuf.length < bytesToPlay)
-            this.playbackBuf = new byte[bytesToPlay];
+        /* The event includes the time spent waiting for the playback thread
+        to make room, which is where a stalled device shows up. */
+        this.checkDrainError();
         
-        samples.get(0, this.playbackBuf, 0, bytesToPlay);
-        this.line.write(this.playbackBuf, 0, bytesToPlay);
+        final MediaEvents.BlockEvent event = MediaEvents.begin(MediaStage.PLAYBACK);
+        this.queue(samples);
+        if (event != null)
+            MediaEvents.end(event, this.getClass().getSimpleName(), MediaType.AUDIO, 
+                    samples.getNumSamples(), samples.getPts());
+    }
+    
+    private void queue(IAudioSamples samples) 
+    {
+        final int numOfSamples = (int)samples.getNumSamples();
+        int written = this.jitterBuffer.write(samples, 0, numOfSamples);
+        if (written == numOfSamples)
+            return;
+        
+        /* Apply backpressure to the producer until the playback thread has 
+        made room for the remaining samples. */
+        this.numOfOverruns.incrementAndGet();
+        OVERRUNS.increment();
+        while (written < numOfSamples && !this.closing) {
+            /* The playback thread will not make any room once it has failed. */
+            this.checkDrainError();
+            final int length = Math.min(numOfSamples - written, this.chunkSize);
+            if (this.jitterBuffer.awaitWritable(length, 1, TimeUnit.SECONDS))
+                written += this.jitterBuffer.write(samples, written, numOfSamples - written);
+            else if (Thread.currentThread().isInterrupted())
+                return;
+        }
+    }
+    
+    /**
+     * Rethrows the exception that made the playback thread fail, if any, on
+     * the thread that produces the samples.
+     */
+    private void checkDrainError() 
+    {
+        final RuntimeException error = this.drainError;
+        if (error != null)
+            throw error;
+    }
+    
+    /**
+     * Drains the jitter buffer into the audio device, until this sink is 
+     * closed. An exception that ends the playback thread is kept, so that it
+     * can be rethrown to the producer.
+     */
+    private void drain() 
+    {
+        try {
+            this.drainChunks();
+        }
+        catch (RuntimeException ex) {
+            this.drainError = ex;
+        }
+    }
+    
+    /**
+     * Drains the jitter buffer into the audio device, chunk by chunk, until 
+     * this sink is closed and all queued samples have been played.
+     */
+    private void drainChunks() 
+    {
+        final int channels = this.lineFormat.getChannels();
+        final float[] chunk = new float[this.chunkSize * channels];
+        final byte[] playbackBuf = new byte[this.chunkSize * this.lineFormat.getFrameSize()];
+        final long chunkNanos = this.chunkSize * 1000000000L / this.lineFormat.getSampleRate();
+        
+        try (AudioSampleBuffer outBuffer = AudioSampleBuffer.allocate(this.lineFormat, this.chunkSize)) {
+            /* Resetting the buffer keeps its native memory, so a single view
+            serves every chunk. */
+            final ByteBuffer data = Audio.getByteBuffer(outBuffer.getDataCached());
+            boolean playing = false;
+            while (true) {
+                /* Wait for the jitter buffer to fill up to the target latency
+                before (re)starting playback. */
+                if (!playing) {
+                    while (!this.closing && 
+                           !this.jitterBuffer.awaitReadable(this.targetSamples, chunkNanos, TimeUnit.NANOSECONDS)) 
+                    { }
+                    playing = true;
+                }
+                
+                final int length = this.jitterBuffer.read(chunk, 0, this.chunkSize);
+                if (length == 0) {
+                    if (this.closing)
+                        break;
+                    
+                    this.numOfUnderruns.incrementAndGet();
+                    UNDERRUNS.increment();
+                    playing = false;
+                    continue;
+                }
+                
+                outBuffer.reset(length, 0);
+                outBuffer.putFloats(chunk, 0, length * channels);
+                
+                final int bytesToPlay = length * this.lineFormat.getFrameSize();
+                data.clear();
+                data.get(playbackBuf, 0, bytesToPlay);
+                this.line.write(playbackBuf, 0, bytesToPlay);
+            }
+            this.line.drain();
+        }
     }
 
     @Override
     public void close()
     {
+        if (this.isClosed())
+            return;
+        
+        /* Let the playback thread play the samples that are still queued. */
+        this.closing = true;
+        try {
+            this.drainThread.join();
+        } 
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        
         if (this.line != null) {
             this.line.close();
             this.line = null;
         }
         super.close();
+        this.checkDrainError();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+import java.util.Arrays;
+
+/**
+ * This class converts the sample rate of interleaved 32-bit floating point 
+ * samples with a polyphase windowed-sinc filter.
+ * <p>
+ * The filter bank holds a Kaiser-windowed sinc filter for each of a number of
+ * phases between two input samples, and coefficients in between two phases 
+ * are interpolated linearly. The last input samples of each block are kept,
+ * so that a stream can be resampled block by block without discontinuities.
+ * Output is written into arrays that are supplied by the caller, so that no 
+ * memory is allocated once the internal history has grown to fit the largest
+ * block. At the end of a stream, {@link #flush(float[], int, int)} emits the
+ * output samples that are still held back by the filter.
+ * </p><p>
+ * When downsampling, the filters of each quality tier are stretched by the
+ * ratio of both sample rates, rounded up, so that they keep the transition 
+ * band and the stop band attenuation of the tier relative to the lower 
+ * cutoff frequency. The cost per input sample stays the same, since fewer 
+ * output samples are computed. The stretch is capped at 
+ * {@value #MAX_TAP_SCALE}; beyond that ratio the transition band widens in
+ * proportion, e.g. by half again when downsampling by 12:1.
+ * </p><p>
+ * The history always holds enough input samples for the longest filter of 
+ * any quality tier, so that {@link #withQuality(ResamplerQuality)} can switch
+ * tiers in the middle of a stream without losing its state.
+ * </p><p>
+ * Instances are not thread-safe. Each stream needs its own resampler.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class PolyphaseResampler 
+{
+    /* The maximum factor by which the filters are stretched when 
+    downsampling. */
+    private static final int MAX_TAP_SCALE = 8;
+    
+    private final int channels;
+    private final int inputRate;
+    private final int outputRate;
+    private final ResamplerQuality quality;
+    private final int taps;
+    private final int phases;
+    private final float[] filters;
+    private final double step;
+    /* Half the number of taps of the longest filter of any quality tier, at
+    the sample rates of this resampler. */
+    private final int maxHalfTaps;
+    
+    /* Interleaved input samples that have not been consumed completely. */
+    private float[] history;
+    private int numOfHistorySamples;
+    /* The position of the next output sample, relative to the first sample 
+    in the history, in input samples. */
+    private double time;
+    /* The number of input and output samples (per channel) since the last 
+    reset. */
+    private long numOfInputSamples;
+    private long numOfOutputSamples;
+    
+    public PolyphaseResampler(
+            final int channels, 
+            final int inputRate, 
+            final int outputRate, 
+            final ResamplerQuality quality) 
+    {
+        if (channels <= 0)
+            throw new IllegalArgumentException("Invalid number of channels has been specified. The value must be larger than zero.");
+        if (inputRate <= 0 || outputRate <= 0)
+            throw new IllegalArgumentException("Invalid sample rate has been specified. The value must be larger than zero.");
+        if (quality == null)
+            throw new IllegalArgumentException("No resampler quality has been specified.");
+        
+        this.channels = channels;
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+        this.quality = quality;
+        final double ratio = Math.min(1.0, (double)outputRate / inputRate);
+        final int tapScale = getTapScale(ratio);
+        this.taps = quality.getTaps() * tapScale;
+        this.phases = quality.getPhases();
+        this.step = (double)inputRate / outputRate;
+        this.filters = createFilters(quality, ratio, this.taps);
+        this.maxHalfTaps = getMaxTaps() * tapScale / 2;
+        this.history = new float[0];
+        this.reset();
+    }
+    
+    private static int getMaxTaps() 
+    {
+        int maxTaps = 0;
+        for(ResamplerQuality quality : ResamplerQuality.values())
+            maxTaps = Math.max(maxTaps, quality.getTaps());
+        return maxTaps;
+    }
+    
+    /**
+     * Gets the factor by which the filters are stretched for the given ratio
+     * of the output rate to the input rate, which is one when upsampling.
+     */
+    private static int getTapScale(final double ratio) 
+    {
+        /* Allow for rounding errors in the ratio of both rates. */
+        return (int)Math.min(MAX_TAP_SCALE, Math.ceil(1.0 / ratio - 1e-9));
+    }
+    
+    /**
+     * Creates a resampler of the given quality that continues the stream of 
+     * this resampler: the input samples that have not been consumed, the 
+     * position of the next output sample and the number of samples passed so
+     * far are carried over, so that switching quality tiers in the middle of
+     * a stream does not cause a discontinuity. This resampler should not be 
+     * used afterwards.
+     * @param quality the quality of the new resampler
+     * @return the new resampler, or this resampler if it already has the given
+     * quality
+     */
+    public PolyphaseResampler withQuality(final ResamplerQuality quality) 
+    {
+        if (quality == null)
+            throw new IllegalArgumentException("No resampler quality has been specified.");
+        if (quality == this.quality)
+            return this;
+        
+        final PolyphaseResampler resampler = new PolyphaseResampler(
+                this.channels, this.inputRate, this.outputRate, quality);
+        resampler.history = Arrays.copyOf(this.history, this.history.length);
+        resampler.numOfHistorySamples = this.numOfHistorySamples;
+        resampler.time = this.time;
+        resampler.numOfInputSamples = this.numOfInputSamples;
+        resampler.numOfOutputSamples = this.numOfOutputSamples;
+        return resampler;
+    }
+    
+    /**
+     * Creates a filter bank of phases + 1 filters, the last one being equal 
+     * to the first one shifted by one sample, so that coefficients can always
+     * be interpolated between two adjacent phases. Each filter is normalized 
+     * to unity gain at DC, which compensates for the gain of the sinc at the
+     * lowered cutoff frequency as well as for its truncation by the window.
+     */
+    private static float[] createFilters(
+            final ResamplerQuality quality, 
+            final double ratio, 
+            final int taps) 
+    {
+        final int phases = quality.getPhases();
+        final double cutoff = quality.getCutoff() * ratio;
+        final double i0Beta = besselI0(quality.getBeta());
+        final int halfTaps = taps / 2;
+        
+        final float[] filters = new float[(phases + 1) * taps];
+        final double[] coefficients = new double[taps];
+        for(int p = 0; p <= phases; p++) {
+            final double frac = (double)p / phases;
+            double sum = 0.0;
+            for(int k = 0; k < taps; k++) {
+                /* Distance between the output position and the input sample. */
+                final double x = (k - halfTaps + 1) - frac;
+                final double w = x / halfTaps;
+                final double window = Math.abs(w) >= 1.0 
+                        ? 0.0 
+                        : besselI0(quality.getBeta() * Math.sqrt(1.0 - w * w)) / i0Beta;
+                final double sinc = x == 0.0 
+                        ? 1.0 
+                        : Math.sin(Math.PI * cutoff * x) / (Math.PI * cutoff * x);
+                coefficients[k] = sinc * window;
+                sum += coefficients[k];
+            }
+            for(int k = 0; k < taps; k++)
+                filters[p * taps + k] = (float)(coefficients[k] / sum);
+        }
+        return filters;
+    }
+    
+    /**
+     * Computes the zeroth order modified Bessel function of the first kind.
+     */
+    private static double besselI0(final double x) 
+    {
+        double sum = 1.0, term = 1.0;
+        final double halfX = x / 2.0;
+        for(int k = 1; k < 50 && term > sum * 1e-12; k++) {
+            term *= (halfX / k) * (halfX / k);
+            sum += term;
+        }
+        return sum;
+    }
+    
+    public int getChannels() {
+        return this.channels;
+    }
+    
+    public int getInputRate() {
+        return this.inputRate;
+    }
+    
+    public int getOutputRate() {
+        return this.outputRate;
+    }
+    
+    public ResamplerQuality getQuality() {
+        return this.quality;
+    }
+    
+    /**
+     * Gets the maximum number of samples (per channel) that resampling the 
+     * given number of input samples can produce.
+     * @param numOfInputSamples the number of input samples (per channel)
+     * @return the maximum number of output samples (per channel)
+     */
+    public int getMaxOutputSamples(final int numOfInputSamples) 
+    {
+        return (int)Math.ceil((this.numOfHistorySamples + numOfInputSamples) / this.step) + 1;
+    }
+    
+    /**
+     * Gets the maximum number of samples (per channel) that flushing this 
+     * resampler can produce.
+     * @return the maximum number of output samples (per channel)
+     */
+    public int getMaxFlushSamples() {
+        return this.getMaxOutputSamples(this.taps / 2);
+    }
+    
+    /**
+     * Resamples the given input samples.
+     * Any output samples that depend on input samples which have not been 
+     * passed yet are produced by a later call.
+     * @param src the array of interleaved input samples
+     * @param srcOffset the offset of the first input sample frame, in samples
+     * (per channel)
+     * @param numOfInputSamples the number of input samples (per channel)
+     * @param dst the array to write interleaved output samples to
+     * @param dstOffset the offset of the first output sample frame, in 
+     * samples (per channel)
+     * @param maxOutputSamples the maximum number of output samples (per 
+     * channel) to write, see {@link #getMaxOutputSamples(int)}
+     * @return the number of output samples (per channel) written
+     */
+    public int resample(
+            final float[] src, final int srcOffset, final int numOfInputSamples,
+            final float[] dst, final int dstOffset, final int maxOutputSamples) 
+    {
+        if (src == null || dst == null)
+            throw new IllegalArgumentException("No array has been specified.");
+        if (srcOffset < 0 || numOfInputSamples < 0 || (srcOffset + numOfInputSamples) * this.channels > src.length)
+            throw new IndexOutOfBoundsException("Index: "+(srcOffset + numOfInputSamples)+"; Size: "+(src.length / this.channels));
+        if (dstOffset < 0 || maxOutputSamples < 0 || (dstOffset + maxOutputSamples) * this.channels > dst.length)
+            throw new IndexOutOfBoundsException("Index: "+(dstOffset + maxOutputSamples)+"; Size: "+(dst.length / this.channels));
+        
+        this.append(src, srcOffset, numOfInputSamples);
+        this.numOfInputSamples += numOfInputSamples;
+        return this.process(dst, dstOffset, maxOutputSamples);
+    }
+    
+    /**
+     * Emits the output samples that are still held back because they depend
+     * on input samples past the last one that has been passed, as if the 
+     * stream were followed by silence. Exactly as many samples are emitted as
+     * needed for the output to cover the same duration as the input. The 
+     * resampler is reset afterwards, so that it can resample a new stream.
+     * @param dst the array to write interleaved output samples to
+     * @param dstOffset the offset of the first output sample frame, in 
+     * samples (per channel)
+     * @param maxOutputSamples the maximum number of output samples (per 
+     * channel) to write, see {@link #getMaxFlushSamples()}
+     * @return the number of output samples (per channel) written
+     */
+    public int flush(final float[] dst, final int dstOffset, final int maxOutputSamples) 
+    {
+        if (dst == null)
+            throw new IllegalArgumentException("No array has been specified.");
+        if (dstOffset < 0 || maxOutputSamples < 0 || (dstOffset + maxOutputSamples) * this.channels > dst.length)
+            throw new IndexOutOfBoundsException("Index: "+(dstOffset + maxOutputSamples)+"; Size: "+(dst.length / this.channels));
+        
+        /* The number of output samples that cover the input, rounded up. */
+        final long numOfTotalSamples = 
+                (this.numOfInputSamples * this.outputRate + this.inputRate - 1) / this.inputRate;
+        final int numOfRemainingSamples = (int)Math.max(0, Math.min(
+                maxOutputSamples, numOfTotalSamples - this.numOfOutputSamples));
+        
+        /* Half a filter of silence lets the filter reach past the last input
+        sample. */
+        final int halfTaps = this.taps / 2;
+        final int required = (this.numOfHistorySamples + halfTaps) * this.channels;
+        if (this.history.length < required)
+            this.history = Arrays.copyOf(this.history, required);
+        Arrays.fill(this.history, this.numOfHistorySamples * this.channels, required, 0.0f);
+        this.numOfHistorySamples += halfTaps;
+        
+        final int numOfOutputSamples = this.process(dst, dstOffset, numOfRemainingSamples);
+        this.reset();
+        return numOfOutputSamples;
+    }
+    
+    /**
+     * Computes output samples from the history for as long as the input 
+     * samples they depend on are available.
+     */
+    private int process(final float[] dst, final int dstOffset, final int maxOutputSamples) 
+    {
+        final int channels = this.channels, taps = this.taps, phases = this.phases;
+        final int halfTaps = taps / 2;
+        final float[] hist = this.history, filters = this.filters;
+        
+        int numOfOutputSamples = 0;
+        int dstIndex = dstOffset * channels;
+        while (numOfOutputSamples < maxOutputSamples) {
+            final int index = (int)this.time;
+            /* Stop once the filter would reach past the available input. */
+            if (index + halfTaps >= this.numOfHistorySamples)
+                break;
+            
+            final double phase = (this.time - index) * phases;
+            final int p = (int)phase;
+            final float weight = (float)(phase - p);
+            final int filter = p * taps, nextFilter = filter + taps;
+            final int first = (index - halfTaps + 1) * channels;
+            
+            for(int c = 0; c < channels; c++) {
+                float sum = 0.0f;
+                int srcIndex = first + c;
+                for(int k = 0; k < taps; k++, srcIndex += channels) {
+                    final float coefficient = filters[filter + k] + 
+                            weight * (filters[nextFilter + k] - filters[filter + k]);
+                    sum += hist[srcIndex] * coefficient;
+                }
+                dst[dstIndex + c] = sum;
+            }
+            
+            dstIndex += channels;
+            numOfOutputSamples++;
+            this.time += this.step;
+        }
+        
+        this.discard();
+        this.numOfOutputSamples += numOfOutputSamples;
+        return numOfOutputSamples;
+    }
+    
+    /**
+     * Appends input samples to the history, growing it if necessary.
+     */
+    private void append(final float[] src, final int srcOffset, final int length) 
+    {
+        final int required = (this.numOfHistorySamples + length) * this.channels;
+        if (this.history.length < required)
+            this.history = Arrays.copyOf(this.history, required);
+        
+        System.arraycopy(src, srcOffset * this.channels, 
+                this.history, this.numOfHistorySamples * this.channels, 
+                length * this.channels);
+        this.numOfHistorySamples += length;
+    }
+    
+    /**
+     * Discards the input samples that no output sample of any quality tier 
+     * depends on anymore.
+     */
+    private void discard() 
+    {
+        final int numOfConsumed = Math.min(
+                (int)this.time - this.maxHalfTaps + 1, 
+                this.numOfHistorySamples);
+        if (numOfConsumed <= 0)
+            return;
+        
+        System.arraycopy(this.history, numOfConsumed * this.channels, 
+                this.history, 0, 
+                (this.numOfHistorySamples - numOfConsumed) * this.channels);
+        this.numOfHistorySamples -= numOfConsumed;
+        this.time -= numOfConsumed;
+    }
+    
+    /**
+     * Clears the history of this resampler, e.g. after seeking.
+     */
+    public void reset() 
+    {
+        /* Prime the history with silence, so that the first output sample 
+        lines up with the first input sample, for the filters of all quality
+        tiers. */
+        if (this.history.length < (this.maxHalfTaps - 1) * this.channels)
+            this.history = new float[(this.maxHalfTaps - 1) * this.channels];
+        Arrays.fill(this.history, 0.0f);
+        this.numOfHistorySamples = this.maxHalfTaps - 1;
+        this.time = this.maxHalfTaps - 1;
+        this.numOfInputSamples = 0;
+        this.numOfOutputSamples = 0;
+    }
+}
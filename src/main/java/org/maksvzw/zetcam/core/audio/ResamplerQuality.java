@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+/**
+ * Quality tiers of the {@link PolyphaseResampler}.
+ * Higher tiers use longer windowed-sinc filters and more filter phases, which
+ * results in less aliasing and a flatter pass band at a higher cost.
+ * 
+ * @author Lenny Knockaert
+ */
+public enum ResamplerQuality 
+{
+    /** select short filters for cheap, real-time resampling */
+    FAST(8, 32, 5.0, 0.85),
+    /** select medium filters for previews and playback */
+    PREVIEW(24, 128, 7.0, 0.91),
+    /** select long filters for exports */
+    EXPORT(64, 512, 9.0, 0.95);
+    
+    private final int taps;
+    private final int phases;
+    private final double beta;
+    private final double cutoff;
+    
+    private ResamplerQuality(
+            final int taps, 
+            final int phases, 
+            final double beta, 
+            final double cutoff) 
+    {
+        this.taps = taps;
+        this.phases = phases;
+        this.beta = beta;
+        this.cutoff = cutoff;
+    }
+    
+    /**
+     * Gets the number of input samples each output sample is computed from
+     * when upsampling. When downsampling, the filters are stretched by the 
+     * ratio of both sample rates, up to eight times this number, i.e. 64 taps
+     * for FAST, 192 for PREVIEW and 512 for EXPORT. Downsampling by a larger 
+     * ratio widens the transition band of the filters in proportion.
+     * @return the number of filter taps, which is always even
+     */
+    public int getTaps() {
+        return this.taps;
+    }
+    
+    /**
+     * Gets the number of filter phases between two input samples.
+     * @return the number of filter phases
+     */
+    public int getPhases() {
+        return this.phases;
+    }
+    
+    /**
+     * Gets the shape parameter of the Kaiser window of the filters.
+     * @return the shape parameter of the Kaiser window
+     */
+    public double getBeta() {
+        return this.beta;
+    }
+    
+    /**
+     * Gets the cutoff frequency of the filters, relative to the Nyquist 
+     * frequency of the lowest of both sample rates.
+     * @return the relative cutoff frequency
+     */
+    public double getCutoff() {
+        return this.cutoff;
+    }
+}
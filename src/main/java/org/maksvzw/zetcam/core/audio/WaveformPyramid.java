@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+import java.io.Serializable;
+
+/**
+ * This class holds a multi-resolution overview of the peaks of an audio 
+ * stream, which allows to draw its waveform at any zoom level without 
+ * decoding it again.
+ * <p>
+ * Each level divides the stream into buckets of a fixed number of samples 
+ * (per channel) and stores the minimum, maximum and root mean square value
+ * of all channels in each bucket. Drawing a waveform only requires as many 
+ * buckets of the most suitable level as there are pixels.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class WaveformPyramid implements Serializable
+{
+    private final int sampleRate;
+    private final long numOfSamples;
+    private final Level[] levels;
+    
+    WaveformPyramid(
+            final int sampleRate, 
+            final long numOfSamples, 
+            final Level[] levels) 
+    {
+        this.sampleRate = sampleRate;
+        this.numOfSamples = numOfSamples;
+        this.levels = levels;
+    }
+    
+    /**
+     * Gets the sample rate of the audio stream.
+     * @return the sample rate of the audio stream
+     */
+    public int getSampleRate() {
+        return this.sampleRate;
+    }
+    
+    /**
+     * Gets the number of samples (per channel) of the audio stream.
+     * @return the number of samples of the audio stream
+     */
+    public long getNumOfSamples() {
+        return this.numOfSamples;
+    }
+    
+    public int getNumOfLevels() {
+        return this.levels.length;
+    }
+    
+    /**
+     * Gets the given level of this pyramid, the first level being the one 
+     * with the smallest buckets.
+     * @param index the index of the level
+     * @return the level
+     */
+    public Level getLevel(final int index) {
+        return this.levels[index];
+    }
+    
+    /**
+     * Finds the coarsest level whose buckets are not larger than the given 
+     * number of samples per pixel.
+     * @param samplesPerPixel the number of samples (per channel) drawn in 
+     * each pixel
+     * @return the most suitable level
+     */
+    public Level findLevel(final double samplesPerPixel) 
+    {
+        Level level = this.levels[0];
+        for(int i = 1; i < this.levels.length; i++) {
+            if (this.levels[i].samplesPerBucket > samplesPerPixel)
+                break;
+            level = this.levels[i];
+        }
+        return level;
+    }
+    
+    /**
+     * Computes the peaks of the given range of samples for the given number 
+     * of pixels, using the most suitable level of this pyramid.
+     * @param startSample the first sample of the range
+     * @param numOfSamples the number of samples (per channel) in the range
+     * @param min the array to store the minimum value of each pixel in
+     * @param max the array to store the maximum value of each pixel in
+     * @param rms the array to store the root mean square value of each pixel
+     * in, or null
+     * @param numOfPixels the number of pixels to compute
+     */
+    public void getPeaks(
+            final long startSample, 
+            final long numOfSamples, 
+            final float[] min, 
+            final float[] max, 
+            final float[] rms,
+            final int numOfPixels) 
+    {
+        if (startSample < 0 || numOfSamples <= 0)
+            throw new IllegalArgumentException("The specified range of samples is out of range.");
+        if (min == null || max == null)
+            throw new IllegalArgumentException("No peak arrays have been specified.");
+        if (numOfPixels <= 0 || numOfPixels > min.length || numOfPixels > max.length || 
+            (rms != null && numOfPixels > rms.length))
+            throw new IllegalArgumentException("The specified number of pixels is out of range.");
+        
+        final double samplesPerPixel = (double)numOfSamples / numOfPixels;
+        final Level level = this.findLevel(samplesPerPixel);
+        final double bucketsPerPixel = samplesPerPixel / level.samplesPerBucket;
+        final double firstBucket = (double)startSample / level.samplesPerBucket;
+        
+        for(int i = 0; i < numOfPixels; i++) {
+            final int from = (int)(firstBucket + i * bucketsPerPixel);
+            final int to = Math.max(from + 1, (int)(firstBucket + (i + 1) * bucketsPerPixel));
+            
+            float pixelMin = 0.0f, pixelMax = 0.0f;
+            double sumOfSquares = 0.0;
+            int numOfBuckets = 0;
+            for(int j = from; j < to && j < level.numOfBuckets; j++) {
+                pixelMin = Math.min(pixelMin, level.min[j]);
+                pixelMax = Math.max(pixelMax, level.max[j]);
+                sumOfSquares += (double)level.rms[j] * level.rms[j];
+                numOfBuckets++;
+            }
+            
+            min[i] = pixelMin;
+            max[i] = pixelMax;
+            /* Pixels past the end of the waveform only average the buckets 
+            that exist. */
+            if (rms != null)
+                rms[i] = numOfBuckets > 0 
+                        ? (float)Math.sqrt(sumOfSquares / numOfBuckets) 
+                        : 0.0f;
+        }
+    }
+    
+    /**
+     * This class holds the peaks of a single level of a waveform pyramid.
+     */
+    public static final class Level implements Serializable
+    {
+        private final int samplesPerBucket;
+        private final int numOfBuckets;
+        private final float[] min;
+        private final float[] max;
+        private final float[] rms;
+        
+        Level(
+                final int samplesPerBucket, 
+                final int numOfBuckets, 
+                final float[] min, 
+                final float[] max, 
+                final float[] rms) 
+        {
+            this.samplesPerBucket = samplesPerBucket;
+            this.numOfBuckets = numOfBuckets;
+            this.min = min;
+            this.max = max;
+            this.rms = rms;
+        }
+        
+        /**
+         * Gets the number of samples (per channel) in each bucket.
+         * @return the number of samples in each bucket
+         */
+        public int getSamplesPerBucket() {
+            return this.samplesPerBucket;
+        }
+        
+        public int getNumOfBuckets() {
+            return this.numOfBuckets;
+        }
+        
+        public float getMin(final int bucket) {
+            return this.min[bucket];
+        }
+        
+        public float getMax(final int bucket) {
+            return this.max[bucket];
+        }
+        
+        public float getRms(final int bucket) {
+            return this.rms[bucket];
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+import com.xuggle.xuggler.IAudioSamples;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * This class builds a {@link WaveformPyramid} from the audio samples that 
+ * pass through it, in a single pass.
+ * <p>
+ * Only the smallest buckets are computed from the samples themselves, each
+ * larger bucket is merged from the buckets of the level below once they are
+ * complete. The number of samples per bucket of each level must therefore be
+ * a multiple of that of the level below.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class WaveformSink extends AudioSink
+{
+    private static final int[] DEFAULT_LEVELS = { 256, 4096, 65536 };
+    
+    private final AudioFormat format;
+    private final LevelBuilder[] levels;
+    private long numOfSamples;
+    
+    public WaveformSink(final AudioFormat audioFormat) {
+        this(audioFormat, DEFAULT_LEVELS);
+    }
+    
+    /**
+     * Creates a new waveform sink.
+     * @param audioFormat the format of the audio stream, of which only the 
+     * sample rate and number of channels are used
+     * @param samplesPerBucket the number of samples (per channel) in each 
+     * bucket of each level, in ascending order
+     */
+    public WaveformSink(final AudioFormat audioFormat, final int... samplesPerBucket) 
+    {
+        super(checkFormat(audioFormat).toProcessingFormat());
+        
+        if (samplesPerBucket == null || samplesPerBucket.length == 0)
+            throw new IllegalArgumentException("No levels have been specified.");
+        
+        this.format = audioFormat.toProcessingFormat();
+        this.levels = new LevelBuilder[samplesPerBucket.length];
+        for(int i = 0; i < samplesPerBucket.length; i++) {
+            if (samplesPerBucket[i] <= 0)
+                throw new IllegalArgumentException("Invalid number of samples per bucket has been specified. The value must be larger than zero.");
+            if (i > 0 && samplesPerBucket[i] % samplesPerBucket[i - 1] != 0)
+                throw new IllegalArgumentException("Invalid number of samples per bucket has been specified. The value must be a multiple of that of the previous level.");
+            
+            this.levels[i] = new LevelBuilder(samplesPerBucket[i]);
+        }
+    }
+    
+    private static AudioFormat checkFormat(final AudioFormat audioFormat) 
+    {
+        if (audioFormat == null)
+            throw new IllegalArgumentException("No audio format has been specified.");
+        
+        return audioFormat;
+    }
+    
+    /**
+     * Gets the number of samples (per channel) that have passed through this 
+     * sink.
+     * @return the number of samples
+     */
+    public long getNumOfSamples() {
+        return this.numOfSamples;
+    }
+
+    @Override
+    protected void onAudioSamples(final IAudioSamples samples) 
+    {
+        final int numOfSamples = (int)samples.getNumSamples();
+        final int channels = this.format.getChannels();
+        final FloatBuffer data = Audio.getByteBuffer(samples).asFloatBuffer();
+        
+        final LevelBuilder level = this.levels[0];
+        int index = 0;
+        for(int i = 0; i < numOfSamples; i++) {
+            for(int c = 0; c < channels; c++)
+                level.add(data.get(index++));
+            
+            if (++level.numOfSamples == level.samplesPerBucket)
+                this.completeBucket(0);
+        }
+        this.numOfSamples += numOfSamples;
+    }
+    
+    /**
+     * Completes the current bucket of the given level and merges it into the 
+     * current bucket of the level above.
+     */
+    private void completeBucket(final int index) 
+    {
+        final LevelBuilder level = this.levels[index];
+        level.complete();
+        
+        if (index + 1 >= this.levels.length)
+            return;
+        
+        final LevelBuilder parent = this.levels[index + 1];
+        parent.merge(level);
+        if (parent.numOfSamples == parent.samplesPerBucket)
+            this.completeBucket(index + 1);
+    }
+    
+    /**
+     * Builds the waveform pyramid of all samples that have passed through 
+     * this sink so far, including any incomplete bucket at the end.
+     * @return the waveform pyramid
+     */
+    public WaveformPyramid build() 
+    {
+        final WaveformPyramid.Level[] pyramid = new WaveformPyramid.Level[this.levels.length];
+        
+        /* The incomplete bucket of each level has not been merged into the 
+        level above yet, so it is carried upwards. */
+        float partMin = 0.0f, partMax = 0.0f;
+        double partSumOfSquares = 0.0;
+        long partNumOfValues = 0;
+        for(int i = 0; i < this.levels.length; i++) {
+            final LevelBuilder level = this.levels[i];
+            partMin = Math.min(partMin, level.currMin);
+            partMax = Math.max(partMax, level.currMax);
+            partSumOfSquares += level.sumOfSquares;
+            partNumOfValues += level.numOfValues;
+            
+            pyramid[i] = level.build(this.numOfSamples, 
+                    partMin, partMax, partSumOfSquares, partNumOfValues);
+        }
+        
+        return new WaveformPyramid(this.format.getSampleRate(), this.numOfSamples, pyramid);
+    }
+    
+    private static final class LevelBuilder 
+    {
+        private final int samplesPerBucket;
+        private float[] min = new float[256];
+        private float[] max = new float[256];
+        private float[] rms = new float[256];
+        private int numOfBuckets;
+        /* The state of the current, incomplete bucket. */
+        private int numOfSamples;
+        private float currMin;
+        private float currMax;
+        private double sumOfSquares;
+        private long numOfValues;
+        /* The state of the last completed bucket, to merge it upwards. */
+        private double lastSumOfSquares;
+        private long lastNumOfValues;
+        
+        public LevelBuilder(final int samplesPerBucket) {
+            this.samplesPerBucket = samplesPerBucket;
+        }
+        
+        public void add(final float value) 
+        {
+            if (value < this.currMin) this.currMin = value;
+            if (value > this.currMax) this.currMax = value;
+            this.sumOfSquares += (double)value * value;
+            this.numOfValues++;
+        }
+        
+        public void merge(final LevelBuilder child) 
+        {
+            final int bucket = child.numOfBuckets - 1;
+            if (child.min[bucket] < this.currMin) this.currMin = child.min[bucket];
+            if (child.max[bucket] > this.currMax) this.currMax = child.max[bucket];
+            this.sumOfSquares += child.lastSumOfSquares;
+            this.numOfValues += child.lastNumOfValues;
+            this.numOfSamples += child.samplesPerBucket;
+        }
+        
+        public void complete() 
+        {
+            if (this.numOfBuckets == this.min.length) {
+                this.min = Arrays.copyOf(this.min, this.numOfBuckets * 2);
+                this.max = Arrays.copyOf(this.max, this.numOfBuckets * 2);
+                this.rms = Arrays.copyOf(this.rms, this.numOfBuckets * 2);
+            }
+            
+            this.min[this.numOfBuckets] = this.currMin;
+            this.max[this.numOfBuckets] = this.currMax;
+            this.rms[this.numOfBuckets] = this.numOfValues > 0 
+                    ? (float)Math.sqrt(this.sumOfSquares / this.numOfValues) 
+                    : 0.0f;
+            this.numOfBuckets++;
+            
+            this.lastSumOfSquares = this.sumOfSquares;
+            this.lastNumOfValues = this.numOfValues;
+            this.numOfSamples = 0;
+            this.currMin = 0.0f;
+            this.currMax = 0.0f;
+            this.sumOfSquares = 0.0;
+            this.numOfValues = 0;
+        }
+        
+        public WaveformPyramid.Level build(
+                final long totalNumOfSamples,
+                final float partMin,
+                final float partMax,
+                final double partSumOfSquares,
+                final long partNumOfValues) 
+        {
+            final int n = this.numOfBuckets;
+            if (totalNumOfSamples <= (long)n * this.samplesPerBucket) {
+                return new WaveformPyramid.Level(this.samplesPerBucket, n, 
+                        Arrays.copyOf(this.min, n), 
+                        Arrays.copyOf(this.max, n), 
+                        Arrays.copyOf(this.rms, n));
+            }
+            
+            final float[] buildMin = Arrays.copyOf(this.min, n + 1);
+            final float[] buildMax = Arrays.copyOf(this.max, n + 1);
+            final float[] buildRms = Arrays.copyOf(this.rms, n + 1);
+            buildMin[n] = partMin;
+            buildMax[n] = partMax;
+            buildRms[n] = partNumOfValues > 0 
+                    ? (float)Math.sqrt(partSumOfSquares / partNumOfValues) 
+                    : 0.0f;
+            
+            return new WaveformPyramid.Level(this.samplesPerBucket, n + 1, 
+                    buildMin, buildMax, buildRms);
+        }
+    }
+}
@@ -21,8 +21,10 @@ package org.maksvzw.zetcam.core.audio.buffers;
 import com.xuggle.xuggler.IAudioSamples;
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import org.maksvzw.zetcam.core.audio.Audio;
 import org.maksvzw.zetcam.core.audio.AudioFormat;
+import org.maksvzw.zetcam.core.audio.AudioSamplesPool;
 
 /**
  *
@@ -64,42 +66,71 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
         return allocate(audioFormat, numOfSamples, 0);
     }
         
+    /**
+     * Allocates a silent audio buffer of the given format and size.
+     * The underlying samples are drawn from the {@linkplain 
+     * AudioSamplesPool#getDefault() shared pool} and returned to it when the 
+     * buffer is closed, unless they are still referenced elsewhere.
+     * @param audioFormat the format of the audio buffer
+     * @param numOfSamples the capacity of the audio buffer, in samples (per 
+     * channel)
+     * @param ptsInSamples the time stamp of the audio buffer, in samples
+     * @return the allocated audio buffer
+     */
     public static final AudioSampleBuffer<? extends Number> allocate(
             final AudioFormat audioFormat,
             final int numOfSamples, 
             final long ptsInSamples)
     {
-        final IAudioSamples samples = Audio.allocateSamples(
+        final AudioSamplesPool pool = AudioSamplesPool.getDefault();
+        final IAudioSamples samples = pool.acquire(
                 audioFormat, numOfSamples, ptsInSamples);
         
+        final AudioSampleBuffer<? extends Number> buffer;
         switch(samples.getData().getType()) {
             case IBUFFER_UINT8:
-                return new UInt8SampleBuffer(samples).silenceAll().rewind();
+                buffer = new UInt8SampleBuffer(samples);
+                break;
             case IBUFFER_SINT8:
-                return new Int8SampleBuffer(samples);
+                buffer = new Int8SampleBuffer(samples);
+                break;
             case IBUFFER_UINT16:
-                return new UInt16SampleBuffer(samples).silenceAll().rewind();
+                buffer = new UInt16SampleBuffer(samples);
+                break;
             case IBUFFER_SINT16:
-                return new Int16SampleBuffer(samples);
+                buffer = new Int16SampleBuffer(samples);
+                break;
             case IBUFFER_UINT32:
-                return new UInt32SampleBuffer(samples).silenceAll().rewind();
+                buffer = new UInt32SampleBuffer(samples);
+                break;
             case IBUFFER_SINT32:
-                return new Int32SampleBuffer(samples);
+                buffer = new Int32SampleBuffer(samples);
+                break;
             case IBUFFER_FLT32:
-                return new FloatSampleBuffer(samples);
+                buffer = new FloatSampleBuffer(samples);
+                break;
             case IBUFFER_DBL64:
-                return new DoubleSampleBuffer(samples);
+                buffer = new DoubleSampleBuffer(samples);
+                break;
             default:
                 samples.delete();
                 throw new UnsupportedOperationException();
         }
+        
+        /* Pooled samples hold whatever was written to them last. */
+        buffer.pool = pool;
+        buffer.silenceAll().rewind();
+        return buffer;
     }
     
     private final IAudioSamples samples;
+    private final ByteBuffer data;
+    private final int sampleSize;
     private final int channels;
     private int limit;
     private int index;
     private boolean isClosed;
+    private AudioSamplesPool pool;
     
     protected AudioSampleBuffer(IAudioSamples samples) 
     {
@@ -109,6 +140,8 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
             throw new IllegalArgumentException("No valid audio samples have been specified.");
         
         this.samples = samples;
+        this.data = Audio.getByteBuffer(samples);
+        this.sampleSize = (int)(IAudioSamples.findSampleBitDepth(samples.getFormat()) / 8);
         this.channels = samples.getChannels();
         this.clear();
         this.isClosed = false;
@@ -145,6 +178,21 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
         return this.samples;
     }
     
+    /**
+     * Gets a direct view of the native memory of this audio buffer, in native
+     * byte order.
+     * Subclasses derive their typed views from it and access samples in 
+     * place, without crossing the JNI boundary for every sample. 
+     * <p>
+     * The returned buffer is shared, so only its absolute get and put methods
+     * should be used, or a duplicate should be made.
+     * </p>
+     * @return a direct view of the underlying samples of this audio buffer
+     */
+    protected final ByteBuffer getByteBuffer() {
+        return this.data;
+    }
+    
     /**
      * Gets the capacity of this buffer, in samples (per channel).
      * @return the capacity of this buffer, in samples (per channel)
@@ -197,10 +245,10 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
         
         final int newIndex = newPosition * this.channels;
         
-        if (newIndex < 0 || newIndex > this.limit()) 
-            throw new IndexOutOfBoundsException("Index: "+newIndex+"; Size: "+this.limit());
+        if (newIndex < 0 || newIndex > this.limit) 
+            throw new IndexOutOfBoundsException("Index: "+newPosition+"; Size: "+this.limit());
         
-        this.index = newIndex + this.channels;
+        this.index = newIndex;
         return this;
     }
     
@@ -232,7 +280,7 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
         
         final int newIndex = this.index - (this.index % this.channels) + newChannel;
         
-        if (newChannel < 0 || newChannel > this.channels) 
+        if (newChannel < 0 || newChannel >= this.channels) 
             throw new IndexOutOfBoundsException("Index: "+newChannel+"; Size: "+this.channels);
         
         this.index = newIndex;
@@ -265,12 +313,12 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
         if (!this.hasRemaining())
             throw new BufferUnderflowException();
         
-        T sample = this.getSample(this.samples, this.index);
+        T sample = this.getSample(this.index);
         this.index++;
         return sample;
     }
     
-    protected abstract T getSample(IAudioSamples samples, int index);
+    protected abstract T getSample(int index);
     
     public final AudioSampleBuffer<T> get(AudioSampleBuffer<T> dst) 
     {
@@ -281,12 +329,44 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
         
         this.checkAudioBuffer(dst);
         final int length = dst.limit - dst.index;
-        this.copySamples(this.samples, this.index, dst.samples, dst.index, length);
+        copySamples(this, this.index, dst, dst.index, length);
         this.index += length;
         dst.index += length;
         return this;
     }
 
+    /**
+     * Reads samples, starting at the current position, into the given array. 
+     * Each sample is converted to a normalized 32-bit floating point value in
+     * the range of -1.0 to 1.0, regardless of the sample format of this buffer.
+     * <p>
+     * Unlike the position and the limit, the length is expressed in samples 
+     * and not in samples per channel, so that a block of interleaved sample 
+     * frames can be transferred with a single call.
+     * </p>
+     * @param dst the array to which samples are to be written
+     * @param offset the offset within the array of the first sample to write
+     * @param length the number of samples to read
+     * @return this audio buffer
+     */
+    public final AudioSampleBuffer<T> getFloats(final float[] dst, final int offset, final int length)
+    {
+        if (dst == null)
+            throw new IllegalArgumentException("No array has been specified.");
+        checkBounds(dst.length, offset, length);
+        
+        final int srcIndex = this.advance(length, false);
+        this.getFloatSamples(srcIndex, dst, offset, length);
+        return this;
+    }
+    
+    /**
+     * Converts the given number of samples, starting at the given index, to 
+     * normalized 32-bit floating point values and writes them to the given
+     * array, starting at the given offset.
+     */
+    protected abstract void getFloatSamples(int index, float[] dst, int offset, int length);
+    
     public final AudioSampleBuffer<T> put(T sample) 
     {
         if (this.isClosed)
@@ -296,12 +376,12 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
         if (!this.hasRemaining())
             throw new BufferOverflowException();
         
-        this.putSample(this.samples, this.index, sample);
+        this.putSample(this.index, sample);
         this.index++;
         return this;
     }
     
-    protected abstract void putSample(IAudioSamples samples, int index, T sample);
+    protected abstract void putSample(int index, T sample);
     
     public final AudioSampleBuffer<T> put(AudioSampleBuffer<T> src)
     {
@@ -312,13 +392,101 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
         
         this.checkAudioBuffer(src);
         final int length = src.limit - src.index;
-        this.copySamples(src.samples, src.index, this.samples, this.index, length);
+        copySamples(src, src.index, this, this.index, length);
         this.index += length;
         src.index += length;
         return this;
     }
     
-    protected abstract void copySamples(IAudioSamples src, int srcIndex, IAudioSamples dst, int dstIndex, int length);
+    /**
+     * Copies samples between two buffers of the same sample format with a 
+     * single bulk transfer between their native memory.
+     */
+    private static void copySamples(
+            final AudioSampleBuffer<?> src, final int srcIndex, 
+            final AudioSampleBuffer<?> dst, final int dstIndex, 
+            final int length) 
+    {
+        final int sampleSize = src.sampleSize;
+        final ByteBuffer srcData = src.data.duplicate();
+        srcData.limit((srcIndex + length) * sampleSize);
+        srcData.position(srcIndex * sampleSize);
+        
+        final ByteBuffer dstData = dst.data.duplicate();
+        dstData.position(dstIndex * sampleSize);
+        dstData.put(srcData);
+    }
+    
+    /**
+     * Writes samples from the given array into this buffer, starting at the 
+     * current position. 
+     * Each sample is expected to be a normalized 32-bit floating point value 
+     * and is converted to the sample format of this buffer. Values outside of 
+     * the dynamic range of the sample format are clipped.
+     * <p>
+     * Unlike the position and the limit, the length is expressed in samples 
+     * and not in samples per channel, so that a block of interleaved sample 
+     * frames can be transferred with a single call.
+     * </p>
+     * @param src the array from which samples are to be read
+     * @param offset the offset within the array of the first sample to read
+     * @param length the number of samples to write
+     * @return this audio buffer
+     */
+    public final AudioSampleBuffer<T> putFloats(final float[] src, final int offset, final int length)
+    {
+        if (src == null)
+            throw new IllegalArgumentException("No array has been specified.");
+        checkBounds(src.length, offset, length);
+        
+        final int dstIndex = this.advance(length, true);
+        this.putFloatSamples(dstIndex, src, offset, length);
+        return this;
+    }
+    
+    /**
+     * Writes the remaining samples of the given buffer of normalized 32-bit 
+     * floating point samples into this buffer, starting at its current 
+     * position.
+     * This is the final conversion of a pipeline that processes samples in the
+     * {@linkplain AudioFormat#toProcessingFormat() processing format}: each 
+     * sample is converted to the sample format of this buffer and values 
+     * outside of its dynamic range are clipped, exactly once.
+     * <p>
+     * The positions of both buffers are advanced.
+     * </p>
+     * @param src the floating point audio buffer from which samples are to be 
+     * read
+     * @return this audio buffer
+     */
+    public final AudioSampleBuffer<T> putFloats(final FloatSampleBuffer src)
+    {
+        if (src == null)
+            throw new IllegalArgumentException("No audio sample buffer has been specified.");
+        if (src.isClosed())
+            throw new IllegalArgumentException("The specified audio sample buffer has already been closed.");
+        if (src.channels() != this.channels)
+            throw new IllegalArgumentException("Incompatible audio samples are specified.");
+        
+        final int length = src.remaining() * this.channels;
+        final int dstIndex = this.advance(length, true);
+        this.putFloatSamples(dstIndex, src, src.advance(length, false), length);
+        return this;
+    }
+    
+    /**
+     * Converts the given number of normalized 32-bit floating point values of
+     * the given array, starting at the given offset, and writes them into 
+     * this buffer, starting at the given index. 
+     */
+    protected abstract void putFloatSamples(int index, float[] src, int offset, int length);
+    
+    /**
+     * Converts the given number of samples of the given floating point audio
+     * buffer, starting at the given source index, and writes them into this 
+     * buffer, starting at the given index. 
+     */
+    protected abstract void putFloatSamples(int index, FloatSampleBuffer src, int srcIndex, int length);
     
     private void checkAudioBuffer(AudioSampleBuffer<T> buf) 
     {
@@ -342,9 +510,9 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
         if (!this.hasRemaining())
             throw new BufferOverflowException();
         
-        final T origSample = this.getSample(this.samples, this.index);
+        final T origSample = this.getSample(this.index);
         final T mixedSample = this.mixSample(origSample, sample);
-        this.putSample(this.samples, this.index, mixedSample);
+        this.putSample(this.index, mixedSample);
         this.index++;
         return this;
     }
@@ -360,13 +528,30 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
         
         this.checkAudioBuffer(src);
         final int length = src.limit - src.index;
-        this.mixSamples(src.samples, src.index, this.samples, this.index, length);
+        this.mixSamples(src, src.index, this.index, length);
         this.index += length;
         src.index += length;
         return this;
     }
     
-    protected abstract void mixSamples(IAudioSamples src, int srcIndex, IAudioSamples dst, int dstIndex, int length);
+    protected abstract void mixSamples(AudioSampleBuffer<T> src, int srcIndex, int dstIndex, int length);
+    
+    /**
+     * Mixes the remaining samples of this buffer into the given buffer, 
+     * starting at its current position.
+     * This is the reverse of {@link #mix(AudioSampleBuffer)} and advances the 
+     * positions of both buffers.
+     * @param dst the audio buffer into which samples are to be mixed
+     * @return this audio buffer
+     */
+    public final AudioSampleBuffer<T> mixInto(AudioSampleBuffer<T> dst) 
+    {
+        if (dst == null)
+            throw new IllegalArgumentException("No audio sample buffer has been specified.");
+        
+        dst.mix(this);
+        return this;
+    }
     
     public final AudioSampleBuffer<T> scale(double scale)
     {
@@ -375,9 +560,9 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
         if (!this.hasRemaining())
             throw new BufferOverflowException();
 
-        final T sample = this.getSample(this.samples, this.index);
+        final T sample = this.getSample(this.index);
         final T scaledSample = this.scaleSample(sample, scale);
-        this.putSample(this.samples, this.index, scaledSample);
+        this.putSample(this.index, scaledSample);
         this.index++;
         return this;
     }
@@ -389,12 +574,124 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
         if (this.isClosed)
             throw new IllegalStateException("This audio sample buffer has been closed.");
 
-        this.scaleSamples(this.samples, this.index, this.limit, scale);
+        this.scaleSamples(this.index, this.limit - this.index, scale);
         this.index = this.limit;
         return this;
     }
     
-    protected abstract void scaleSamples(IAudioSamples samples, int index, int length, double scale);
+    /**
+     * Scales the given number of samples (per channel), starting at the current
+     * position, in a single pass. 
+     * @param length the number of samples (per channel) to scale
+     * @param scale the scaling factor
+     * @return this audio buffer
+     */
+    public final AudioSampleBuffer<T> scaleRange(int length, double scale)
+    {
+        if (length < 0)
+            throw new IllegalArgumentException("The specified length cannot be smaller than zero.");
+        
+        final int numOfSamples = length * this.channels;
+        final int index = this.advance(numOfSamples, true);
+        this.scaleSamples(index, numOfSamples, scale);
+        return this;
+    }
+    
+    protected abstract void scaleSamples(int index, int length, double scale);
+    
+    /**
+     * Scales the remaining samples of this buffer with a gain per channel, in
+     * a single interleaved pass.
+     * @param gains the gain of each channel, indexed by channel
+     * @return this audio buffer
+     */
+    public final AudioSampleBuffer<T> scaleChannels(double[] gains)
+    {
+        if (this.isClosed)
+            throw new IllegalStateException("This audio sample buffer has been closed.");
+        if (gains == null)
+            throw new IllegalArgumentException("No channel gains have been specified.");
+        if (gains.length != this.channels)
+            throw new IllegalArgumentException("The number of channel gains does not match the number of channels.");
+        
+        this.scaleChannelSamples(this.index, this.limit - this.index, gains);
+        this.index = this.limit;
+        return this;
+    }
+    
+    /**
+     * Scales the given number of samples, starting at the given index, with 
+     * the gain of the channel each sample belongs to.
+     */
+    protected abstract void scaleChannelSamples(int index, int length, double[] gains);
+    
+    /**
+     * Scales the remaining samples of this buffer with the product of a gain 
+     * per sample frame and a gain per channel, in a single interleaved pass.
+     * The current position must be at the start of a sample frame.
+     * @param frameGains the gain of each remaining sample frame, indexed from
+     * the current position
+     * @param channelGains the gain of each channel, indexed by channel
+     * @return this audio buffer
+     */
+    public final AudioSampleBuffer<T> scaleFrames(double[] frameGains, double[] channelGains)
+    {
+        if (this.isClosed)
+            throw new IllegalStateException("This audio sample buffer has been closed.");
+        if (frameGains == null)
+            throw new IllegalArgumentException("No frame gains have been specified.");
+        if (channelGains == null)
+            throw new IllegalArgumentException("No channel gains have been specified.");
+        if (channelGains.length != this.channels)
+            throw new IllegalArgumentException("The number of channel gains does not match the number of channels.");
+        if (this.index % this.channels != 0)
+            throw new IllegalStateException("The position of this audio sample buffer is not at the start of a sample frame.");
+        
+        final int frames = (this.limit - this.index) / this.channels;
+        if (frameGains.length < frames)
+            throw new IllegalArgumentException("The number of frame gains is smaller than the number of remaining samples.");
+        
+        this.scaleFrameSamples(this.index, frames, frameGains, channelGains);
+        this.index = this.limit;
+        return this;
+    }
+    
+    /**
+     * Scales the given number of sample frames, starting at the given index, 
+     * with the product of the gain of each frame and the gain of each channel.
+     */
+    protected abstract void scaleFrameSamples(int index, int frames, double[] frameGains, double[] channelGains);
+    
+    /**
+     * Scales the given number of samples (per channel), starting at the current
+     * position, with a gain that ramps linearly from the start gain towards 
+     * the end gain. 
+     * The gain is computed once per sample frame and applied to every channel
+     * of that frame; the last frame is scaled with the gain just before the 
+     * end gain, so that consecutive ramps join seamlessly.
+     * @param length the number of samples (per channel) to scale
+     * @param startGain the gain of the first sample frame
+     * @param endGain the gain of the sample frame following the last one
+     * @return this audio buffer
+     */
+    public final AudioSampleBuffer<T> scaleRamp(int length, double startGain, double endGain)
+    {
+        if (length < 0)
+            throw new IllegalArgumentException("The specified length cannot be smaller than zero.");
+        if (length == 0)
+            return this;
+        
+        final int index = this.advance(length * this.channels, true);
+        this.rampSamples(index, length, startGain, (endGain - startGain) / length);
+        return this;
+    }
+    
+    /**
+     * Scales the given number of sample frames, starting at the given index, 
+     * with a gain that starts at the given value and changes by the given step
+     * after each frame.
+     */
+    protected abstract void rampSamples(int index, int frames, double gain, double step);
 
     public final AudioSampleBuffer<T> silence() 
     {
@@ -403,7 +700,7 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
         if (!this.hasRemaining())
             throw new BufferOverflowException();
         
-        this.putSample(this.samples, this.index, this.getSilentSample());
+        this.putSample(this.index, this.getSilentSample());
         this.index++;
         return this;
     }
@@ -416,7 +713,7 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
             throw new IllegalStateException("This audio sample buffer has been closed.");
 
         if (this.hasRemaining()) {
-            this.fillSamples(this.samples, this.index, this.limit, this.getSilentSample());
+            this.fillSamples(this.index, this.limit - this.index, this.getSilentSample());
             this.index = this.limit;
         }
         return this;
@@ -430,14 +727,50 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
             throw new IllegalArgumentException("No sample has been specified.");
         
         if (this.hasRemaining()) {
-            this.fillSamples(this.samples, this.index, this.limit, sample);
+            this.fillSamples(this.index, this.limit - this.index, sample);
             this.index = this.limit;
         }
         return this; 
     }
     
-    protected abstract void fillSamples(IAudioSamples samples, int index, int length, T sample);
+    protected abstract void fillSamples(int index, int length, T sample);
 
+    /**
+     * Reserves the given number of samples, starting at the current index, for
+     * a relative bulk operation and advances the current index past them.
+     * @param length the number of samples (not per channel) to reserve
+     * @param write whether the samples are reserved for writing or reading
+     * @return the index of the first reserved sample
+     */
+    protected final int advance(final int length, final boolean write)
+    {
+        if (this.isClosed)
+            throw new IllegalStateException("This audio sample buffer has been closed.");
+        if ((this.limit - this.index) < length) {
+            if (write)
+                throw new BufferOverflowException();
+            throw new BufferUnderflowException();
+        }
+        
+        final int startIndex = this.index;
+        this.index += length;
+        return startIndex;
+    }
+    
+    /**
+     * Validates the offset and length of a bulk transfer to or from an array.
+     * @param size the length of the array to transfer to or from
+     * @param offset the offset within the array
+     * @param length the number of elements to transfer
+     */
+    protected static void checkBounds(final int size, final int offset, final int length)
+    {
+        if (offset < 0 || offset > size)
+            throw new IndexOutOfBoundsException("Index: "+offset+"; Size: "+size);
+        if (length < 0 || (offset + length) > size)
+            throw new IndexOutOfBoundsException("Index: "+(offset + length)+"; Size: "+size);
+    }
+    
     /**
      * Rewinds this audio buffer.
      * The sample and channel positions are set to zero. 
@@ -491,10 +824,30 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
         return this;
     }
     
+    /**
+     * Resets this audio buffer to hold the given number of samples with the 
+     * given time stamp, and clears it.
+     * This allows to reuse a single audio buffer, and its underlying samples,
+     * for every block of a stream. The contents of the buffer are undefined.
+     * @param numOfSamples the number of samples (per channel), which cannot 
+     * exceed the number of samples the underlying samples can hold
+     * @param ptsInSamples the time stamp, in samples
+     * @return this audio buffer
+     */
+    public final AudioSampleBuffer<T> reset(final int numOfSamples, final long ptsInSamples)
+    {
+        if (this.isClosed)
+            throw new IllegalStateException("This audio sample buffer has been closed.");
+        
+        Audio.resetSamples(this.samples, numOfSamples, ptsInSamples);
+        return this.clear();
+    }
+    
     /**
      * Closes this audio buffer.
      * This method has to be called if, and only if, this buffer is direct in 
-     * order to release its unmanaged resources.
+     * order to release its unmanaged resources. Allocated buffers return their 
+     * samples to the pool they were drawn from.
      * <p>
      * Any subsequent method call after this audio buffer has been closed will 
      * throw an {@link java.lang.IllegalStateException}.
@@ -507,7 +860,10 @@ public abstract class AudioSampleBuffer<T extends Number & Comparable<T>>
             return;
         
         this.clear();
-        this.samples.delete();
+        if (this.pool != null)
+            this.pool.release(this.samples);
+        else
+            this.samples.delete();
         this.isClosed = true;
     }
 }
\ No newline at end of file
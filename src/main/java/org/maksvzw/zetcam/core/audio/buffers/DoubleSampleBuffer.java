@@ -19,6 +19,7 @@
 package org.maksvzw.zetcam.core.audio.buffers;
 
 import com.xuggle.xuggler.IAudioSamples;
+import java.nio.DoubleBuffer;
 import org.maksvzw.zetcam.infrastructure.Maths;
 
 /**
@@ -31,85 +32,158 @@ public class DoubleSampleBuffer extends AudioSampleBuffer<Double>
     private static final double MIDDLE = 0.0;
     private static final double MINIMUM = -1.0;
     
-    private final double[] tempBuf;
-    private double[] mixBuf;
+    private final DoubleBuffer view;
     
     protected DoubleSampleBuffer(IAudioSamples samples) 
     {
         super(samples);
-        this.tempBuf = new double[64];
+        this.view = this.getByteBuffer().asDoubleBuffer();
     }
     
-    @Override
-    protected Double getSample(IAudioSamples samples, int index) 
+    /**
+     * Reads samples, starting at the current position, into the given array
+     * without converting them.
+     * <p>
+     * The length is expressed in samples and not in samples per channel.
+     * </p>
+     * @param dst the array to which samples are to be written
+     * @param offset the offset within the array of the first sample to write
+     * @param length the number of samples to read
+     * @return this audio buffer
+     */
+    public final DoubleSampleBuffer getDoubles(final double[] dst, final int offset, final int length)
+    {
+        if (dst == null)
+            throw new IllegalArgumentException("No array has been specified.");
+        checkBounds(dst.length, offset, length);
+        
+        final int index = this.advance(length, false);
+        for(int i = 0; i < length; i++)
+            dst[offset + i] = this.view.get(index + i);
+        return this;
+    }
+    
+    /**
+     * Writes samples from the given array into this buffer, starting at the 
+     * current position, without converting them.
+     * <p>
+     * The length is expressed in samples and not in samples per channel.
+     * </p>
+     * @param src the array from which samples are to be read
+     * @param offset the offset within the array of the first sample to read
+     * @param length the number of samples to write
+     * @return this audio buffer
+     */
+    public final DoubleSampleBuffer putDoubles(final double[] src, final int offset, final int length)
     {
-        samples.get(index, this.tempBuf, 0, 1);
-        return this.tempBuf[0];
+        if (src == null)
+            throw new IllegalArgumentException("No array has been specified.");
+        checkBounds(src.length, offset, length);
+        
+        final int index = this.advance(length, true);
+        for(int i = 0; i < length; i++)
+            this.view.put(index + i, src[offset + i]);
+        return this;
+    }
+    
+    @Override
+    protected Double getSample(int index) {
+        return this.view.get(index);
     }
 
     @Override
-    protected void putSample(IAudioSamples samples, int index, Double sample) 
+    protected void putSample(int index, Double sample) {
+        this.view.put(index, sample);
+    }
+    
+    @Override
+    protected void getFloatSamples(int index, float[] dst, int offset, int length) 
     {
-        this.tempBuf[0] = sample;
-        samples.put(this.tempBuf, 0, index, 1);
+        for(int i = 0; i < length; i++)
+            dst[offset + i] = (float)this.view.get(index + i);
     }
     
     @Override
-    protected void copySamples(IAudioSamples src, int srcIndex, IAudioSamples dst, int dstIndex, int length) 
+    protected void putFloatSamples(int index, float[] src, int offset, int length) 
     {
-        int tempLength;
-        while(length > 0) {
-            tempLength = Math.min(this.tempBuf.length, length);
-            src.get(srcIndex, this.tempBuf, 0, tempLength);
-            dst.put(this.tempBuf, 0, dstIndex, tempLength);
-            srcIndex += tempLength;
-            dstIndex += tempLength;
-            length -= tempLength;
-        }
+        for(int i = 0; i < length; i++)
+            this.view.put(index + i, Maths.clamp(src[offset + i], MINIMUM, MAXIMUM));
+    }
+    
+    @Override
+    protected void putFloatSamples(int index, FloatSampleBuffer src, int srcIndex, int length) 
+    {
+        for(int i = 0; i < length; i++)
+            this.view.put(index + i, Maths.clamp(src.getFloat(srcIndex + i), MINIMUM, MAXIMUM));
     }
 
     @Override
     protected Double mixSample(Double sample, Double sample2) {
-        return Maths.clamp(sample + sample2, MINIMUM, MAXIMUM);
+        return mix(sample, sample2);
+    }
+    
+    /* Double precision samples are processed with headroom, like single 
+    precision samples; clipping is deferred to the final conversion. */
+    private static double mix(double sample, double sample2) {
+        return sample + sample2;
     }
     
     @Override
-    protected final void mixSamples(IAudioSamples src, int srcIndex, IAudioSamples dst, int dstIndex, int length) 
+    protected final void mixSamples(AudioSampleBuffer<Double> src, int srcIndex, int dstIndex, int length) 
     {
-        if (this.mixBuf == null)
-            this.mixBuf = new double[this.tempBuf.length];
-        
-        int tempLength;
-        while(length > 0) {
-            tempLength = Math.min(this.tempBuf.length, length);
-            src.get(srcIndex, this.tempBuf, 0, tempLength);
-            dst.get(srcIndex, this.mixBuf, 0, tempLength);
-            for(int i = 0; i < tempLength; i++) 
-                this.mixBuf[i] = this.mixSample(this.tempBuf[i], this.mixBuf[i]);
-            dst.put(this.mixBuf, 0, dstIndex, tempLength);
-            srcIndex += tempLength;
-            dstIndex += tempLength;
-            length -= tempLength;
-        }
+        final DoubleBuffer srcView = ((DoubleSampleBuffer)src).view;
+        for(int i = 0; i < length; i++) 
+            this.view.put(dstIndex + i, mix(srcView.get(srcIndex + i), this.view.get(dstIndex + i)));
     }
 
     @Override
     protected Double scaleSample(Double sample, double scale) {
-        return Maths.clamp(sample * scale, MINIMUM, MAXIMUM);
+        return scale(sample, scale);
+    }
+    
+    private static double scale(double sample, double scale) {
+        return sample * scale;
+    }
+    
+    @Override
+    protected void scaleSamples(int index, int length, double scale) 
+    {
+        final int end = index + length;
+        for(int i = index; i < end; i++)
+            this.view.put(i, scale(this.view.get(i), scale));
     }
     
     @Override
-    protected void scaleSamples(IAudioSamples samples, int index, int length, double scale) 
+    protected void scaleChannelSamples(int index, int length, double[] gains) 
     {
-        int tempLength;
-        while(length > 0) {
-            tempLength = Math.min(length, this.tempBuf.length);
-            samples.get(index, this.tempBuf, 0, tempLength);
-            for(int i = 0; i < tempLength; i++)
-                this.tempBuf[i] = this.scaleSample(this.tempBuf[i], scale);
-            samples.put(this.tempBuf, 0, index, tempLength);
-            length -= tempLength;
-            index += tempLength;
+        final int end = index + length;
+        int c = index % gains.length;
+        for(int i = index; i < end; i++) {
+            this.view.put(i, scale(this.view.get(i), gains[c]));
+            if (++c == gains.length)
+                c = 0;
+        }
+    }
+    
+    @Override
+    protected void scaleFrameSamples(int index, int frames, double[] frameGains, double[] channelGains) 
+    {
+        final int channels = channelGains.length;
+        double gain;
+        for(int f = 0; f < frames; f++) {
+            gain = frameGains[f];
+            for(int c = 0; c < channels; c++, index++)
+                this.view.put(index, scale(this.view.get(index), gain * channelGains[c]));
+        }
+    }
+    
+    @Override
+    protected void rampSamples(int index, int frames, double gain, double step) 
+    {
+        final int channels = this.channels();
+        for(int f = 0; f < frames; f++, gain += step) {
+            for(int c = 0; c < channels; c++, index++)
+                this.view.put(index, scale(this.view.get(index), gain));
         }
     }
 
@@ -119,17 +193,11 @@ public class DoubleSampleBuffer extends AudioSampleBuffer<Double>
     }
     
     @Override
-    protected final void fillSamples(IAudioSamples samples, int index, int length, Double sample) 
+    protected final void fillSamples(int index, int length, Double sample) 
     {
-        int tempLength;
-        while(length > 0) {
-            tempLength = Math.min(length, this.tempBuf.length);
-            samples.get(index, this.tempBuf, 0, tempLength);
-            for(int i = 0; i < tempLength; i++)
-                this.tempBuf[i] = sample;
-            samples.put(this.tempBuf, 0, index, tempLength);
-            length -= tempLength;
-            index += tempLength;
-        }
+        final double value = sample;
+        final int end = index + length;
+        for(int i = index; i < end; i++)
+            this.view.put(i, value);
     }
 }
\ No newline at end of file
@@ -19,6 +19,7 @@
 package org.maksvzw.zetcam.core.audio.buffers;
 
 import com.xuggle.xuggler.IAudioSamples;
+import java.nio.FloatBuffer;
 import org.maksvzw.zetcam.infrastructure.Maths;
 
 /**
@@ -31,85 +32,122 @@ public final class FloatSampleBuffer extends AudioSampleBuffer<Float>
     private static final float MIDDLE = 0.0f;
     private static final float MINIMUM = -1.0f;
     
-    private final float[] tempBuf;
-    private float[] mixBuf;
+    private final FloatBuffer view;
     
     protected FloatSampleBuffer(IAudioSamples samples) 
     {
         super(samples);
-        this.tempBuf = new float[128];
+        this.view = this.getByteBuffer().asFloatBuffer();
     }
 
     @Override
-    protected Float getSample(IAudioSamples samples, int index) 
-    {
-        samples.get(index, this.tempBuf, 0, 1);
-        return this.tempBuf[0];
+    protected Float getSample(int index) {
+        return this.view.get(index);
     }
 
     @Override
-    protected void putSample(IAudioSamples samples, int index, Float sample) 
+    protected void putSample(int index, Float sample) {
+        this.view.put(index, sample);
+    }
+    
+    @Override
+    protected void getFloatSamples(int index, float[] dst, int offset, int length) 
     {
-        this.tempBuf[0] = sample;
-        samples.put(this.tempBuf, 0, index, 1);
+        for(int i = 0; i < length; i++)
+            dst[offset + i] = this.view.get(index + i);
     }
-
+    
     @Override
-    protected void copySamples(IAudioSamples src, int srcIndex, IAudioSamples dst, int dstIndex, int length) 
+    protected void putFloatSamples(int index, float[] src, int offset, int length) 
     {
-        int tempLength;
-        while(length > 0) {
-            tempLength = Math.min(this.tempBuf.length, length);
-            src.get(srcIndex, this.tempBuf, 0, tempLength);
-            dst.put(this.tempBuf, 0, dstIndex, tempLength);
-            srcIndex += tempLength;
-            dstIndex += tempLength;
-            length -= tempLength;
-        }
+        for(int i = 0; i < length; i++)
+            this.view.put(index + i, Maths.clamp(src[offset + i], MINIMUM, MAXIMUM));
+    }
+    
+    @Override
+    protected void putFloatSamples(int index, FloatSampleBuffer src, int srcIndex, int length) 
+    {
+        for(int i = 0; i < length; i++)
+            this.view.put(index + i, Maths.clamp(src.view.get(srcIndex + i), MINIMUM, MAXIMUM));
+    }
+    
+    /**
+     * Gets the sample at the given index, without boxing it.
+     * @param index the index of the sample
+     * @return the sample
+     */
+    final float getFloat(int index) {
+        return this.view.get(index);
     }
     
     @Override
     protected Float mixSample(Float sample, Float sample2) {
-        return Maths.clamp(sample + sample2, MINIMUM, MAXIMUM);
+        return mix(sample, sample2);
+    }
+    
+    /* Floating point samples are the processing format of the pipeline and 
+    leave plenty of headroom above full scale, so mixing and scaling do not 
+    clip; clipping is deferred to the final conversion to the output format. */
+    private static float mix(float sample, float sample2) {
+        return sample + sample2;
     }
     
     @Override
-    protected final void mixSamples(IAudioSamples src, int srcIndex, IAudioSamples dst, int dstIndex, int length) 
+    protected final void mixSamples(AudioSampleBuffer<Float> src, int srcIndex, int dstIndex, int length) 
     {
-        if (this.mixBuf == null)
-            this.mixBuf = new float[this.tempBuf.length];
-        
-        int tempLength;
-        while(length > 0) {
-            tempLength = Math.min(this.tempBuf.length, length);
-            src.get(srcIndex, this.tempBuf, 0, tempLength);
-            dst.get(srcIndex, this.mixBuf, 0, tempLength);
-            for(int i = 0; i < tempLength; i++) 
-                this.mixBuf[i] = this.mixSample(this.tempBuf[i], this.mixBuf[i]);
-            dst.put(this.mixBuf, 0, dstIndex, tempLength);
-            srcIndex += tempLength;
-            dstIndex += tempLength;
-            length -= tempLength;
-        }
+        final FloatBuffer srcView = ((FloatSampleBuffer)src).view;
+        for(int i = 0; i < length; i++) 
+            this.view.put(dstIndex + i, mix(srcView.get(srcIndex + i), this.view.get(dstIndex + i)));
     }
 
     @Override
     protected Float scaleSample(Float sample, double scale) {
-        return Maths.clamp((float)(sample * scale), MINIMUM, MAXIMUM);
+        return scale(sample, scale);
+    }
+    
+    private static float scale(float sample, double scale) {
+        return (float)(sample * scale);
+    }
+    
+    @Override
+    protected void scaleSamples(int index, int length, double scale) 
+    {
+        final int end = index + length;
+        for(int i = index; i < end; i++)
+            this.view.put(i, scale(this.view.get(i), scale));
+    }
+    
+    @Override
+    protected void scaleChannelSamples(int index, int length, double[] gains) 
+    {
+        final int end = index + length;
+        int c = index % gains.length;
+        for(int i = index; i < end; i++) {
+            this.view.put(i, scale(this.view.get(i), gains[c]));
+            if (++c == gains.length)
+                c = 0;
+        }
+    }
+    
+    @Override
+    protected void scaleFrameSamples(int index, int frames, double[] frameGains, double[] channelGains) 
+    {
+        final int channels = channelGains.length;
+        double gain;
+        for(int f = 0; f < frames; f++) {
+            gain = frameGains[f];
+            for(int c = 0; c < channels; c++, index++)
+                this.view.put(index, scale(this.view.get(index), gain * channelGains[c]));
+        }
     }
     
     @Override
-    protected void scaleSamples(IAudioSamples samples, int index, int length, double scale) 
+    protected void rampSamples(int index, int frames, double gain, double step) 
     {
-        int tempLength;
-        while(length > 0) {
-            tempLength = Math.min(length, this.tempBuf.length);
-            samples.get(index, this.tempBuf, 0, tempLength);
-            for(int i = 0; i < tempLength; i++)
-                this.tempBuf[i] = this.scaleSample(this.tempBuf[i], scale);
-            samples.put(this.tempBuf, 0, index, tempLength);
-            length -= tempLength;
-            index += tempLength;
+        final int channels = this.channels();
+        for(int f = 0; f < frames; f++, gain += step) {
+            for(int c = 0; c < channels; c++, index++)
+                this.view.put(index, scale(this.view.get(index), gain));
         }
     }
 
@@ -119,17 +157,11 @@ public final class FloatSampleBuffer extends AudioSampleBuffer<Float>
     }
     
     @Override
-    protected final void fillSamples(IAudioSamples samples, int index, int length, Float sample) 
+    protected final void fillSamples(int index, int length, Float sample) 
     {
-        int tempLength;
-        while(length > 0) {
-            tempLength = Math.min(length, this.tempBuf.length);
-            samples.get(index, this.tempBuf, 0, tempLength);
-            for(int i = 0; i < tempLength; i++)
-                this.tempBuf[i] = sample;
-            samples.put(this.tempBuf, 0, index, tempLength);
-            length -= tempLength;
-            index += tempLength;
-        }
+        final float value = sample;
+        final int end = index + length;
+        for(int i = index; i < end; i++)
+            this.view.put(i, value);
     }
 }
\ No newline at end of file
@@ -30,23 +30,30 @@ public final class Int16SampleBuffer extends ShortSampleBuffer
     private static final int MAXIMUM = 32767;
     private static final int MIDDLE = 0;
     private static final int MINIMUM = -32768;
+    private static final float SCALE = 32768.0f;
     
     protected Int16SampleBuffer(IAudioSamples samples) {
         super(samples);
     }
 
     @Override
-    protected Short mixSample(Short sample, Short sample2) 
-    {
-        final int mixedSample = Maths.clamp(sample + sample2, MINIMUM, MAXIMUM);
-        return (short)mixedSample;
+    protected short mix(short sample, short sample2) {
+        return (short)Maths.clamp(sample + sample2, MINIMUM, MAXIMUM);
     }
 
     @Override
-    protected Short scaleSample(Short sample, double scale) 
-    {
-        final int scaledSample = Maths.clamp((int)(sample * scale), MINIMUM, MAXIMUM);
-        return (short)scaledSample;
+    protected short scale(short sample, double scale) {
+        return (short)Maths.clamp((int)(sample * scale), MINIMUM, MAXIMUM);
+    }
+    
+    @Override
+    protected float toFloat(short sample) {
+        return sample / SCALE;
+    }
+    
+    @Override
+    protected short fromFloat(float sample) {
+        return (short)Maths.clamp(Math.round(sample * SCALE), MINIMUM, MAXIMUM);
     }
 
     @Override
@@ -30,23 +30,30 @@ public class Int32SampleBuffer extends IntegerSampleBuffer
     private static final long MAXIMUM = 2147483647;
     private static final long MIDDLE = 0;
     private static final long MINIMUM = -2147483648;
+    private static final double SCALE = 2147483648.0;
     
     protected Int32SampleBuffer(IAudioSamples samples) {
         super(samples);
     }
 
     @Override
-    protected Integer mixSample(Integer sample, Integer sample2)
-    {
-        final long mixedSample = Maths.clamp((long)sample + sample2, MINIMUM, MAXIMUM);
-        return (int)mixedSample;
+    protected int mix(int sample, int sample2) {
+        return (int)Maths.clamp((long)sample + sample2, MINIMUM, MAXIMUM);
     }
 
     @Override
-    protected Integer scaleSample(Integer sample, double scale) 
-    {
-        final long scaledSample = Maths.clamp((long)(sample * scale), MINIMUM, MAXIMUM);
-        return (int)scaledSample;
+    protected int scale(int sample, double scale) {
+        return (int)Maths.clamp((long)(sample * scale), MINIMUM, MAXIMUM);
+    }
+    
+    @Override
+    protected float toFloat(int sample) {
+        return (float)(sample / SCALE);
+    }
+    
+    @Override
+    protected int fromFloat(float sample) {
+        return (int)Maths.clamp(Math.round(sample * SCALE), MINIMUM, MAXIMUM);
     }
 
     @Override
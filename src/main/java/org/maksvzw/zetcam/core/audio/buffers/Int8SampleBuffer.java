@@ -30,23 +30,30 @@ public final class Int8SampleBuffer extends ByteSampleBuffer
     private static final int MAXIMUM = 127;
     private static final int MIDDLE = 0;
     private static final int MINIMUM = -128;
+    private static final float SCALE = 128.0f;
     
     protected Int8SampleBuffer(IAudioSamples samples) {
         super(samples);
     }
 
     @Override
-    protected Byte mixSample(Byte sample, Byte sample2)
-    {
-        final int mixedSample = Maths.clamp((int)sample + sample2, MINIMUM, MAXIMUM);
-        return (byte)mixedSample;
+    protected byte mix(byte sample, byte sample2) {
+        return (byte)Maths.clamp(sample + sample2, MINIMUM, MAXIMUM);
     }
 
     @Override
-    protected Byte scaleSample(Byte sample, double scale) 
-    {
-        final int scaledSample = Maths.clamp((int)(sample * scale), MINIMUM, MAXIMUM);
-        return (byte)scaledSample;
+    protected byte scale(byte sample, double scale) {
+        return (byte)Maths.clamp((int)(sample * scale), MINIMUM, MAXIMUM);
+    }
+    
+    @Override
+    protected float toFloat(byte sample) {
+        return sample / SCALE;
+    }
+    
+    @Override
+    protected byte fromFloat(float sample) {
+        return (byte)Maths.clamp(Math.round(sample * SCALE), MINIMUM, MAXIMUM);
     }
 
     @Override
@@ -19,6 +19,7 @@
 package org.maksvzw.zetcam.core.audio.buffers;
 
 import com.xuggle.xuggler.IAudioSamples;
+import java.nio.IntBuffer;
 
 /**
  *
@@ -26,90 +27,191 @@ import com.xuggle.xuggler.IAudioSamples;
  */
 public abstract class IntegerSampleBuffer extends AudioSampleBuffer<Integer>
 {
-    private final int[] tempBuf;
-    private int[] mixBuf;
+    private final IntBuffer view;
     
-    protected IntegerSampleBuffer(IAudioSamples samples) 
+    protected IntegerSampleBuffer(IAudioSamples samples)
     {
         super(samples);
-        this.tempBuf = new int[128];
+        this.view = this.getByteBuffer().asIntBuffer();
     }
     
-    @Override
-    protected final Integer getSample(IAudioSamples samples, int index) 
+    /**
+     * Reads samples, starting at the current position, into the given array
+     * without converting them.
+     * <p>
+     * The length is expressed in samples and not in samples per channel.
+     * </p>
+     * @param dst the array to which samples are to be written
+     * @param offset the offset within the array of the first sample to write
+     * @param length the number of samples to read
+     * @return this audio buffer
+     */
+    public final IntegerSampleBuffer getInts(final int[] dst, final int offset, final int length)
+    {
+        if (dst == null)
+            throw new IllegalArgumentException("No array has been specified.");
+        checkBounds(dst.length, offset, length);
+        
+        final int index = this.advance(length, false);
+        for(int i = 0; i < length; i++)
+            dst[offset + i] = this.view.get(index + i);
+        return this;
+    }
+    
+    /**
+     * Writes samples from the given array into this buffer, starting at the 
+     * current position, without converting them.
+     * <p>
+     * The length is expressed in samples and not in samples per channel.
+     * </p>
+     * @param src the array from which samples are to be read
+     * @param offset the offset within the array of the first sample to read
+     * @param length the number of samples to write
+     * @return this audio buffer
+     */
+    public final IntegerSampleBuffer putInts(final int[] src, final int offset, final int length)
     {
-        samples.get(index, this.tempBuf, 0, 1);
-        return this.tempBuf[0];
+        if (src == null)
+            throw new IllegalArgumentException("No array has been specified.");
+        checkBounds(src.length, offset, length);
+        
+        final int index = this.advance(length, true);
+        for(int i = 0; i < length; i++)
+            this.view.put(index + i, src[offset + i]);
+        return this;
+    }
+    
+    @Override
+    protected final Integer getSample(int index) {
+        return this.view.get(index);
     }
 
     @Override
-    protected final void putSample(IAudioSamples samples, int index, Integer sample) 
+    protected final void putSample(int index, Integer sample) {
+        this.view.put(index, sample);
+    }
+    
+    @Override
+    protected final void getFloatSamples(int index, float[] dst, int offset, int length) 
     {
-        this.tempBuf[0] = sample;
-        samples.put(this.tempBuf, 0, index, 1);
+        for(int i = 0; i < length; i++)
+            dst[offset + i] = this.toFloat(this.view.get(index + i));
     }
     
     @Override
-    protected final void copySamples(IAudioSamples src, int srcIndex, IAudioSamples dst, int dstIndex, int length) 
+    protected final void putFloatSamples(int index, float[] src, int offset, int length) 
     {
-        int tempLength;
-        while(length > 0) {
-            tempLength = Math.min(this.tempBuf.length, length);
-            src.get(srcIndex, this.tempBuf, 0, tempLength);
-            dst.put(this.tempBuf, 0, dstIndex, tempLength);
-            srcIndex += tempLength;
-            dstIndex += tempLength;
-            length -= tempLength;
-        }
+        for(int i = 0; i < length; i++)
+            this.view.put(index + i, this.fromFloat(src[offset + i]));
     }
     
     @Override
-    protected final void mixSamples(IAudioSamples src, int srcIndex, IAudioSamples dst, int dstIndex, int length) 
+    protected final void putFloatSamples(int index, FloatSampleBuffer src, int srcIndex, int length) 
     {
-        if (this.mixBuf == null)
-            this.mixBuf = new int[this.tempBuf.length];
-        
-        int tempLength;
-        while(length > 0) {
-            tempLength = Math.min(this.tempBuf.length, length);
-            src.get(srcIndex, this.tempBuf, 0, tempLength);
-            dst.get(srcIndex, this.mixBuf, 0, tempLength);
-            for(int i = 0; i < tempLength; i++) 
-                this.mixBuf[i] = this.mixSample(this.tempBuf[i], this.mixBuf[i]);
-            dst.put(this.mixBuf, 0, dstIndex, tempLength);
-            srcIndex += tempLength;
-            dstIndex += tempLength;
-            length -= tempLength;
+        for(int i = 0; i < length; i++)
+            this.view.put(index + i, this.fromFloat(src.getFloat(srcIndex + i)));
+    }
+    
+    /**
+     * Converts the given sample to a normalized 32-bit floating point value.
+     * @param sample the sample to convert
+     * @return the sample in the range of -1.0 to 1.0
+     */
+    protected abstract float toFloat(int sample);
+    
+    /**
+     * Converts the given normalized 32-bit floating point value to a sample,
+     * clipping it to the dynamic range of the sample format.
+     * @param sample the normalized sample to convert
+     * @return the converted sample
+     */
+    protected abstract int fromFloat(float sample);
+    
+    @Override
+    protected final Integer mixSample(Integer sample, Integer sample2) {
+        return this.mix(sample, sample2);
+    }
+    
+    /**
+     * Mixes two samples, clipping the result to the dynamic range of the 
+     * sample format.
+     * @param sample the first sample
+     * @param sample2 the second sample
+     * @return the mixed sample
+     */
+    protected abstract int mix(int sample, int sample2);
+    
+    @Override
+    protected final void mixSamples(AudioSampleBuffer<Integer> src, int srcIndex, int dstIndex, int length) 
+    {
+        /* Both buffers are known to share the same sample format. */
+        final IntBuffer srcView = ((IntegerSampleBuffer)src).view;
+        for(int i = 0; i < length; i++) 
+            this.view.put(dstIndex + i, this.mix(srcView.get(srcIndex + i), this.view.get(dstIndex + i)));
+    }
+    
+    @Override
+    protected final Integer scaleSample(Integer sample, double scale) {
+        return this.scale(sample, scale);
+    }
+    
+    /**
+     * Scales a sample, clipping the result to the dynamic range of the sample
+     * format.
+     * @param sample the sample to scale
+     * @param scale the scaling factor
+     * @return the scaled sample
+     */
+    protected abstract int scale(int sample, double scale);
+    
+    @Override
+    protected final void scaleSamples(int index, int length, double scale) 
+    {
+        final int end = index + length;
+        for(int i = index; i < end; i++)
+            this.view.put(i, this.scale(this.view.get(i), scale));
+    }
+    
+    @Override
+    protected final void scaleChannelSamples(int index, int length, double[] gains) 
+    {
+        final int end = index + length;
+        int c = index % gains.length;
+        for(int i = index; i < end; i++) {
+            this.view.put(i, this.scale(this.view.get(i), gains[c]));
+            if (++c == gains.length)
+                c = 0;
         }
     }
     
     @Override
-    protected final void scaleSamples(IAudioSamples samples, int index, int length, double scale) 
+    protected final void scaleFrameSamples(int index, int frames, double[] frameGains, double[] channelGains) 
     {
-        int tempLength;
-        while(length > 0) {
-            tempLength = Math.min(length, this.tempBuf.length);
-            samples.get(index, this.tempBuf, 0, tempLength);
-            for(int i = 0; i < tempLength; i++)
-                this.tempBuf[i] = this.scaleSample(this.tempBuf[i], scale);
-            samples.put(this.tempBuf, 0, index, tempLength);
-            length -= tempLength;
-            index += tempLength;
+        final int channels = channelGains.length;
+        double gain;
+        for(int f = 0; f < frames; f++) {
+            gain = frameGains[f];
+            for(int c = 0; c < channels; c++, index++)
+                this.view.put(index, this.scale(this.view.get(index), gain * channelGains[c]));
         }
     }
     
     @Override
-    protected final void fillSamples(IAudioSamples samples, int index, int length, Integer sample) 
+    protected final void rampSamples(int index, int frames, double gain, double step) 
     {
-        int tempLength;
-        while(length > 0) {
-            tempLength = Math.min(length, this.tempBuf.length);
-            samples.get(index, this.tempBuf, 0, tempLength);
-            for(int i = 0; i < tempLength; i++)
-                this.tempBuf[i] = sample;
-            samples.put(this.tempBuf, 0, index, tempLength);
-            length -= tempLength;
-            index += tempLength;
+        final int channels = this.channels();
+        for(int f = 0; f < frames; f++, gain += step) {
+            for(int c = 0; c < channels; c++, index++)
+                this.view.put(index, this.scale(this.view.get(index), gain));
         }
     }
+    
+    @Override
+    protected final void fillSamples(int index, int length, Integer sample) 
+    {
+        final int value = sample;
+        final int end = index + length;
+        for(int i = index; i < end; i++)
+            this.view.put(i, value);
+    }
 }
\ No newline at end of file
@@ -27,34 +27,43 @@ import org.maksvzw.zetcam.infrastructure.Maths;
  */
 public class UInt16SampleBuffer extends ShortSampleBuffer
 {
-    private static final int MAXIMUM = 65536;
+    private static final int MAXIMUM = 65535;
     private static final int MIDDLE = 32768;
     private static final int MINIMUM = 0;
+    private static final float SCALE = 32768.0f;
     
     protected UInt16SampleBuffer(IAudioSamples samples) {
         super(samples);
     }
 
     @Override
-    protected Short mixSample(Short sample, Short sample2) 
+    protected short mix(short sample, short sample2) 
     {
         /* As explained elsewhere, we have to obtain the unsigned value of the 
         int16 and shift the range from 0..65535 to -32768..32767 since values 
         below the center point of 32768 should cancel out values above them. */
-        final int signedSample = (sample & 0xFF) - MIDDLE;
-        final int signedSample2 = (sample2 & 0xFF) - MIDDLE;
+        final int signedSample = (sample & 0xFFFF) - MIDDLE;
+        final int signedSample2 = (sample2 & 0xFFFF) - MIDDLE;
         /* Clips mixed value to ensure it stays within the dynamic range of 
         PCM U16 format. */
-        final int mixedSample = Maths.clamp((signedSample + signedSample2) + MIDDLE, MINIMUM, MAXIMUM);
-        return (short)mixedSample;
+        return (short)Maths.clamp((signedSample + signedSample2) + MIDDLE, MINIMUM, MAXIMUM);
     }
 
     @Override
-    protected Short scaleSample(Short sample, double scale) 
+    protected short scale(short sample, double scale) 
     {
-        final int signedSample = (sample & 0xFF) - MIDDLE;
-        final int scaledSample = Maths.clamp((int)(signedSample * scale) + MIDDLE, MINIMUM, MAXIMUM);
-        return (short)scaledSample;
+        final int signedSample = (sample & 0xFFFF) - MIDDLE;
+        return (short)Maths.clamp((int)(signedSample * scale) + MIDDLE, MINIMUM, MAXIMUM);
+    }
+    
+    @Override
+    protected float toFloat(short sample) {
+        return ((sample & 0xFFFF) - MIDDLE) / SCALE;
+    }
+    
+    @Override
+    protected short fromFloat(float sample) {
+        return (short)Maths.clamp(Math.round(sample * SCALE) + MIDDLE, MINIMUM, MAXIMUM);
     }
 
     @Override
@@ -30,32 +30,41 @@ public final class UInt32SampleBuffer extends IntegerSampleBuffer
     private static final long MAXIMUM = 4294967295L;
     private static final long MIDDLE = 2147483648L;
     private static final long MINIMUM = 0L;
+    private static final double SCALE = 2147483648.0;
     
     protected UInt32SampleBuffer(IAudioSamples samples) {
         super(samples);
     }
 
     @Override
-    protected Integer mixSample(Integer sample, Integer sample2)
+    protected int mix(int sample, int sample2)
     {
         /* As explained elsewhere, we have to obtain the unsigned value of the 
-        int16 and shift the range from 0..4294967295 to -2147483648..2147483647 
-        since values below the center point of 32768 should cancel out values 
-        above them. */
-        final long signedSample = (sample & 0xFFL) - MIDDLE;
-        final long signedSample2 = (sample2 & 0xFFL) - MIDDLE;
+        int32 and shift the range from 0..4294967295 to -2147483648..2147483647 
+        since values below the center point of 2147483648 should cancel out 
+        values above them. */
+        final long signedSample = (sample & 0xFFFFFFFFL) - MIDDLE;
+        final long signedSample2 = (sample2 & 0xFFFFFFFFL) - MIDDLE;
         /* Clips mixed value to ensure it stays within the dynamic range of 
         PCM U32 format. */
-        final long mixedSample = Maths.clamp((signedSample + signedSample2) + MIDDLE, MINIMUM, MAXIMUM);
-        return (int)mixedSample;
+        return (int)Maths.clamp((signedSample + signedSample2) + MIDDLE, MINIMUM, MAXIMUM);
     }
 
     @Override
-    protected Integer scaleSample(Integer sample, double scale)
+    protected int scale(int sample, double scale)
     {
-        final long signedSample = (sample & 0xFFL) - MIDDLE;
-        final long scaledSample = Maths.clamp((long)(signedSample * scale) + MIDDLE, MINIMUM, MAXIMUM);
-        return (int)scaledSample;
+        final long signedSample = (sample & 0xFFFFFFFFL) - MIDDLE;
+        return (int)Maths.clamp((long)(signedSample * scale) + MIDDLE, MINIMUM, MAXIMUM);
+    }
+    
+    @Override
+    protected float toFloat(int sample) {
+        return (float)(((sample & 0xFFFFFFFFL) - MIDDLE) / SCALE);
+    }
+    
+    @Override
+    protected int fromFloat(float sample) {
+        return (int)Maths.clamp(Math.round(sample * SCALE) + MIDDLE, MINIMUM, MAXIMUM);
     }
 
     @Override
@@ -30,13 +30,14 @@ public final class UInt8SampleBuffer extends ByteSampleBuffer
     private static final int MAXIMUM = 255;
     private static final int MIDDLE = 128;
     private static final int MINIMUM = 0;
+    private static final float SCALE = 128.0f;
     
     protected UInt8SampleBuffer(IAudioSamples samples) {
         super(samples);
     }
 
     @Override
-    protected Byte mixSample(Byte sample, Byte sample2) 
+    protected byte mix(byte sample, byte sample2) 
     {
         /* As explained elsewhere, we have to obtain the unsigned value of the 
         byte and shift the range from 0..255 to -128..127 since values below 
@@ -45,16 +46,24 @@ public final class UInt8SampleBuffer extends ByteSampleBuffer
         final int signedSample2 = (sample2 & 0xFF) - MIDDLE;
         /* Clips mixed value to ensure it stays within the dynamic range of 
         PCM U8 format. */
-        final int mixedSample = Maths.clamp((signedSample + signedSample2) + MIDDLE, MINIMUM, MAXIMUM);
-        return (byte)mixedSample;
+        return (byte)Maths.clamp((signedSample + signedSample2) + MIDDLE, MINIMUM, MAXIMUM);
     }
 
     @Override
-    protected Byte scaleSample(Byte sample, double scale) 
+    protected byte scale(byte sample, double scale) 
     {
         final int signedSample = (sample & 0xFF) - MIDDLE;
-        final int scaledSample = Maths.clamp((int)(signedSample * scale) + MIDDLE, MINIMUM, MAXIMUM);
-        return (byte)scaledSample;
+        return (byte)Maths.clamp((int)(signedSample * scale) + MIDDLE, MINIMUM, MAXIMUM);
+    }
+    
+    @Override
+    protected float toFloat(byte sample) {
+        return ((sample & 0xFF) - MIDDLE) / SCALE;
+    }
+    
+    @Override
+    protected byte fromFloat(float sample) {
+        return (byte)Maths.clamp(Math.round(sample * SCALE) + MIDDLE, MINIMUM, MAXIMUM);
     }
 
     @Override
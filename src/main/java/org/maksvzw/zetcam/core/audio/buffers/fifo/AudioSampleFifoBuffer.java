@@ -19,9 +19,13 @@
 package org.maksvzw.zetcam.core.audio.buffers.fifo;
 
 import com.xuggle.xuggler.IAudioSamples;
+import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import org.maksvzw.zetcam.core.audio.Audio;
 import org.maksvzw.zetcam.core.audio.AudioFormat;
+import org.maksvzw.zetcam.core.audio.AudioSamplesPool;
 
 /**
  *
@@ -38,12 +42,23 @@ public abstract class AudioSampleFifoBuffer<T extends Number & Comparable<T>>
         return allocate(audioFormat, numOfSamples, 0);
     }
     
+    /**
+     * Allocates an empty audio FIFO buffer of the given format and initial 
+     * size. 
+     * The underlying samples are drawn from the {@linkplain 
+     * AudioSamplesPool#getDefault() shared pool} and returned to it when the
+     * buffer grows or is closed.
+     * @param audioFormat the format of the audio FIFO buffer
+     * @param numOfSamples the initial capacity, in samples (per channel)
+     * @param ptsInSamples the time stamp, in samples
+     * @return the allocated audio FIFO buffer
+     */
     public static final AudioSampleFifoBuffer<? extends Number> allocate(
             final AudioFormat audioFormat, 
             final int numOfSamples, 
             final long ptsInSamples) 
     {
-        final IAudioSamples samples = Audio.allocateSamples(
+        final IAudioSamples samples = AudioSamplesPool.getDefault().acquire(
                 audioFormat, numOfSamples, ptsInSamples);
         
         switch(samples.getData().getType()) {
@@ -66,11 +81,30 @@ public abstract class AudioSampleFifoBuffer<T extends Number & Comparable<T>>
         }
     }
     
+    /* The number of consecutive reads after which a buffer that is mostly 
+    empty is shrunk. */
+    private static final int SHRINK_AFTER_READS = 64;
+    
     private final AudioFormat format;
+    private final int sampleSize;
+    private final int initialCapacity;
     private IAudioSamples samples;
+    private ByteBuffer data;
+    private FloatBuffer floatData;
+    /* The views of the audio samples that were last read into and written 
+    from, which are usually reused for every packet of a stream. */
+    private IAudioSamples dstSamples;
+    private ByteBuffer dstData;
+    private IAudioSamples srcSamples;
+    private ByteBuffer srcData;
     private long head;
     private long tail;
     private boolean isClosed;
+    private int maxCapacity;
+    private int lowWatermark;
+    private int highWatermark;
+    private AudioSampleFifoListener listener;
+    private int numOfIdleReads;
     
     protected AudioSampleFifoBuffer(AudioFormat format, IAudioSamples samples) 
     {
@@ -82,7 +116,13 @@ public abstract class AudioSampleFifoBuffer<T extends Number & Comparable<T>>
             throw new IllegalArgumentException("No valid audio samples have been specified.");
         
         this.format = format;
+        this.sampleSize = (int)(IAudioSamples.findSampleBitDepth(samples.getFormat()) / 8);
         this.samples = samples;
+        this.setData(Audio.getByteBuffer(samples));
+        this.initialCapacity = this.capacity();
+        this.maxCapacity = Integer.MAX_VALUE;
+        this.lowWatermark = -1;
+        this.highWatermark = Integer.MAX_VALUE;
         this.clear();
         this.isClosed = false;
     }
@@ -114,6 +154,74 @@ public abstract class AudioSampleFifoBuffer<T extends Number & Comparable<T>>
         return (int)this.samples.getNumSamples() - 1;
     }
     
+    /**
+     * Gets the maximum capacity this audio FIFO buffer can grow to, in 
+     * samples (per channel).
+     * @return the maximum capacity, in samples (per channel)
+     */
+    public final int getMaxCapacity() {
+        return this.maxCapacity;
+    }
+    
+    /**
+     * Sets the maximum capacity this audio FIFO buffer can grow to, in 
+     * samples (per channel). 
+     * Writes that do not fit within the maximum capacity are rejected with a
+     * {@link java.nio.BufferOverflowException}, so producers should check
+     * {@link #remainingCapacity()} or use the watermarks to apply 
+     * backpressure. A buffer that is larger than its maximum capacity is 
+     * shrunk once it has been drained sufficiently.
+     * @param maxCapacity the maximum capacity, in samples (per channel)
+     */
+    public final void setMaxCapacity(int maxCapacity) 
+    {
+        if (maxCapacity < this.initialCapacity)
+            throw new IllegalArgumentException("Invalid maximum capacity has been specified. The value cannot be smaller than the initial capacity.");
+        
+        this.maxCapacity = maxCapacity;
+    }
+    
+    /**
+     * Gets the number of samples (per channel) that can still be written 
+     * before the maximum capacity of this buffer is reached.
+     * @return the number of samples that can still be written
+     */
+    public final int remainingCapacity() {
+        return this.maxCapacity - this.delay();
+    }
+    
+    public final int getLowWatermark() {
+        return this.lowWatermark;
+    }
+    
+    public final int getHighWatermark() {
+        return this.highWatermark;
+    }
+    
+    /**
+     * Sets the watermarks of this audio FIFO buffer and the listener that is
+     * notified when they are crossed.
+     * @param lowWatermark the delay, in samples (per channel), at or below 
+     * which the listener is notified after a read
+     * @param highWatermark the delay, in samples (per channel), at or above
+     * which the listener is notified after a write
+     * @param listener the listener to notify, or null to remove the listener
+     */
+    public final void setWatermarks(
+            int lowWatermark, 
+            int highWatermark, 
+            AudioSampleFifoListener listener) 
+    {
+        if (lowWatermark < 0)
+            throw new IllegalArgumentException("Invalid low watermark has been specified. The value cannot be smaller than zero.");
+        if (highWatermark <= lowWatermark)
+            throw new IllegalArgumentException("Invalid high watermark has been specified. The value must be larger than the low watermark.");
+        
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.listener = listener;
+    }
+    
      /**
      * Gets the delay of this audio FIFO buffer, in samples (per channel).
      * If the delay is smaller than zero, this buffer resides in a state of 
@@ -152,13 +260,115 @@ public abstract class AudioSampleFifoBuffer<T extends Number & Comparable<T>>
                     dstLength = length * dst.getChannels(),
                     srcIndex = (int)(this.head % (this.capacity() * this.samples.getChannels()));
 
-            this.get(this.samples, srcIndex, dst, dstIndex, dstLength);
+            if (dst != this.dstSamples || this.dstData.capacity() < (dstIndex + dstLength) * this.sampleSize) {
+                this.dstSamples = dst;
+                this.dstData = Audio.getByteBuffer(dst);
+            }
+            
+            final int delay = this.delay();
+            this.read(srcIndex, this.dstData, dstIndex, dstLength);
             this.head += dstLength;
+            this.afterRead(delay);
         }
         return this;
     }
     
-    protected abstract void get(IAudioSamples src, int srcIndex, IAudioSamples dst, int dstIndex, int length);
+    /**
+     * Reads samples from this buffer, scales them by the given gain and adds 
+     * them to the values of the given accumulator, in a single pass.
+     * This buffer must hold samples in the {@linkplain 
+     * AudioFormat#toProcessingFormat() processing format}. The accumulator 
+     * holds interleaved samples and is not clipped, so that any number of 
+     * inputs can be mixed into it before it is converted to an output format.
+     * @param acc the accumulator to add the samples to, starting at its first
+     * element
+     * @param length the number of samples (per channel) to read
+     * @param gain the gain to scale the samples with
+     * @return this audio FIFO buffer
+     */
+    public final AudioSampleFifoBuffer<T> mixInto(float[] acc, int length, float gain) 
+    {
+        if (acc == null)
+            throw new IllegalArgumentException("No accumulator has been specified.");
+        if (!this.format.isProcessingFormat())
+            throw new UnsupportedOperationException("Only audio FIFO buffers of the processing format can be mixed.");
+        
+        final int channels = this.samples.getChannels();
+        if (length < 0 || length * channels > acc.length)
+            throw new IndexOutOfBoundsException("Index: "+length+"; Size: "+(acc.length / channels));
+        if (this.delay() < length)
+            throw new BufferUnderflowException();
+        
+        if (length > 0) {
+            final int ringLength = this.capacity() * channels;
+            final int srcIndex = (int)(this.head % ringLength), 
+                    srcLength = length * channels;
+            final int firstLength = Math.min(srcLength, ringLength - srcIndex);
+            
+            accumulate(this.floatData, srcIndex, acc, 0, firstLength, gain);
+            /* Wrap around if the end of this buffer has been reached. */
+            if (firstLength < srcLength)
+                accumulate(this.floatData, 0, acc, firstLength, srcLength - firstLength, gain);
+            
+            final int delay = this.delay();
+            this.head += srcLength;
+            this.afterRead(delay);
+        }
+        return this;
+    }
+    
+    /**
+     * Notifies the listener if a read has crossed the low watermark and 
+     * shrinks this buffer if it has been mostly empty for a while.
+     */
+    private void afterRead(int previousDelay) 
+    {
+        final int delay = this.delay();
+        if (this.listener != null && previousDelay > this.lowWatermark && delay <= this.lowWatermark)
+            this.listener.onLowWatermark(this);
+        
+        final int capacity = this.capacity();
+        if (capacity <= this.initialCapacity || delay > capacity / 4) {
+            this.numOfIdleReads = 0;
+            return;
+        }
+        
+        /* A burst may have grown this buffer far beyond what is needed in a 
+        steady state, so halve it once occupancy has remained low. Buffers 
+        that exceed their maximum capacity are shrunk to it right away, as 
+        far as the samples that have not been read allow. */
+        if (++this.numOfIdleReads >= SHRINK_AFTER_READS || capacity > this.maxCapacity) {
+            final int newCapacity = Math.max(this.initialCapacity, Math.max(delay * 2, capacity / 2));
+            this.resize(Math.max(delay, Math.min(this.maxCapacity, newCapacity)));
+            this.numOfIdleReads = 0;
+        }
+    }
+    
+    private static void accumulate(
+            final FloatBuffer src, final int srcIndex, 
+            final float[] acc, final int accIndex, 
+            final int length, final float gain) 
+    {
+        for(int i = 0; i < length; i++)
+            acc[accIndex + i] += src.get(srcIndex + i) * gain;
+    }
+    
+    /**
+     * Copies samples from this buffer into the given view, wrapping around the
+     * end of this buffer if needed. All indexes and the length are expressed 
+     * in samples and not in samples per channel.
+     */
+    private void read(int srcIndex, ByteBuffer dst, int dstIndex, int length) 
+    {
+        final int ringLength = this.capacity() * this.samples.getChannels();
+        final int firstLength = Math.min(length, ringLength - srcIndex);
+        this.copy(this.data, srcIndex, dst, dstIndex, firstLength);
+        
+        /* If we're at the end of this buffer and the read request has not yet
+        been satisfied, wrap around. */
+        if (firstLength < length)
+            this.copy(this.data, 0, dst, dstIndex + firstLength, length - firstLength);
+    }
     
     public final AudioSampleFifoBuffer<T> put(IAudioSamples src, int index, int length) 
     {
@@ -169,37 +379,106 @@ public abstract class AudioSampleFifoBuffer<T extends Number & Comparable<T>>
         index and length arguments are expected to be in samples per channel 
         as expected of all public interfaces so we have to convert them. */
         final int srcIndex = index * src.getChannels(), 
-                srcLength = length * src.getChannels(),
-                dstIndex = (int)(this.tail % (this.capacity() * this.samples.getChannels()));
+                srcLength = length * src.getChannels();
         
         final int delay = this.delay(), capacity = this.capacity();
         if ((delay + length) > capacity) {
+            if ((delay + length) > this.maxCapacity)
+                throw new BufferOverflowException();
+            
             /* Choose the size of new buffer. Either a standard doubling of the 
             size or a size large enough to satisfy the pending write, whichever 
-            is larger. */
-            final long numOfSamples = Math.max((capacity * 2) + 1, capacity + length + 1);
-            
-            /* Create larger buffer of samples. */
-            final IAudioSamples newSamples = Audio.allocateSamples(
-                    this.format, numOfSamples, 0);
-            
-            /* Copy remaining samples from this buffer to the new buffer. */
-            this.get(newSamples, 0, delay);
-            /* Release the old buffer. */
-            this.samples.delete();
-            /* Replace the old buffer with the new buffer. */
-            this.samples = newSamples;
-            /* Reset read and write counters. */
-            this.head = 0;
-            this.tail = delay * this.samples.getChannels();
+            is larger, but never more than the maximum capacity. */
+            this.resize((int)Math.min(
+                    Math.max(capacity * 2L, (long)capacity + length), 
+                    this.maxCapacity));
         }
 
-        this.put(this.samples, dstIndex, src, srcIndex, srcLength);
+        if (src != this.srcSamples || this.srcData.capacity() < (srcIndex + srcLength) * this.sampleSize) {
+            this.srcSamples = src;
+            this.srcData = Audio.getByteBuffer(src);
+        }
+        
+        final int dstIndex = (int)(this.tail % (this.capacity() * this.samples.getChannels()));
+        this.write(dstIndex, this.srcData, srcIndex, srcLength);
         this.tail += srcLength;
+        
+        if (this.listener != null && delay < this.highWatermark && (delay + length) >= this.highWatermark)
+            this.listener.onHighWatermark(this);
         return this;
     }
     
-    protected abstract void put(IAudioSamples dst, int dstIndex, IAudioSamples src, int srcIndex, int length);
+    /**
+     * Replaces the samples of this buffer with samples of the given capacity
+     * from the pool, keeping the samples that have not yet been read.
+     */
+    private void resize(int newCapacity) 
+    {
+        final int channels = this.samples.getChannels();
+        final int delay = this.delay();
+        
+        /* Take a buffer of samples of the new size from the pool. One extra 
+        sample is needed, since the capacity excludes it. */
+        final IAudioSamples newSamples = AudioSamplesPool.getDefault().acquire(
+                this.format, newCapacity + 1, 0);
+        final ByteBuffer newData = Audio.getByteBuffer(newSamples);
+        
+        /* Copy remaining samples from this buffer to the new buffer. */
+        if (delay > 0) {
+            final int srcIndex = (int)(this.head % (this.capacity() * channels));
+            this.read(srcIndex, newData, 0, delay * channels);
+        }
+        /* Return the old buffer to the pool. */
+        AudioSamplesPool.getDefault().release(this.samples);
+        /* Replace the old buffer with the new buffer. */
+        this.samples = newSamples;
+        this.setData(newData);
+        /* Reset read and write counters. */
+        this.head = 0;
+        this.tail = delay * channels;
+    }
+    
+    /**
+     * Replaces the view of the samples of this buffer, together with the 
+     * float view that is used for mixing, so that neither has to be created
+     * again until this buffer is resized.
+     */
+    private void setData(ByteBuffer data) 
+    {
+        this.data = data;
+        this.floatData = this.format.isProcessingFormat() ? data.asFloatBuffer() : null;
+    }
+    
+    /**
+     * Copies samples from the given view into this buffer, wrapping around the
+     * end of this buffer if needed. All indexes and the length are expressed 
+     * in samples and not in samples per channel.
+     */
+    private void write(int dstIndex, ByteBuffer src, int srcIndex, int length)
+    {
+        final int ringLength = this.capacity() * this.samples.getChannels();
+        final int firstLength = Math.min(length, ringLength - dstIndex);
+        this.copy(src, srcIndex, this.data, dstIndex, firstLength);
+        
+        /* If we're at the end of this buffer and the write request has not yet
+        been satisfied, wrap around. */
+        if (firstLength < length)
+            this.copy(src, srcIndex + firstLength, this.data, 0, length - firstLength);
+    }
+    
+    /**
+     * Copies samples between two direct views with a single bulk transfer.
+     */
+    private void copy(ByteBuffer src, int srcIndex, ByteBuffer dst, int dstIndex, int length) 
+    {
+        final ByteBuffer srcData = src.duplicate();
+        srcData.limit((srcIndex + length) * this.sampleSize);
+        srcData.position(srcIndex * this.sampleSize);
+        
+        final ByteBuffer dstData = dst.duplicate();
+        dstData.position(dstIndex * this.sampleSize);
+        dstData.put(srcData);
+    }
     
     private void checkAudioSamples(IAudioSamples samples, int index, int length) 
     {
@@ -243,7 +522,9 @@ public abstract class AudioSampleFifoBuffer<T extends Number & Comparable<T>>
             return; 
         
         this.clear();
-        this.samples.delete();
+        AudioSamplesPool.getDefault().release(this.samples);
+        this.dstSamples = this.srcSamples = null;
+        this.dstData = this.srcData = null;
         this.isClosed = true;
     }
 }
\ No newline at end of file
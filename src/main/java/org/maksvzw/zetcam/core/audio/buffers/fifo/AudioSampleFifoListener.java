@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio.buffers.fifo;
+
+/**
+ * This interface is notified when the number of samples held by an audio 
+ * FIFO buffer crosses one of its watermarks.
+ * <p>
+ * Callbacks are invoked on the thread that writes or reads the samples that 
+ * cause the watermark to be crossed, so that a producer can block or yield 
+ * once the buffer holds enough samples and be resumed once it has been 
+ * drained.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public interface AudioSampleFifoListener 
+{
+    /**
+     * Called when a write raises the delay of the buffer to or above its 
+     * high watermark.
+     * @param fifo the audio FIFO buffer
+     */
+    void onHighWatermark(AudioSampleFifoBuffer<?> fifo);
+    
+    /**
+     * Called when a read lowers the delay of the buffer to or below its low
+     * watermark.
+     * @param fifo the audio FIFO buffer
+     */
+    void onLowWatermark(AudioSampleFifoBuffer<?> fifo);
+}
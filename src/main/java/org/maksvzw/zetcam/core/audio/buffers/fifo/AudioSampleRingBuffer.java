@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio.buffers.fifo;
+
+import com.xuggle.xuggler.IAudioSamples;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.maksvzw.zetcam.core.audio.Audio;
+import org.maksvzw.zetcam.core.audio.AudioFormat;
+
+/**
+ * This class is a lock-free ring buffer of audio samples in the {@linkplain 
+ * AudioFormat#toProcessingFormat() processing format}, for exactly one 
+ * producer thread and one consumer thread.
+ * <p>
+ * The capacity is a power of two, so that positions are mapped to indexes by
+ * masking instead of a division. The producer publishes the tail only after 
+ * it has written the samples and the consumer publishes the head only after
+ * it has read them, with ordered writes that act as a release fence; reading
+ * the position of the other side acts as an acquire fence. Each side caches
+ * the last position it has seen of the other side, so that the shared 
+ * positions are only read when the buffer appears to be full or empty.
+ * </p><p>
+ * All methods that write samples may only be called by the producer and all
+ * methods that read samples may only be called by the consumer.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class AudioSampleRingBuffer 
+{
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    
+    private final AudioFormat format;
+    private final int channels;
+    private final float[] ring;
+    private final int mask;
+    
+    private final AtomicLong head;
+    private final AtomicLong tail;
+    /* Positions of the other side, as last seen by each side. */
+    private long cachedHead;
+    private long cachedTail;
+    
+    /**
+     * Creates a new ring buffer.
+     * @param audioFormat the format of the audio samples, of which only the 
+     * number of channels is used
+     * @param numOfSamples the minimum capacity, in samples (per channel), 
+     * which is rounded up to the nearest power of two
+     */
+    public AudioSampleRingBuffer(final AudioFormat audioFormat, final int numOfSamples) 
+    {
+        if (audioFormat == null)
+            throw new IllegalArgumentException("No audio format has been specified.");
+        if (numOfSamples <= 0 || numOfSamples > (1 << 30) / audioFormat.getChannels())
+            throw new IllegalArgumentException("The specified number of samples is out of range.");
+        
+        this.format = audioFormat.toProcessingFormat();
+        this.channels = audioFormat.getChannels();
+        
+        int capacity = Integer.highestOneBit(numOfSamples * this.channels);
+        if (capacity < numOfSamples * this.channels)
+            capacity <<= 1;
+        this.ring = new float[capacity];
+        this.mask = capacity - 1;
+        
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+    }
+    
+    /**
+     * Gets the audio format of this buffer.
+     * @return the audio format of this buffer
+     */
+    public AudioFormat getFormat() {
+        return this.format;
+    }
+    
+    /**
+     * Gets the capacity of this buffer, in samples (per channel).
+     * @return the capacity of this buffer, in samples (per channel)
+     */
+    public int capacity() {
+        return this.ring.length / this.channels;
+    }
+    
+    /**
+     * Gets the number of samples (per channel) that are available for 
+     * reading. This may be called by either side, but the value may be stale
+     * by the time it is returned.
+     * @return the number of samples available for reading
+     */
+    public int available() {
+        return (int)(this.tail.get() - this.head.get()) / this.channels;
+    }
+    
+    /**
+     * Gets the number of samples (per channel) that can be written without 
+     * overwriting samples that have not yet been read.
+     * @return the number of samples available for writing
+     */
+    public int remainingCapacity() {
+        return this.capacity() - this.available();
+    }
+    
+    /**
+     * Writes as many of the given samples as fit into this buffer.
+     * Must only be called by the producer.
+     * @param src the array of interleaved samples to write
+     * @param offset the offset of the first sample frame in the array, in 
+     * samples (per channel)
+     * @param length the number of samples (per channel) to write
+     * @return the number of samples (per channel) written
+     */
+    public int write(final float[] src, final int offset, final int length) 
+    {
+        if (src == null)
+            throw new IllegalArgumentException("No array has been specified.");
+        checkBounds(src.length / this.channels, offset, length);
+        
+        final int n = this.writable(length);
+        if (n > 0) {
+            final long tail = this.tail.get();
+            final int index = (int)tail & this.mask;
+            final int total = n * this.channels;
+            final int first = Math.min(total, this.ring.length - index);
+            System.arraycopy(src, offset * this.channels, this.ring, index, first);
+            if (first < total)
+                System.arraycopy(src, offset * this.channels + first, this.ring, 0, total - first);
+            
+            this.tail.lazySet(tail + total);
+        }
+        return n;
+    }
+    
+    /**
+     * Writes as many of the given audio samples as fit into this buffer.
+     * Must only be called by the producer.
+     * @param src the audio samples to write, in the processing format
+     * @param index the index of the first sample (per channel) to write
+     * @param length the number of samples (per channel) to write
+     * @return the number of samples (per channel) written
+     */
+    public int write(final IAudioSamples src, final int index, final int length) 
+    {
+        this.checkAudioSamples(src);
+        checkBounds((int)src.getNumSamples(), index, length);
+        
+        final int n = this.writable(length);
+        if (n > 0) {
+            final FloatBuffer data = Audio.getByteBuffer(src).asFloatBuffer();
+            data.position(index * this.channels);
+            
+            final long tail = this.tail.get();
+            final int ringIndex = (int)tail & this.mask;
+            final int total = n * this.channels;
+            final int first = Math.min(total, this.ring.length - ringIndex);
+            data.get(this.ring, ringIndex, first);
+            if (first < total)
+                data.get(this.ring, 0, total - first);
+            
+            this.tail.lazySet(tail + total);
+        }
+        return n;
+    }
+    
+    /**
+     * Reads up to the given number of samples into the given array.
+     * Must only be called by the consumer.
+     * @param dst the array to read interleaved samples into
+     * @param offset the offset of the first sample frame in the array, in 
+     * samples (per channel)
+     * @param length the maximum number of samples (per channel) to read
+     * @return the number of samples (per channel) read
+     */
+    public int read(final float[] dst, final int offset, final int length) 
+    {
+        if (dst == null)
+            throw new IllegalArgumentException("No array has been specified.");
+        checkBounds(dst.length / this.channels, offset, length);
+        
+        final int n = this.readable(length);
+        if (n > 0) {
+            final long head = this.head.get();
+            final int index = (int)head & this.mask;
+            final int total = n * this.channels;
+            final int first = Math.min(total, this.ring.length - index);
+            System.arraycopy(this.ring, index, dst, offset * this.channels, first);
+            if (first < total)
+                System.arraycopy(this.ring, 0, dst, offset * this.channels + first, total - first);
+            
+            this.head.lazySet(head + total);
+        }
+        return n;
+    }
+    
+    /**
+     * Reads up to the given number of samples, scales them by the given gain 
+     * and adds them to the given accumulator, in a single pass.
+     * Must only be called by the consumer.
+     * @param acc the accumulator of interleaved samples, starting at its 
+     * first element
+     * @param length the maximum number of samples (per channel) to read
+     * @param gain the gain to scale the samples with
+     * @return the number of samples (per channel) read
+     */
+    public int mixInto(final float[] acc, final int length, final float gain) 
+    {
+        if (acc == null)
+            throw new IllegalArgumentException("No accumulator has been specified.");
+        checkBounds(acc.length / this.channels, 0, length);
+        
+        final int n = this.readable(length);
+        if (n > 0) {
+            final long head = this.head.get();
+            final int total = n * this.channels;
+            for(int i = 0; i < total; i++)
+                acc[i] += this.ring[(int)(head + i) & this.mask] * gain;
+            
+            this.head.lazySet(head + total);
+        }
+        return n;
+    }
+    
+    /**
+     * Waits until the given number of samples (per channel) can be written, 
+     * parking the producer in between attempts.
+     * @param length the number of samples (per channel) to wait for
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return true if the samples can be written, false if the timeout has 
+     * elapsed or the thread has been interrupted
+     */
+    public boolean awaitWritable(final int length, final long timeout, final TimeUnit unit) 
+    {
+        if (length > this.capacity())
+            throw new IllegalArgumentException("The specified number of samples exceeds the capacity of this buffer.");
+        
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long parkNanos = 1000;
+        while (this.writable(length) < length) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || Thread.interrupted())
+                return false;
+            
+            LockSupport.parkNanos(this, Math.min(parkNanos, remaining));
+            parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+        }
+        return true;
+    }
+    
+    /**
+     * Waits until the given number of samples (per channel) can be read, 
+     * parking the consumer in between attempts.
+     * @param length the number of samples (per channel) to wait for
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return true if the samples can be read, false if the timeout has 
+     * elapsed or the thread has been interrupted
+     */
+    public boolean awaitReadable(final int length, final long timeout, final TimeUnit unit) 
+    {
+        if (length > this.capacity())
+            throw new IllegalArgumentException("The specified number of samples exceeds the capacity of this buffer.");
+        
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long parkNanos = 1000;
+        while (this.readable(length) < length) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || Thread.interrupted())
+                return false;
+            
+            LockSupport.parkNanos(this, Math.min(parkNanos, remaining));
+            parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+        }
+        return true;
+    }
+    
+    /**
+     * Gets the number of samples (per channel), up to the given length, that
+     * the producer can write. The head is only read again if the cached head
+     * does not leave enough room.
+     */
+    private int writable(final int length) 
+    {
+        final long tail = this.tail.get();
+        int free = (int)(this.ring.length - (tail - this.cachedHead)) / this.channels;
+        if (free < length) {
+            this.cachedHead = this.head.get();
+            free = (int)(this.ring.length - (tail - this.cachedHead)) / this.channels;
+        }
+        return Math.min(free, length);
+    }
+    
+    /**
+     * Gets the number of samples (per channel), up to the given length, that
+     * the consumer can read. The tail is only read again if the cached tail 
+     * does not provide enough samples.
+     */
+    private int readable(final int length) 
+    {
+        final long head = this.head.get();
+        int used = (int)(this.cachedTail - head) / this.channels;
+        if (used < length) {
+            this.cachedTail = this.tail.get();
+            used = (int)(this.cachedTail - head) / this.channels;
+        }
+        return Math.min(used, length);
+    }
+    
+    private void checkAudioSamples(final IAudioSamples samples) 
+    {
+        if (samples == null)
+            throw new IllegalArgumentException("No audio samples have been specified.");
+        if (samples.getFormat() != this.format.getSampleFormat() || 
+            samples.getChannels() != this.channels)
+            throw new IllegalArgumentException("Incompatible audio samples are specified.");
+    }
+    
+    private static void checkBounds(final int size, final int offset, final int length) 
+    {
+        if (offset < 0 || offset > size)
+            throw new IndexOutOfBoundsException("Index: "+offset+"; Size: "+size);
+        if (length < 0 || offset + length > size)
+            throw new IndexOutOfBoundsException("Index: "+(offset + length)+"; Size: "+size);
+    }
+}
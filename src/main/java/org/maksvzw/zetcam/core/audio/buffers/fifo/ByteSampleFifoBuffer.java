@@ -27,49 +27,7 @@ import org.maksvzw.zetcam.core.audio.AudioFormat;
  */
 public final class ByteSampleFifoBuffer extends AudioSampleFifoBuffer<Byte>
 {
-    private final byte[] tempBuf;
-    
-    protected ByteSampleFifoBuffer(AudioFormat format, IAudioSamples samples) 
-    {
+    protected ByteSampleFifoBuffer(AudioFormat format, IAudioSamples samples) {
         super(format, samples);
-        this.tempBuf = new byte[1024];
-    }
-
-    @Override
-    protected void get(IAudioSamples src, int srcIndex, IAudioSamples dst, int dstIndex, int length) 
-    {
-        int tempLength, srcLength = (int)(src.getNumSamples() - 1) * src.getChannels();
-        while(length > 0) {
-            tempLength = Math.min(srcLength - srcIndex, Math.min(this.tempBuf.length, length));
-            src.get(srcIndex, this.tempBuf, 0, tempLength);
-            dst.put(this.tempBuf, 0, dstIndex, tempLength);
-            srcIndex += tempLength;
-            dstIndex += tempLength;
-            length -= tempLength;
-            
-            /* If we're at the end of the source buffer and the read request has
-            not yet been satisfied, wrap around. */
-            if (srcIndex >= srcLength) 
-                srcIndex = 0;
-        }
-    }
-
-    @Override
-    protected void put(IAudioSamples dst, int dstIndex, IAudioSamples src, int srcIndex, int length)
-    {
-        int tempLength, dstLength = (int)(dst.getNumSamples() - 1) * dst.getChannels();
-        while(length > 0) {
-            tempLength = Math.min(dstLength - dstIndex, Math.min(this.tempBuf.length, length));
-            src.get(srcIndex, this.tempBuf, 0, tempLength);
-            dst.put(this.tempBuf, 0, dstIndex, tempLength);
-            srcIndex += tempLength;
-            dstIndex += tempLength;
-            length -= tempLength;
-            
-            /* If we're at the end of the source buffer and the read request has
-            not yet been satisfied, wrap around. */
-            if (dstIndex >= dstLength) 
-                dstIndex = 0;
-        }
     }
 }
\ No newline at end of file
@@ -47,13 +47,23 @@ public abstract class AudioFilter extends MediaFilter<IAudioSamples> implements
         return MediaType.AUDIO;
     }
 
+    @Override
+    protected long getMediaSize(final IAudioSamples samples) {
+        return samples.getNumSamples();
+    }
+
+    @Override
+    protected long getMediaTimeStamp(final IAudioSamples samples) {
+        return samples.getPts();
+    }
+
     @Override
     public void onVideoPicture(IVideoPictureEvent ivpe) { }
 
     @Override
     public void onAudioSamples(IAudioSamplesEvent iase)
     {
-        this.onFilter(iase.getAudioSamples());
+        this.filter(iase.getAudioSamples());
     }
 
     @Override
@@ -81,7 +91,10 @@ public abstract class AudioFilter extends MediaFilter<IAudioSamples> implements
     public void onWriteHeader(IWriteHeaderEvent iwhe) { }
 
     @Override
-    public void onFlush(IFlushEvent ife) { }
+    public void onFlush(IFlushEvent ife)
+    {
+        this.flush(samples -> { });
+    }
 
     @Override
     public void onWriteTrailer(IWriteTrailerEvent iwte) { }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio.filters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Links a sequence of audio filters into a filter chain.
+ * <p>
+ * Consecutive filters that only scale samples are collapsed into a single 
+ * {@link FusedGainFilter}, so that the samples are traversed once for all of
+ * them instead of once per filter.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class AudioFilterChain 
+{
+    /**
+     * Links the given filters, in order, into a filter chain.
+     * @param filters the filters to link
+     * @return the first filter of the chain, or null if no filters have been
+     * specified
+     */
+    public static AudioFilter compile(final List<? extends AudioFilter> filters) 
+    {
+        if (filters == null)
+            throw new IllegalArgumentException("No audio filters have been specified.");
+        
+        final List<AudioFilter> compiled = new ArrayList<>(filters.size());
+        final List<GainStage> stages = new ArrayList<>();
+        
+        for(AudioFilter filter : filters) {
+            if (filter instanceof GainStage) {
+                stages.add((GainStage)filter);
+                continue;
+            }
+            flush(stages, compiled);
+            compiled.add(filter);
+        }
+        flush(stages, compiled);
+        
+        AudioFilter firstFlt = null, flt = null;
+        for(AudioFilter filter : compiled) {
+            if (firstFlt == null) {
+                firstFlt = filter;
+            } else {
+                flt.setNext(filter);
+            }
+            flt = filter;
+        }
+        return firstFlt;
+    }
+    
+    private static void flush(final List<GainStage> stages, final List<AudioFilter> compiled) 
+    {
+        if (stages.isEmpty())
+            return;
+        
+        /* A single gain stage gains nothing from being fused. */
+        if (stages.size() == 1)
+            compiled.add((AudioFilter)stages.get(0));
+        else
+            compiled.add(new FusedGainFilter(stages));
+        stages.clear();
+    }
+    
+    private AudioFilterChain() { }
+}
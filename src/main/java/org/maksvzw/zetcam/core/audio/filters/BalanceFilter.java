@@ -26,9 +26,10 @@ import org.maksvzw.zetcam.infrastructure.Maths;
  *
  * @author Lenny Knockaert
  */
-public final class BalanceFilter extends AudioFilter
+public final class BalanceFilter extends AudioFilter implements GainStage
 {
     private final double balanceValue;
+    private double[] gains;
     
     public BalanceFilter(final double balanceValue) 
     {
@@ -42,13 +43,41 @@ public final class BalanceFilter extends AudioFilter
     @Override
     protected IAudioSamples onFilter(IAudioSamples samples) 
     {
-        double balanceGain;
         try (AudioSampleBuffer buffer = AudioSampleBuffer.wrap(samples)) {
-            while(buffer.hasRemaining()) {
-                balanceGain = Maths.clamp(1.0f + Math.pow(-1.0f, buffer.channel()) * this.balanceValue, 0.0, 1.0);
-                buffer.scale(balanceGain);
-            }
+            buffer.scaleChannels(this.getGains(buffer.channels()));
         }
-        return super.filter(samples);
+        return samples;
+    }
+    
+    /**
+     * Gets the gain of each channel. Odd channels are attenuated by a positive
+     * balance value and even channels by a negative one.
+     * The gains only depend on the number of channels, so they are computed 
+     * once and reused for every subsequent frame with the same layout.
+     * @param channels the number of channels
+     * @return the gain of each channel
+     */
+    private double[] getGains(final int channels) 
+    {
+        if (this.gains == null || this.gains.length != channels) {
+            final double[] newGains = new double[channels];
+            for(int c = 0; c < channels; c++)
+                newGains[c] = Maths.clamp(1.0 + ((c & 1) == 0 ? 1.0 : -1.0) * this.balanceValue, 0.0, 1.0);
+            this.gains = newGains;
+        }
+        return this.gains;
+    }
+
+    @Override
+    public void applyChannelGains(double[] channelGains) 
+    {
+        final double[] balanceGains = this.getGains(channelGains.length);
+        for(int c = 0; c < channelGains.length; c++)
+            channelGains[c] *= balanceGains[c];
+    }
+
+    @Override
+    public boolean applyFrameGains(long firstSample, double[] frameGains, int numOfFrames) {
+        return false;
     }
 }
\ No newline at end of file
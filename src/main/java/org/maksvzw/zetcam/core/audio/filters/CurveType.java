@@ -18,6 +18,8 @@
  */
 package org.maksvzw.zetcam.core.audio.filters;
 
+import org.maksvzw.zetcam.infrastructure.Maths;
+
 /**
  * Curve types for fade transitions.
  * 
@@ -57,4 +59,68 @@ public enum CurveType
     DESE,
     /** select double-exponential sigmoid */
     DESI;
+    
+    /**
+     * Evaluates this curve.
+     * @param x the progress of the fade transition, in the range of 0.0 to 1.0
+     * @return the gain at the given progress, in the range of 0.0 to 1.0
+     */
+    public double getGain(final double x) 
+    {
+        double gain = Maths.clamp(x, 0.0, 1.0);
+        switch(this) {
+            case QSIN:
+                gain = Math.sin(gain * Math.PI / 2.0);
+                break;
+            case IQSIN:
+                gain = 0.636943 * Math.asin(gain);
+                break;
+            case ESIN:
+                gain = 1.0 - Math.cos(Math.PI / 4.0 * (Math.pow(2.0*gain - 1, 3) + 1));
+                break;
+            case HSIN:
+                gain = (1.0 - Math.cos(gain * Math.PI)) / 2.0;
+                break;
+            case IHSIN:
+                gain = 0.318471 * Math.acos(1 - 2 * gain);
+                break;
+            case EXP:
+                gain = Math.pow(0.1, (1 - gain) * 5.0);
+                break;
+            case LOG:
+                gain = Maths.clamp(0.0868589 * Math.log(100000 * gain), 0.0, 1.0);
+                break;
+            case PAR:
+                gain = 1 - Math.sqrt(1 - gain);
+                break;
+            case IPAR:
+                gain = (1 - (1 - gain) * (1 - gain));
+                break;
+            case QUA:
+                gain *= gain;
+                break;
+            case CUB:
+                gain = gain * gain * gain;
+                break;
+            case SQU:
+                gain = Math.sqrt(gain);
+                break;
+            case CBR:
+                gain = Math.cbrt(gain);
+                break;
+            case DESE:
+                if (gain <= 0.5)
+                    gain = Math.pow(2 * gain, 1/3.0) / 2;
+                else
+                    gain = 1 - Math.pow(2 * (1 - gain), 1/3.0) / 2;
+                break;
+            case DESI:
+                if (gain <= 0.5)
+                    gain = Math.pow(2 * gain, 3) / 2;
+                else
+                    gain = 1 - Math.pow(2 * (1 - gain), 3) / 2;
+                break;
+        }
+        return gain;
+    }
 }
\ No newline at end of file
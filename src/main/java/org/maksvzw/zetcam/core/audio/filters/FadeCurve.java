@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio.filters;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import java.util.Objects;
+
+/**
+ * A lookup table of the gain of a fade transition with a given curve type and 
+ * length. 
+ * <p>
+ * The curve is evaluated once for at most {@value #MAX_RESOLUTION} equally
+ * spaced points and interpolated linearly in between, so that evaluating the
+ * gain doesn't involve any transcendental functions. Tables are cached and 
+ * shared between all fades with the same curve type and length.
+ * </p>
+ * @author Lenny Knockaert
+ */
+final class FadeCurve 
+{
+    private static final int MAX_RESOLUTION = 1024;
+    
+    private static final LoadingCache<Key, FadeCurve> CACHE = CacheBuilder.newBuilder()
+            .maximumSize(64)
+            .build(new CacheLoader<Key, FadeCurve>() {
+                @Override
+                public FadeCurve load(Key key) {
+                    return new FadeCurve(key.curveType, key.length);
+                }
+            });
+    
+    /**
+     * Gets the lookup table for a fade transition.
+     * @param curveType the curve type of the fade transition
+     * @param length the length of the fade transition, in samples (per channel)
+     * @return the lookup table for the fade transition
+     */
+    public static FadeCurve of(final CurveType curveType, final long length) 
+    {
+        if (curveType == null)
+            throw new IllegalArgumentException("No curve type has been specified.");
+        
+        return CACHE.getUnchecked(new Key(curveType, Math.max(length, 0)));
+    }
+    
+    private final long length;
+    private final double[] table;
+    
+    private FadeCurve(final CurveType curveType, final long length) 
+    {
+        this.length = length;
+        
+        final int resolution = (int)Math.max(1, Math.min(length, MAX_RESOLUTION));
+        this.table = new double[resolution + 1];
+        for(int i = 0; i <= resolution; i++)
+            this.table[i] = curveType.getGain(1.0 * i / resolution);
+    }
+    
+    /**
+     * Gets the gain at the given position of the fade transition.
+     * Positions before the start or after the end of the fade transition are
+     * clamped to the first or last value of the curve.
+     * @param index the position within the fade transition, in samples (per
+     * channel)
+     * @return the gain at the given position
+     */
+    public double getGain(final long index) 
+    {
+        final int resolution = this.table.length - 1;
+        if (index <= 0)
+            return this.length > 0 ? this.table[0] : this.table[resolution];
+        if (index >= this.length)
+            return this.table[resolution];
+        
+        final double x = (double)index * resolution / this.length;
+        final int i = (int)x;
+        final double frac = x - i;
+        return this.table[i] + (this.table[i + 1] - this.table[i]) * frac;
+    }
+    
+    private static final class Key 
+    {
+        private final CurveType curveType;
+        private final long length;
+        
+        Key(final CurveType curveType, final long length) 
+        {
+            this.curveType = curveType;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object obj) 
+        {
+            if (obj == null)
+                return false;
+            if (this == obj)
+                return true;
+            if (this.getClass() != obj.getClass())
+                return false;
+
+            final Key key = (Key)obj;
+            return this.curveType == key.curveType && 
+                    this.length == key.length;
+        }
+
+        @Override
+        public int hashCode() 
+        {
+            int hash = 7;
+            hash = 71 * hash + Objects.hashCode(this.curveType);
+            hash = 71 * hash + (int)(this.length ^ (this.length >>> 32));
+            return hash;
+        }
+    }
+}
@@ -21,21 +21,25 @@ package org.maksvzw.zetcam.core.audio.filters;
 import com.xuggle.xuggler.IAudioSamples;
 import com.xuggle.xuggler.IRational;
 import java.time.Duration;
+import java.util.Arrays;
 import org.maksvzw.zetcam.core.audio.Audio;
 import org.maksvzw.zetcam.core.audio.AudioFormat;
 import org.maksvzw.zetcam.core.audio.buffers.AudioSampleBuffer;
-import org.maksvzw.zetcam.infrastructure.Maths;
 
 /**
  *
  * @author Lenny Knockaert
  */
-public final class FadeFilter extends AudioFilter 
+public final class FadeFilter extends AudioFilter implements GainStage
 {
+    /* The number of sample frames over which the gain is ramped linearly. */
+    private static final int SEGMENT_LENGTH = 64;
+    
     private final FadeDirection direction;
     private final CurveType curveType;
     private final long fadeStartSample;
     private final long fadeNumOfSamples;
+    private final FadeCurve curve;
     
     public FadeFilter(
             final AudioFormat audioFormat,
@@ -62,6 +66,7 @@ public final class FadeFilter extends AudioFilter
          sample numbers. */
         this.fadeStartSample = Audio.getNumOfSamples(audioFormat, fadeStartTime);
         this.fadeNumOfSamples = Audio.getNumOfSamples(audioFormat, fadeDuration); 
+        this.curve = FadeCurve.of(curveType, this.fadeNumOfSamples);
     }
     
     @Override
@@ -69,10 +74,11 @@ public final class FadeFilter extends AudioFilter
     {
         /* Convert the start time and duration of this audio frame to samples. */
         final long numOfSamples = samples.getNumSamples();
-        final long currentSample = IRational.sRescale(
-                samples.getTimeStamp(), 
-                samples.getTimeBase(), 
-                IRational.make(1, samples.getSampleRate()));
+        final long currentSample = IRational.rescale(
+                samples.getPts(), 
+                1, samples.getSampleRate(), 
+                1, 1000000, 
+                IRational.Rounding.ROUND_NEAR_INF);
         
         /* No fade transition is to be applied after a fade-in or before a fade-out.*/
         if (this.direction.shouldIgnoreSamples(
@@ -81,7 +87,7 @@ public final class FadeFilter extends AudioFilter
                 currentSample, 
                 numOfSamples))
         {
-            return super.filter(samples);
+            return samples;
         }
         
         try (AudioSampleBuffer buffer = AudioSampleBuffer.wrap(samples)) 
@@ -94,7 +100,7 @@ public final class FadeFilter extends AudioFilter
                     numOfSamples))
             {
                 buffer.silenceAll();
-                return super.filter(samples);
+                return samples;
             } 
             
             /* The samples must be scaled in a specific direction. */
@@ -104,70 +110,55 @@ public final class FadeFilter extends AudioFilter
                     this.fadeNumOfSamples, 
                     currentSample);
  
-            double gain; 
-            while(buffer.hasRemaining()) {
-                gain = calculateFadeGain(start + buffer.position() * dir, this.fadeNumOfSamples);
-                buffer.scale(gain);
+            /* The curve is only evaluated at the boundaries of short segments,
+            the gain within a segment is interpolated linearly once per frame. */
+            final int numOfFrames = buffer.remaining();
+            int frame = 0, segmentLength;
+            double startGain, endGain;
+            while(frame < numOfFrames) {
+                segmentLength = Math.min(SEGMENT_LENGTH, numOfFrames - frame);
+                startGain = this.curve.getGain(start + frame * dir);
+                endGain = this.curve.getGain(start + (frame + segmentLength) * dir);
+                buffer.scaleRamp(segmentLength, startGain, endGain);
+                frame += segmentLength;
             }
         }
-        return super.filter(samples);
+        return samples;
     }
-    
-    private double calculateFadeGain(long index, long range) 
+
+    @Override
+    public void applyChannelGains(double[] channelGains) { }
+
+    @Override
+    public boolean applyFrameGains(long firstSample, double[] frameGains, int numOfFrames) 
     {
-        double gain = Maths.clamp(1.0 * index / range, 0.0, 1.0);
-        switch(this.curveType) {
-            case QSIN:
-                gain = Math.sin(gain * Math.PI / 2.0);
-                break;
-            case IQSIN:
-                gain = 0.636943 * Math.asin(gain);
-                break;
-            case ESIN:
-                gain = 1.0 - Math.cos(Math.PI / 4.0 * (Math.pow(2.0*gain - 1, 3) + 1));
-                break;
-            case HSIN:
-                gain = (1.0 - Math.cos(gain * Math.PI)) / 2.0;
-                break;
-            case IHSIN:
-                gain = 0.318471 * Math.acos(1 - 2 * gain);
-                break;
-            case EXP:
-                gain = Math.pow(0.1, (1 - gain) * 5.0);
-                break;
-            case LOG:
-                gain = Maths.clamp(0.0868589 * Math.log(100000 * gain), 0.0, 1.0);
-                break;
-            case PAR:
-                gain = 1 - Math.sqrt(1 - gain);
-            case IPAR:
-                gain = (1 - (1 - gain) * (1 - gain));
-                break;
-            case QUA:
-                gain *= gain;
-                break;
-            case CUB:
-                gain = gain * gain * gain;
-                break;
-            case SQU:
-                gain = Math.sqrt(gain);
-                break;
-            case CBR:
-                gain = Math.cbrt(gain);
-                break;
-            case DESE:
-                if (gain <= 0.5)
-                    gain = Math.pow(2 * gain, 1/3.0) / 2;
-                else
-                    gain = 1 - Math.pow(2 * (1 - gain), 1/3.0) / 2;
-                break;
-            case DESI:
-                if (gain <= 0.5)
-                    gain = Math.pow(2 * gain, 3) / 2;
-                else
-                    gain = 1 - Math.pow(2 * (1 - gain), 3) / 2;
-                break;
+        if (this.direction.shouldIgnoreSamples(
+                this.fadeStartSample, 
+                this.fadeNumOfSamples, 
+                firstSample, 
+                numOfFrames))
+        {
+            return false;
         }
-        return gain;
+        
+        if (this.direction.shouldSilenceSamples(
+                this.fadeStartSample, 
+                this.fadeNumOfSamples, 
+                firstSample, 
+                numOfFrames))
+        {
+            Arrays.fill(frameGains, 0, numOfFrames, 0.0);
+            return true;
+        }
+        
+        final int dir = this.direction.getDirectionSignum();
+        final long start = this.direction.getCurrentFadeSample(
+                this.fadeStartSample, 
+                this.fadeNumOfSamples, 
+                firstSample);
+        
+        for(int f = 0; f < numOfFrames; f++)
+            frameGains[f] *= this.curve.getGain(start + f * dir);
+        return true;
     }
 }
\ No newline at end of file
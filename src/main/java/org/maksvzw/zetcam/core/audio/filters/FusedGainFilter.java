@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio.filters;
+
+import com.xuggle.xuggler.IAudioSamples;
+import com.xuggle.xuggler.IRational;
+import java.util.Arrays;
+import java.util.List;
+import org.maksvzw.zetcam.core.audio.buffers.AudioSampleBuffer;
+
+/**
+ * An audio filter that applies the combined gain of a sequence of gain stages
+ * in a single pass over the samples.
+ * 
+ * @author Lenny Knockaert
+ */
+public final class FusedGainFilter extends AudioFilter
+{
+    private final GainStage[] stages;
+    private double[] channelGains;
+    private double[] frameGains;
+    
+    public FusedGainFilter(final List<? extends GainStage> stages) 
+    {
+        if (stages == null || stages.isEmpty())
+            throw new IllegalArgumentException("No gain stages have been specified.");
+        
+        this.stages = stages.toArray(new GainStage[stages.size()]);
+    }
+    
+    @Override
+    protected IAudioSamples onFilter(IAudioSamples samples) 
+    {
+        /* Convert the start time and duration of this audio frame to samples. */
+        final int numOfFrames = (int)samples.getNumSamples();
+        /* Rescale the presentation time stamp, which is always in a time base
+        of 1/1000000, rather than creating native time bases for every packet. */
+        final long currentSample = IRational.rescale(
+                samples.getPts(), 
+                1, samples.getSampleRate(), 
+                1, 1000000, 
+                IRational.Rounding.ROUND_NEAR_INF);
+        
+        /* The gain vectors are reused for subsequent frames of the same size. */
+        final int channels = samples.getChannels();
+        if (this.channelGains == null || this.channelGains.length != channels)
+            this.channelGains = new double[channels];
+        if (this.frameGains == null || this.frameGains.length < numOfFrames)
+            this.frameGains = new double[numOfFrames];
+        
+        Arrays.fill(this.channelGains, 1.0);
+        Arrays.fill(this.frameGains, 0, numOfFrames, 1.0);
+        
+        boolean hasFrameGains = false;
+        for(GainStage stage : this.stages) {
+            stage.applyChannelGains(this.channelGains);
+            hasFrameGains |= stage.applyFrameGains(currentSample, this.frameGains, numOfFrames);
+        }
+        
+        if (!hasFrameGains && isUnity(this.channelGains))
+            return samples;
+        
+        try (AudioSampleBuffer buffer = AudioSampleBuffer.wrap(samples)) {
+            if (hasFrameGains)
+                buffer.scaleFrames(this.frameGains, this.channelGains);
+            else
+                buffer.scaleChannels(this.channelGains);
+        }
+        return samples;
+    }
+    
+    private static boolean isUnity(final double[] gains) 
+    {
+        for(double gain : gains)
+            if (gain != 1.0)
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio.filters;
+
+/**
+ * An audio filter that does nothing but scale samples. 
+ * <p>
+ * The gain of a stage is the product of a gain per channel, that is constant,
+ * and a gain per sample frame, that may vary over time. Consecutive stages can
+ * therefore be collapsed into a single {@link FusedGainFilter} that touches 
+ * each sample only once.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public interface GainStage 
+{
+    /**
+     * Multiplies the gain of this stage for each channel into the given 
+     * vector.
+     * @param channelGains the gain of each channel, indexed by channel
+     */
+    void applyChannelGains(final double[] channelGains);
+    
+    /**
+     * Multiplies the gain of this stage for each sample frame into the given 
+     * vector.
+     * @param firstSample the number of the first sample frame, counted from 
+     * the start of the signal
+     * @param frameGains the gain of each sample frame
+     * @param numOfFrames the number of sample frames
+     * @return true if, and only if, the gain of at least one sample frame has
+     * been changed
+     */
+    boolean applyFrameGains(
+            final long firstSample, 
+            final double[] frameGains, 
+            final int numOfFrames);
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio.filters;
+
+import com.xuggle.xuggler.IAudioSamples;
+import org.maksvzw.zetcam.core.audio.AudioConverter;
+import org.maksvzw.zetcam.core.audio.AudioFormat;
+
+/**
+ * This filter converts audio samples to the {@linkplain 
+ * AudioFormat#toProcessingFormat() processing format} of their own sample 
+ * rate and number of channels.
+ * <p>
+ * The filter is placed at the head of each filter chain, so that all other 
+ * filters of the chain only have to deal with interleaved 32-bit floating 
+ * point samples. Samples that already are in the processing format are 
+ * passed on as is.
+ * </p><p>
+ * The output samples are held by a buffer that is reused for every packet, 
+ * so they are only valid until the next packet has been filtered.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public class ProcessingFormatFilter extends AudioFilter
+{
+    private AudioConverter converter;
+    
+    @Override
+    protected IAudioSamples onFilter(IAudioSamples samples)
+    {
+        if (samples.getFormat() == AudioFormat.PROCESSING_SAMPLE_FORMAT)
+            return samples;
+        
+        /* Only create an audio format when the converter has to be replaced, 
+        rather than for every packet. */
+        if (this.converter == null || 
+                this.converter.getOutputFormat().getSampleRate() != samples.getSampleRate() ||
+                this.converter.getOutputFormat().getChannels() != samples.getChannels()) {
+            if (this.converter != null)
+                this.converter.close();
+            this.converter = new AudioConverter(AudioFormat.of(samples).toProcessingFormat());
+        }
+        return this.converter.convert(samples);
+    }
+    
+    @Override
+    public void reset()
+    {
+        if (this.converter != null) {
+            this.converter.close();
+            this.converter = null;
+        }
+        super.reset();
+    }
+}
@@ -18,86 +18,76 @@
  */
 package org.maksvzw.zetcam.core.audio.filters;
 
-import com.xuggle.xuggler.IAudioResampler;
 import com.xuggle.xuggler.IAudioSamples;
+import org.maksvzw.zetcam.core.audio.AudioConverter;
 import org.maksvzw.zetcam.core.audio.AudioFormat;
-import org.maksvzw.zetcam.core.audio.buffers.AudioSampleBuffer;
+import org.maksvzw.zetcam.core.audio.PolyphaseResampler;
+import org.maksvzw.zetcam.core.audio.ResamplerQuality;
 
 /**
- *
+ * This filter converts audio samples to a given format.
+ * <p>
+ * Samples are converted in-process by an {@link AudioConverter}. Sample rates
+ * are converted by a {@link PolyphaseResampler} of the configured quality, 
+ * which keeps its state across packets and emits the samples it holds back
+ * when the filter chain is flushed.
+ * </p><p>
+ * The output samples are held by a buffer that is reused for every packet, 
+ * so they are only valid until the next packet has been filtered.
+ * </p>
  * @author Lenny Knockaert
  */
 public class ResamplingFilter extends AudioFilter
 {
     private final AudioFormat dstFormat;
-    private IAudioResampler resampler;
+    private final ResamplerQuality quality;
+    private AudioConverter converter;
+    
+    public ResamplingFilter(final AudioFormat audioFormat) {
+        this(audioFormat, ResamplerQuality.PREVIEW);
+    }
     
-    public ResamplingFilter(final AudioFormat audioFormat) 
+    public ResamplingFilter(final AudioFormat audioFormat, final ResamplerQuality quality) 
     {
         if (audioFormat == null)
             throw new IllegalArgumentException("No audio format has been specified.");
+        if (quality == null)
+            throw new IllegalArgumentException("No resampler quality has been specified.");
         
         this.dstFormat = audioFormat;
+        this.quality = quality;
     }
     
     public AudioFormat getOutputFormat() {
         return this.dstFormat;
     }
     
+    public ResamplerQuality getQuality() {
+        return this.quality;
+    }
+    
     @Override
     protected IAudioSamples onFilter(IAudioSamples samples)
     {
-        final int inputChannels = samples.getChannels(),
-                inputRate = samples.getSampleRate();
-        final IAudioSamples.Format inputFormat = samples.getFormat();
-        
-        if (this.resampler != null && 
-            (inputRate != this.resampler.getInputRate() || 
-             inputFormat != this.resampler.getInputFormat() ||
-             inputChannels != this.resampler.getInputChannels()))
-        {
-            this.releaseResampler();
-        }
-        
-        if (this.resampler == null && 
-            (inputRate != this.dstFormat.getSampleRate() ||
-            inputFormat != this.dstFormat.getSampleFormat() ||
-            inputChannels != this.dstFormat.getChannels()))
-        {
-            this.resampler = IAudioResampler.make(
-                    this.dstFormat.getChannels(), inputChannels, 
-                    this.dstFormat.getSampleRate(), inputRate, 
-                    this.dstFormat.getSampleFormat(), inputFormat);
-        }
+        if (this.converter == null)
+            this.converter = new AudioConverter(this.dstFormat, this.quality);
         
-        if (this.resampler != null) {
-            final int numOfInputSamples = (int)samples.getNumSamples();
-            final int numOfOutputSamples = (int)this.resampler.getMinimumNumSamplesRequiredInOutputSamples(samples);
-            
-            try (AudioSampleBuffer outputBuffer = AudioSampleBuffer.allocate(
-                    this.dstFormat, numOfOutputSamples)) 
-            {
-                final IAudioSamples outputSamples = outputBuffer.getDataCached(); // TODO: FIX ME !!!!!!
-                this.resampler.resample(outputSamples, samples, numOfInputSamples);
-                return super.filter(outputSamples);
-            }
-        } 
-        else {
-            return super.filter(samples);
-        }
+        return this.converter.convert(samples);
     }
     
     @Override
-    public void reset()
+    protected IAudioSamples onFlush()
     {
-        this.releaseResampler();
-        super.reset();
+        return this.converter == null ? null : this.converter.flush();
     }
     
-    private void releaseResampler() {
-        if (this.resampler != null) {
-            this.resampler.delete();
-            this.resampler = null;
+    @Override
+    public void reset()
+    {
+        if (this.converter != null) {
+            this.converter.close();
+            this.converter = null;
         }
+        super.reset();
     }
 }
\ No newline at end of file
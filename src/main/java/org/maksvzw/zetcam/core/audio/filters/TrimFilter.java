@@ -31,6 +31,8 @@ import org.maksvzw.zetcam.core.audio.buffers.AudioSampleBuffer;
  */
 public final class TrimFilter extends AudioFilter
 {
+    private final Duration newStartTime;
+    private final Duration newDuration;
     private final long newStartSample;
     private final long newNumOfSamples;
     
@@ -48,21 +50,33 @@ public final class TrimFilter extends AudioFilter
         if (newDuration.compareTo(Duration.ZERO) <= 0)
             throw new IllegalArgumentException("Invalid fade duration has been specified. The value must be larger than zero.");
         
+        this.newStartTime = newStartTime;
+        this.newDuration = newDuration;
+        
         /** Convert new start time and duration of the audio source to 
          sample numbers. */
         this.newStartSample = Audio.getNumOfSamples(audioFormat, newStartTime);
         this.newNumOfSamples = Audio.getNumOfSamples(audioFormat, newDuration);
     }
     
+    public Duration getStartTime() {
+        return this.newStartTime;
+    }
+    
+    public Duration getDuration() {
+        return this.newDuration;
+    }
+    
     @Override
     protected IAudioSamples onFilter(IAudioSamples samples)
     {
         /* Convert the start time and duration of this audio frame to samples. */
         final long numOfSamples = samples.getNumSamples();
-        final long currentSample = IRational.sRescale(
-                samples.getTimeStamp(), 
-                samples.getTimeBase(), 
-                IRational.make(1, samples.getSampleRate()));
+        final long currentSample = IRational.rescale(
+                samples.getPts(), 
+                1, samples.getSampleRate(), 
+                1, 1000000, 
+                IRational.Rounding.ROUND_NEAR_INF);
         
         /* All samples before the new start sample or after the new duration 
         are simply discarded. */
@@ -85,6 +99,6 @@ public final class TrimFilter extends AudioFilter
                 buffer.position((int)(numOfSamples - diffSamples)).silenceAll();
             }
         }
-        return super.filter(samples);
+        return samples;
     }
 }
\ No newline at end of file
@@ -25,7 +25,7 @@ import org.maksvzw.zetcam.core.audio.buffers.AudioSampleBuffer;
  *
  * @author Lenny Knockaert
  */
-public class VolumeFilter extends AudioFilter
+public class VolumeFilter extends AudioFilter implements GainStage
 {
     private final double volume;
     
@@ -45,6 +45,18 @@ public class VolumeFilter extends AudioFilter
                 buffer.scaleAll(this.volume);
             }
         }
-        return super.filter(samples);
+        return samples;
+    }
+
+    @Override
+    public void applyChannelGains(double[] channelGains) 
+    {
+        for(int c = 0; c < channelGains.length; c++)
+            channelGains[c] *= this.volume;
+    }
+
+    @Override
+    public boolean applyFrameGains(long firstSample, double[] frameGains, int numOfFrames) {
+        return false;
     }
 }
\ No newline at end of file
@@ -32,4 +32,9 @@ public abstract class ImageFilter extends MediaFilter<BufferedImage>
     public MediaType getType() {
         return MediaType.IMAGE;
     }
+    
+    @Override
+    protected long getMediaSize(final BufferedImage image) {
+        return (long)image.getWidth() * image.getHeight();
+    }
 }
\ No newline at end of file
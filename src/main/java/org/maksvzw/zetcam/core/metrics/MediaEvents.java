@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import org.maksvzw.zetcam.core.MediaType;
+
+/**
+ * This class emits JDK Flight Recorder events for each block of media that 
+ * passes a stage of the media pipeline, so that a recording shows which 
+ * stage took how long for which block.
+ * <p>
+ * An event is only created if the runtime provides the Flight Recorder and
+ * the event type is enabled in the running recording, which is checked 
+ * through the event type of each stage before any event is allocated. 
+ * Otherwise, {@link #begin(MediaStage)} returns null and callers skip the 
+ * event entirely, so that disabled events cost no more than a branch and 
+ * produce no garbage. Callers must not refer to the event classes unless an
+ * event has been returned, since the Flight Recorder classes are only 
+ * available as of JDK 8u262.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class MediaEvents 
+{
+    private static final boolean AVAILABLE = isAvailable();
+    
+    private static boolean isAvailable() 
+    {
+        try {
+            Class.forName("jdk.jfr.Event", false, MediaEvents.class.getClassLoader());
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+    
+    /**
+     * Begins timing a block of media in the given stage.
+     * @param stage the stage of the pipeline
+     * @return the event that times the block, or null if the event is not 
+     * being recorded
+     */
+    public static BlockEvent begin(final MediaStage stage) 
+    {
+        if (!AVAILABLE || !EventTypes.isEnabled(stage))
+            return null;
+        
+        final BlockEvent event;
+        switch(stage) {
+            case DECODE: event = new DecodeEvent(); break;
+            case FILTER: event = new FilterEvent(); break;
+            case MIX: event = new MixEvent(); break;
+            default: event = new PlaybackEvent(); break;
+        }
+        
+        event.begin();
+        return event;
+    }
+    
+    /**
+     * Ends timing a block of media and commits the event if it exceeds the 
+     * threshold of the recording.
+     * @param event the event returned by {@link #begin(MediaStage)}, or null
+     * @param component the name of the component that processed the block
+     * @param mediaType the type of media of the block
+     * @param blockSize the size of the block, in samples (per channel) for 
+     * audio or in pixels for images
+     * @param pts the presentation time stamp of the block, in microseconds
+     */
+    public static void end(
+            final BlockEvent event, 
+            final String component, 
+            final MediaType mediaType, 
+            final long blockSize, 
+            final long pts) 
+    {
+        if (event == null)
+            return;
+        
+        event.end();
+        if (!event.shouldCommit())
+            return;
+        
+        event.component = component;
+        event.mediaType = mediaType == null ? null : mediaType.name();
+        event.blockSize = blockSize;
+        event.pts = pts;
+        event.commit();
+    }
+    
+    /**
+     * Holds the event type of each stage, so that the Flight Recorder classes
+     * are only loaded once they are known to be available.
+     */
+    private static final class EventTypes 
+    {
+        private static final EventType[] TYPES = new EventType[] {
+            EventType.getEventType(DecodeEvent.class),
+            EventType.getEventType(FilterEvent.class),
+            EventType.getEventType(MixEvent.class),
+            EventType.getEventType(PlaybackEvent.class)
+        };
+        
+        static boolean isEnabled(final MediaStage stage) {
+            return TYPES[stage.ordinal()].isEnabled();
+        }
+    }
+    
+    @Category({"ZetCam", "Media Pipeline"})
+    @StackTrace(false)
+    public abstract static class BlockEvent extends Event 
+    {
+        @Label("Component")
+        String component;
+        
+        @Label("Media Type")
+        String mediaType;
+        
+        @Label("Block Size")
+        @Description("The number of samples (per channel) of audio or pixels of images.")
+        long blockSize;
+        
+        @Label("Presentation Time Stamp")
+        @Timespan(Timespan.MICROSECONDS)
+        long pts;
+    }
+    
+    @Name("org.maksvzw.zetcam.Decode")
+    @Label("Decode")
+    @Description("Decoding of a block of media.")
+    public static final class DecodeEvent extends BlockEvent { }
+    
+    @Name("org.maksvzw.zetcam.Filter")
+    @Label("Filter")
+    @Description("Filtering of a block of media by a single filter.")
+    public static final class FilterEvent extends BlockEvent { }
+    
+    @Name("org.maksvzw.zetcam.Mix")
+    @Label("Mix")
+    @Description("Mixing of a block of audio.")
+    public static final class MixEvent extends BlockEvent { }
+    
+    @Name("org.maksvzw.zetcam.Playback")
+    @Label("Playback")
+    @Description("Queueing of a block of audio for playback.")
+    public static final class PlaybackEvent extends BlockEvent { }
+    
+    private MediaEvents() { }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The registry of the metrics of the media pipeline, which is exposed as an 
+ * MXBean named {@value #OBJECT_NAME}.
+ * <p>
+ * Timers and counters are striped per thread, so that they are cheap enough 
+ * to be collected in production. Components look them up once and keep a 
+ * reference, since looking them up by name is not free. Only timers can be
+ * disabled, because reading the clock is the most expensive part of the
+ * instrumentation. Metrics are enabled unless the system property 
+ * {@value #ENABLED_PROPERTY} is set to false.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class MediaMetrics implements MediaMetricsMXBean
+{
+    public static final String OBJECT_NAME = "org.maksvzw.zetcam:type=MediaMetrics";
+    public static final String ENABLED_PROPERTY = "zetcam.metrics";
+    
+    public static final String RESAMPLER_CREATIONS = "resampler.creations";
+    public static final String BUFFER_ALLOCATIONS = "buffer.allocations";
+    public static final String PLAYBACK_UNDERRUNS = "playback.underruns";
+    public static final String PLAYBACK_OVERRUNS = "playback.overruns";
+    public static final String DEADLINE_OVERRUNS = "deadline.overruns";
+    
+    private static final MediaMetrics INSTANCE = register(new MediaMetrics());
+    
+    private final ConcurrentMap<String, SampleTimer> timers;
+    private final ConcurrentMap<String, LongAdder> counters;
+    private final ConcurrentMap<String, LongSupplier> gauges;
+    private volatile boolean enabled;
+    
+    private MediaMetrics() 
+    {
+        this.timers = new ConcurrentHashMap<>();
+        this.counters = new ConcurrentHashMap<>();
+        this.gauges = new ConcurrentHashMap<>();
+        this.enabled = !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+    }
+    
+    private static MediaMetrics register(final MediaMetrics metrics) 
+    {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name))
+                server.registerMBean(metrics, name);
+        } 
+        catch (JMException | SecurityException ex) {
+            /* Metrics are still collected, they just cannot be inspected 
+            remotely. */
+            Logger.getLogger(MediaMetrics.class.getName()).log(Level.WARNING, null, ex);
+        }
+        return metrics;
+    }
+    
+    public static MediaMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    @Override
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    /**
+     * Gets the timer with the given name, creating it if it does not exist.
+     * @param name the name of the timer
+     * @return the timer with the given name
+     */
+    public SampleTimer timer(final String name) 
+    {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("No timer name has been specified.");
+        
+        return this.timers.computeIfAbsent(name, SampleTimer::new);
+    }
+    
+    /**
+     * Gets the counter with the given name, creating it if it does not exist.
+     * @param name the name of the counter
+     * @return the counter with the given name
+     */
+    public LongAdder counter(final String name) 
+    {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("No counter name has been specified.");
+        
+        return this.counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+    
+    /**
+     * Registers a gauge that is sampled whenever the metrics are inspected.
+     * A gauge that already has the given name is replaced.
+     * @param name the name of the gauge
+     * @param gauge the function that returns the current value of the gauge
+     */
+    public void registerGauge(final String name, final LongSupplier gauge) 
+    {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("No gauge name has been specified.");
+        if (gauge == null)
+            throw new IllegalArgumentException("No gauge has been specified.");
+        
+        this.gauges.put(name, gauge);
+    }
+    
+    public void unregisterGauge(final String name) {
+        if (name != null)
+            this.gauges.remove(name);
+    }
+
+    @Override
+    public Map<String, Long> getSamplesProcessed() 
+    {
+        final Map<String, Long> values = new TreeMap<>();
+        this.timers.forEach((name, timer) -> values.put(name, timer.getNumOfSamples()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Double> getNanosPerSample() 
+    {
+        final Map<String, Double> values = new TreeMap<>();
+        this.timers.forEach((name, timer) -> values.put(name, timer.getNanosPerSample()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getCalls() 
+    {
+        final Map<String, Long> values = new TreeMap<>();
+        this.timers.forEach((name, timer) -> values.put(name, timer.getNumOfCalls()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() 
+    {
+        final Map<String, Long> values = new TreeMap<>();
+        this.counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getGauges() 
+    {
+        final Map<String, Long> values = new TreeMap<>();
+        this.gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    @Override
+    public void reset() 
+    {
+        this.timers.values().forEach(SampleTimer::reset);
+        this.counters.values().forEach(LongAdder::reset);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.metrics;
+
+import java.util.Map;
+
+/**
+ * The management interface of the {@link MediaMetrics} of the media pipeline.
+ * 
+ * @author Lenny Knockaert
+ */
+public interface MediaMetricsMXBean 
+{
+    boolean isEnabled();
+    
+    void setEnabled(boolean enabled);
+    
+    /**
+     * Gets the number of samples (per channel) processed by each timed stage.
+     * @return the number of samples by timer name
+     */
+    Map<String, Long> getSamplesProcessed();
+    
+    /**
+     * Gets the average number of nanoseconds spent per sample by each timed
+     * stage.
+     * @return the nanoseconds per sample by timer name
+     */
+    Map<String, Double> getNanosPerSample();
+    
+    /**
+     * Gets the number of calls of each timed stage.
+     * @return the number of calls by timer name
+     */
+    Map<String, Long> getCalls();
+    
+    /**
+     * Gets the value of each event counter, such as resampler creations, 
+     * native buffer allocations and playback underruns.
+     * @return the counter values by counter name
+     */
+    Map<String, Long> getCounters();
+    
+    /**
+     * Gets the current value of each gauge, such as the depth of the FIFO 
+     * buffer of each mixer input.
+     * @return the gauge values by gauge name
+     */
+    Map<String, Long> getGauges();
+    
+    /**
+     * Resets all timers and counters.
+     */
+    void reset();
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the time spent processing media, together with the amount of 
+ * media that has been processed, so that the cost per sample can be derived.
+ * <p>
+ * All values are held by striped counters, so that threads that record at 
+ * the same time do not contend on a single memory location.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class SampleTimer 
+{
+    private final String name;
+    private final LongAdder numOfCalls;
+    private final LongAdder numOfSamples;
+    private final LongAdder nanos;
+    
+    SampleTimer(final String name) 
+    {
+        this.name = name;
+        this.numOfCalls = new LongAdder();
+        this.numOfSamples = new LongAdder();
+        this.nanos = new LongAdder();
+    }
+    
+    public String getName() {
+        return this.name;
+    }
+    
+    /**
+     * Records a single call.
+     * @param nanos the number of nanoseconds the call took
+     * @param numOfSamples the number of samples (per channel) that have been
+     * processed by the call
+     */
+    public void record(final long nanos, final long numOfSamples) 
+    {
+        this.numOfCalls.increment();
+        this.numOfSamples.add(numOfSamples);
+        this.nanos.add(nanos);
+    }
+    
+    public long getNumOfCalls() {
+        return this.numOfCalls.sum();
+    }
+    
+    public long getNumOfSamples() {
+        return this.numOfSamples.sum();
+    }
+    
+    public long getNanos() {
+        return this.nanos.sum();
+    }
+    
+    /**
+     * Gets the average number of nanoseconds spent per sample.
+     * @return the average number of nanoseconds per sample, or zero if no 
+     * samples have been recorded
+     */
+    public double getNanosPerSample() 
+    {
+        final long samples = this.numOfSamples.sum();
+        return samples == 0 ? 0.0 : (double)this.nanos.sum() / samples;
+    }
+    
+    public void reset() 
+    {
+        this.numOfCalls.reset();
+        this.numOfSamples.reset();
+        this.nanos.reset();
+    }
+}
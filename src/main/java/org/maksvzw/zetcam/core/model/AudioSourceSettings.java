@@ -19,9 +19,15 @@
 package org.maksvzw.zetcam.core.model;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
 import org.maksvzw.zetcam.core.MediaType;
+import org.maksvzw.zetcam.core.audio.AudioSource;
 import org.maksvzw.zetcam.core.audio.filters.AudioFilter;
+import org.maksvzw.zetcam.core.audio.filters.AudioFilterChain;
+import org.maksvzw.zetcam.core.audio.filters.ProcessingFormatFilter;
+import org.maksvzw.zetcam.core.audio.filters.TrimFilter;
 import org.maksvzw.zetcam.core.settings.audio.AudioDspSettings;
 import org.maksvzw.zetcam.core.settings.audio.BalanceSettings;
 import org.maksvzw.zetcam.core.settings.audio.FadeInSettings;
@@ -96,7 +102,21 @@ public class AudioSourceSettings extends MediaSourceSettings
     }
     
     @Override
-    public AudioFilter buildFilterChain()
+    public AudioFilter buildFilterChain() {
+        return this.buildFilterChain(null);
+    }
+    
+    /**
+     * Builds the filter chain for the samples that are read from the given 
+     * audio source. The trimmed range, if any, is applied to the audio source
+     * itself rather than by a filter, so that the source neither decodes nor
+     * passes on any samples outside of it.
+     * @param source the audio source to read the samples from, or null to 
+     * trim the samples by a filter
+     * @return the first filter of the filter chain, or null if there are no
+     * filters
+     */
+    public AudioFilter buildFilterChain(final AudioSource source)
     {
         final Queue<AudioDspSettings> queue = new ArrayDeque<>();
         queue.offer(this.trimSettings);
@@ -105,7 +125,7 @@ public class AudioSourceSettings extends MediaSourceSettings
         queue.offer(this.fadeInSettings);
         queue.offer(this.fadeOutSettings);
         
-        AudioFilter tmpFlt, flt = null, firstFlt = null;
+        final List<AudioFilter> filters = new ArrayList<>(queue.size());
         AudioDspSettings settings;
         
         while(!queue.isEmpty()) 
@@ -114,15 +134,22 @@ public class AudioSourceSettings extends MediaSourceSettings
             if (!settings.isEnabled())
                 continue;
             
-            if (firstFlt == null) {
-                firstFlt = settings.buildFilter();
-                flt = firstFlt;
-            } else {
-                tmpFlt = settings.buildFilter();
-                flt.setNext(tmpFlt);
-                flt = tmpFlt;
+            final AudioFilter filter = settings.buildFilter();
+            if (source != null && filter instanceof TrimFilter) {
+                final TrimFilter trimFilter = (TrimFilter)filter;
+                source.setTrim(trimFilter.getStartTime(), trimFilter.getDuration());
+                continue;
             }
+            filters.add(filter);
         }
-        return firstFlt;
+        
+        /* The samples are converted to the processing format once, at the 
+        head of the chain, so that the filters only ever see float samples. */
+        if (!filters.isEmpty())
+            filters.add(0, new ProcessingFormatFilter());
+        
+        /* Consecutive volume, balance and fade filters are fused into a 
+        single pass over the samples. */
+        return AudioFilterChain.compile(filters);
     }
 }
\ No newline at end of file
@@ -105,7 +105,55 @@ public final class Maths
         if (val.compareTo(max) == 1) return max;
         return val;
     }
-    
+
+    /**
+     * Clamps an integer value to the range defined by the given minimum and
+     * maximum bounds without boxing any of the values.
+     * @param val the value to clamp
+     * @param min the minimum bound
+     * @param max the maximum bound
+     * @return the clamped value
+     */
+    public static final int clamp(final int val, final int min, final int max) {
+        return val < min ? min : (val > max ? max : val);
+    }
+
+    /**
+     * Clamps a long value to the range defined by the given minimum and
+     * maximum bounds without boxing any of the values.
+     * @param val the value to clamp
+     * @param min the minimum bound
+     * @param max the maximum bound
+     * @return the clamped value
+     */
+    public static final long clamp(final long val, final long min, final long max) {
+        return val < min ? min : (val > max ? max : val);
+    }
+
+    /**
+     * Clamps a floating point value to the range defined by the given minimum
+     * and maximum bounds without boxing any of the values.
+     * @param val the value to clamp
+     * @param min the minimum bound
+     * @param max the maximum bound
+     * @return the clamped value
+     */
+    public static final float clamp(final float val, final float min, final float max) {
+        return val < min ? min : (val > max ? max : val);
+    }
+
+    /**
+     * Clamps a double precision floating point value to the range defined by
+     * the given minimum and maximum bounds without boxing any of the values.
+     * @param val the value to clamp
+     * @param min the minimum bound
+     * @param max the maximum bound
+     * @return the clamped value
+     */
+    public static final double clamp(final double val, final double min, final double max) {
+        return val < min ? min : (val > max ? max : val);
+    }
+
     /**
      * Determines whether how near b and c are to a.
      * @param a the value to test against
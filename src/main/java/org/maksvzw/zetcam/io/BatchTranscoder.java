@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import org.maksvzw.zetcam.core.audio.AudioFileType;
+import org.maksvzw.zetcam.core.audio.AudioFormat;
+import org.maksvzw.zetcam.core.audio.AudioSource;
+import org.maksvzw.zetcam.core.audio.FileSink;
+import org.maksvzw.zetcam.core.audio.FilteredAudioInput;
+import org.maksvzw.zetcam.core.audio.OfflineRenderer;
+import org.maksvzw.zetcam.core.audio.ResamplerQuality;
+import org.maksvzw.zetcam.core.audio.filters.AudioFilter;
+import org.maksvzw.zetcam.core.audio.filters.ResamplingFilter;
+import org.maksvzw.zetcam.core.model.AudioSourceProperties;
+import org.maksvzw.zetcam.core.model.AudioSourceSettings;
+import org.maksvzw.zetcam.io.resources.AudioResource;
+
+/**
+ * This class transcodes a batch of audio files to files of a single format.
+ * <p>
+ * Each file is decoded, passed through the filter chain that is built from 
+ * its {@link AudioSourceSettings}, converted by a {@link ResamplingFilter} 
+ * and written by a {@link FileSink}. Files are transcoded in parallel on a 
+ * fixed number of worker threads, since a single file only keeps a single 
+ * core busy. A file that fails to transcode does not stop the batch: its 
+ * error is reported in its result instead.
+ * </p>
+ * @author Lenny Knockaert
+ */
+public final class BatchTranscoder 
+{
+    private final AudioFormat outputFormat;
+    private final AudioFileType outputType;
+    private final int numOfThreads;
+    
+    public BatchTranscoder(final AudioFormat outputFormat, final AudioFileType outputType) {
+        this(outputFormat, outputType, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Creates a new batch transcoder.
+     * @param outputFormat the format to transcode the files to
+     * @param outputType the type of files to write
+     * @param numOfThreads the number of files to transcode in parallel
+     */
+    public BatchTranscoder(
+            final AudioFormat outputFormat, 
+            final AudioFileType outputType, 
+            final int numOfThreads) 
+    {
+        if (outputFormat == null)
+            throw new IllegalArgumentException("No output format has been specified.");
+        if (outputType == null)
+            throw new IllegalArgumentException("No audio file type has been specified.");
+        if (numOfThreads <= 0)
+            throw new IllegalArgumentException("Invalid number of threads has been specified. The value must be larger than zero.");
+        
+        this.outputFormat = outputFormat;
+        this.outputType = outputType;
+        this.numOfThreads = numOfThreads;
+    }
+    
+    public AudioFormat getOutputFormat() {
+        return this.outputFormat;
+    }
+    
+    public AudioFileType getOutputType() {
+        return this.outputType;
+    }
+    
+    public int getNumOfThreads() {
+        return this.numOfThreads;
+    }
+    
+    /**
+     * Finds the files that match the given directory or glob pattern. A 
+     * directory matches all regular files in it. A glob pattern may only 
+     * contain wildcards in its last name element, e.g. "clips/*.mp3".
+     * @param pattern the directory or glob pattern to match
+     * @return the matching files, sorted by path
+     * @throws IOException if the directory could not be listed
+     */
+    public static List<Path> findFiles(final String pattern) throws IOException 
+    {
+        if (pattern == null || pattern.isEmpty())
+            throw new IllegalArgumentException("No file pattern has been specified.");
+        
+        Path dir = Paths.get(pattern);
+        String glob = "*";
+        if (!Files.isDirectory(dir)) {
+            glob = dir.getFileName().toString();
+            dir = dir.getParent() == null ? Paths.get("") : dir.getParent();
+        }
+        
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(
+                dir.toAbsolutePath(), glob)) 
+        {
+            for(Path file : stream)
+                if (Files.isRegularFile(file))
+                    files.add(file);
+        }
+        Collections.sort(files);
+        return files;
+    }
+    
+    /**
+     * Transcodes the given files into the given output directory. This method
+     * blocks until all files have been transcoded.
+     * @param inputFiles the files to transcode
+     * @param outputDir the directory to write the transcoded files to
+     * @param listener the listener that is notified, on the calling thread, 
+     * of the result of each file as soon as it has been transcoded, or null
+     * @return the result of the batch
+     * @throws IllegalArgumentException if any output file would overwrite any
+     * of the input files, in which case no file is transcoded
+     * @throws IOException if the output directory could not be created
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for the files to be transcoded
+     */
+    public BatchResult transcode(
+            final List<Path> inputFiles, 
+            final Path outputDir, 
+            final Consumer<FileResult> listener) 
+            throws IOException, InterruptedException
+    {
+        if (inputFiles == null)
+            throw new IllegalArgumentException("No input files have been specified.");
+        if (outputDir == null)
+            throw new IllegalArgumentException("No output directory has been specified.");
+        
+        Files.createDirectories(outputDir);
+        
+        /* Output files are created while other input files may still have to
+        be read, so none of them can be an input file, e.g. when a directory 
+        of WAV files is transcoded into itself. */
+        final Set<Path> inputPaths = new HashSet<>();
+        for(Path inputFile : inputFiles)
+            inputPaths.add(toRealPath(inputFile));
+        
+        final Set<String> outputNames = new HashSet<>();
+        final List<Path> outputFiles = new ArrayList<>(inputFiles.size());
+        for(Path inputFile : inputFiles) {
+            final Path outputFile = outputDir.resolve(
+                    this.getOutputName(inputFile, outputNames));
+            if (inputPaths.contains(toRealPath(outputFile)))
+                throw new IllegalArgumentException("Invalid output directory has been specified. The output file "+outputFile+" would overwrite an input file.");
+            outputFiles.add(outputFile);
+        }
+        
+        final long startTime = System.nanoTime();
+        final ExecutorService executor = Executors.newFixedThreadPool(this.numOfThreads);
+        final List<FileResult> results = new ArrayList<>(inputFiles.size());
+        
+        try {
+            final CompletionService<FileResult> completion = new ExecutorCompletionService<>(executor);
+            for(int i = 0; i < inputFiles.size(); i++) {
+                final Path inputFile = inputFiles.get(i), outputFile = outputFiles.get(i);
+                completion.submit(() -> this.transcode(inputFile, outputFile));
+            }
+            
+            for(int i = 0; i < inputFiles.size(); i++) {
+                final FileResult result;
+                try {
+                    result = completion.take().get();
+                }
+                catch (ExecutionException ex) {
+                    /* Errors of a file are caught by its task. */
+                    throw new IllegalStateException(ex.getCause());
+                }
+                
+                results.add(result);
+                if (listener != null)
+                    listener.accept(result);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        
+        return new BatchResult(results, Duration.ofNanos(System.nanoTime() - startTime));
+    }
+    
+    /**
+     * Resolves the given file to its real path if it exists, so that links and
+     * relative paths to the same file compare equal.
+     */
+    private static Path toRealPath(final Path file) throws IOException 
+    {
+        return Files.exists(file) 
+                ? file.toRealPath() 
+                : file.toAbsolutePath().normalize();
+    }
+    
+    /**
+     * Gets the name of the output file of the given input file, which is the 
+     * name of the input file with the extension of the output type. Input 
+     * files that would share an output name keep their own extension as well.
+     */
+    private String getOutputName(final Path inputFile, final Set<String> outputNames) 
+    {
+        final String extension = "." + this.outputType.name().toLowerCase();
+        final String fileName = inputFile.getFileName().toString();
+        final int dotIndex = fileName.lastIndexOf('.');
+        
+        String outputName = (dotIndex > 0 ? fileName.substring(0, dotIndex) : fileName) + extension;
+        if (!outputNames.add(outputName)) {
+            outputName = fileName + extension;
+            outputNames.add(outputName);
+        }
+        return outputName;
+    }
+    
+    private FileResult transcode(final Path inputFile, final Path outputFile) 
+    {
+        final long startTime = System.nanoTime();
+        try {
+            final AudioResource resource = new AudioResource(inputFile);
+            final AudioSourceSettings settings = new AudioSourceSettings(
+                    new AudioSourceProperties(
+                            inputFile.toString(),
+                            resource.getCodecName(),
+                            resource.getChannels(),
+                            resource.getSampleRate(),
+                            resource.getSampleFormat(),
+                            resource.getBitRate(),
+                            resource.getStartTime(),
+                            resource.getDuration(),
+                            null));
+            
+            /* The samples are converted to the output format at the end of 
+            the filter chain, so that the sink only has to write them. */
+            final AudioFilter resamplingFilter = new ResamplingFilter(
+                    this.outputFormat, ResamplerQuality.EXPORT);
+            final AudioSource source = new AudioSource(inputFile.toFile());
+            AudioFilter filterChain = settings.buildFilterChain(source);
+            if (filterChain == null) {
+                filterChain = resamplingFilter;
+            }
+            else {
+                AudioFilter lastFilter = filterChain;
+                while(lastFilter.hasNext())
+                    lastFilter = (AudioFilter)lastFilter.next();
+                lastFilter.setNext(resamplingFilter);
+            }
+            
+            final long numOfSamples;
+            try (FilteredAudioInput input = new FilteredAudioInput(source, filterChain);
+                 FileSink sink = new FileSink(outputFile, this.outputFormat, this.outputType)) 
+            {
+                input.addListener(sink);
+                input.open();
+                /* Reading up to the end of the source flushes the filter 
+                chain, so that the resampling filter passes on the samples it
+                still holds back before the sink is closed. */
+                while(input.read())
+                    ;
+                numOfSamples = sink.getNumOfSamples();
+            }
+            
+            return new FileResult(inputFile, outputFile, new OfflineRenderer.Statistics(
+                    this.outputFormat, 
+                    numOfSamples, 
+                    Duration.ofNanos(System.nanoTime() - startTime)), null);
+        }
+        catch (UncheckedIOException ex) {
+            return new FileResult(inputFile, outputFile, null, ex.getCause());
+        }
+        catch (Exception ex) {
+            return new FileResult(inputFile, outputFile, null, ex);
+        }
+    }
+    
+    /**
+     * Holds the result of a single file of a batch.
+     */
+    public static final class FileResult 
+    {
+        private final Path inputFile;
+        private final Path outputFile;
+        private final OfflineRenderer.Statistics statistics;
+        private final Exception error;
+        
+        public FileResult(
+                final Path inputFile, 
+                final Path outputFile, 
+                final OfflineRenderer.Statistics statistics, 
+                final Exception error) 
+        {
+            if (inputFile == null)
+                throw new IllegalArgumentException("No input file has been specified.");
+            if (outputFile == null)
+                throw new IllegalArgumentException("No output file has been specified.");
+            if ((statistics == null) == (error == null))
+                throw new IllegalArgumentException("Either statistics or an error must be specified.");
+            
+            this.inputFile = inputFile;
+            this.outputFile = outputFile;
+            this.statistics = statistics;
+            this.error = error;
+        }
+        
+        public Path getInputFile() {
+            return this.inputFile;
+        }
+        
+        public Path getOutputFile() {
+            return this.outputFile;
+        }
+        
+        public boolean isSuccessful() {
+            return this.error == null;
+        }
+        
+        /**
+         * Gets the statistics of the transcoding of the file.
+         * @return the statistics, or null if the file failed to transcode
+         */
+        public OfflineRenderer.Statistics getStatistics() {
+            return this.statistics;
+        }
+        
+        /**
+         * Gets the error that caused the file to fail to transcode.
+         * @return the error, or null if the file has been transcoded
+         */
+        public Exception getError() {
+            return this.error;
+        }
+        
+        @Override
+        public String toString() 
+        {
+            if (this.error != null)
+                return this.inputFile + ": FAILED (" + this.error + ")";
+            return this.inputFile + ": " + this.statistics;
+        }
+    }
+    
+    /**
+     * Holds the results of all files of a batch.
+     */
+    public static final class BatchResult 
+    {
+        private final List<FileResult> results;
+        private final Duration elapsedTime;
+        
+        public BatchResult(final List<FileResult> results, final Duration elapsedTime) 
+        {
+            if (results == null)
+                throw new IllegalArgumentException("No file results have been specified.");
+            if (elapsedTime == null)
+                throw new IllegalArgumentException("No elapsed time has been specified.");
+            
+            this.results = Collections.unmodifiableList(new ArrayList<>(results));
+            this.elapsedTime = elapsedTime;
+        }
+        
+        /**
+         * Gets the results of all files, in the order in which they have been
+         * transcoded.
+         */
+        public List<FileResult> getResults() {
+            return this.results;
+        }
+        
+        public int getNumOfFailures() 
+        {
+            int numOfFailures = 0;
+            for(FileResult result : this.results)
+                if (!result.isSuccessful())
+                    numOfFailures++;
+            return numOfFailures;
+        }
+        
+        /**
+         * Gets the wall clock time it took to transcode the batch.
+         */
+        public Duration getElapsedTime() {
+            return this.elapsedTime;
+        }
+        
+        /**
+         * Gets the total duration of the audio of all transcoded files.
+         */
+        public Duration getTranscodedDuration() 
+        {
+            Duration duration = Duration.ZERO;
+            for(FileResult result : this.results)
+                if (result.isSuccessful())
+                    duration = duration.plus(result.getStatistics().getRenderedDuration());
+            return duration;
+        }
+        
+        /**
+         * Gets the number of seconds of audio that have been transcoded per 
+         * second of wall clock time, over all files together.
+         */
+        public double getRealtimeFactor() 
+        {
+            final long elapsedNanos = Math.max(1, this.elapsedTime.toNanos());
+            return (double)this.getTranscodedDuration().toNanos() / elapsedNanos;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%d files (%d failed), %.3f s of audio in %.3f s, %.1fx realtime", 
+                    this.results.size(), 
+                    this.getNumOfFailures(), 
+                    this.getTranscodedDuration().toMillis() / 1000.0, 
+                    this.elapsedTime.toMillis() / 1000.0, 
+                    this.getRealtimeFactor());
+        }
+    }
+}
@@ -19,12 +19,18 @@
 package org.maksvzw.zetcam.io;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
+import org.maksvzw.zetcam.core.audio.AudioSeekIndex;
+import org.maksvzw.zetcam.core.audio.WaveformPyramid;
 import org.maksvzw.zetcam.io.resources.AudioResource;
 import org.maksvzw.zetcam.io.resources.ImageResource;
 import org.maksvzw.zetcam.core.utils.Disposable;
@@ -40,6 +46,8 @@ public final class PersistenceManager extends Disposable
     private static final String RESOURCE_DIR = "resources/";
     private static final String AUDIO_RESOURCE_DIR = "resources/audio/";
     private static final String IMAGE_RESOURCE_DIR = "resources/image/";
+    private static final String SEEK_INDEX_EXTENSION = ".idx";
+    private static final String WAVEFORM_EXTENSION = ".wave";
     
     private final Path projectPath;
     private final FileSystem projectFileSystem;
@@ -92,6 +100,88 @@ public final class PersistenceManager extends Disposable
         return null;
     }
     
+    /**
+     * Loads the seek index that has been stored alongside the audio resource
+     * with the given name.
+     * @param name the name of the audio resource
+     * @return the seek index, or null if none has been stored
+     * @throws IOException if the seek index could not be read
+     */
+    public AudioSeekIndex getAudioSeekIndex(String name) throws IOException {
+        return (AudioSeekIndex)this.readAudioObject(name, SEEK_INDEX_EXTENSION);
+    }
+    
+    /**
+     * Stores the given seek index alongside the audio resource with the given
+     * name, replacing any seek index that has been stored before.
+     * @param name the name of the audio resource
+     * @param seekIndex the seek index to store
+     * @throws IOException if the seek index could not be written
+     */
+    public void saveAudioSeekIndex(String name, AudioSeekIndex seekIndex) throws IOException
+    {
+        if (seekIndex == null)
+            throw new IllegalArgumentException("No seek index has been specified.");
+        
+        this.writeAudioObject(name, SEEK_INDEX_EXTENSION, seekIndex);
+    }
+    
+    /**
+     * Loads the waveform that has been stored alongside the audio resource 
+     * with the given name.
+     * @param name the name of the audio resource
+     * @return the waveform, or null if none has been stored
+     * @throws IOException if the waveform could not be read
+     */
+    public WaveformPyramid getAudioWaveform(String name) throws IOException {
+        return (WaveformPyramid)this.readAudioObject(name, WAVEFORM_EXTENSION);
+    }
+    
+    /**
+     * Stores the given waveform alongside the audio resource with the given
+     * name, replacing any waveform that has been stored before.
+     * @param name the name of the audio resource
+     * @param waveform the waveform to store
+     * @throws IOException if the waveform could not be written
+     */
+    public void saveAudioWaveform(String name, WaveformPyramid waveform) throws IOException
+    {
+        if (waveform == null)
+            throw new IllegalArgumentException("No waveform has been specified.");
+        
+        this.writeAudioObject(name, WAVEFORM_EXTENSION, waveform);
+    }
+    
+    private Object readAudioObject(String name, String extension) throws IOException
+    {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("No resource name has been specified.");
+        
+        final Path objectPath = this.projectFileSystem.getPath(AUDIO_RESOURCE_DIR, name + extension);
+        if (!Files.exists(objectPath))
+            return null;
+        
+        try (InputStream inputStream = Files.newInputStream(objectPath);
+             ObjectInputStream objectStream = new ObjectInputStream(inputStream)) {
+            return objectStream.readObject();
+        } 
+        catch (ClassNotFoundException ex) {
+            throw new IOException(ex);
+        }
+    }
+    
+    private void writeAudioObject(String name, String extension, Object obj) throws IOException
+    {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("No resource name has been specified.");
+        
+        final Path objectPath = this.projectFileSystem.getPath(AUDIO_RESOURCE_DIR, name + extension);
+        try (OutputStream outputStream = Files.newOutputStream(objectPath);
+             ObjectOutputStream objectStream = new ObjectOutputStream(outputStream)) {
+            objectStream.writeObject(obj);
+        }
+    }
+    
     @Override
     protected void release() throws IOException {
         this.projectFileSystem.close();
@@ -27,6 +27,14 @@ import java.nio.file.Path;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.maksvzw.zetcam.core.audio.AudioFormat;
+import org.maksvzw.zetcam.core.audio.AudioInput;
+import org.maksvzw.zetcam.core.audio.AudioSeekIndex;
+import org.maksvzw.zetcam.core.audio.AudioSource;
+import org.maksvzw.zetcam.core.audio.WaveformPyramid;
+import org.maksvzw.zetcam.core.audio.WaveformSink;
 import org.maksvzw.zetcam.io.resources.AudioResource;
 import org.maksvzw.zetcam.io.resources.ImageFileResource;
 import org.maksvzw.zetcam.io.resources.ImageResource;
@@ -39,15 +47,33 @@ import org.maksvzw.zetcam.core.utils.Disposable;
  */
 public final class ResourceManager extends Disposable
 {
+    private static final Logger LOGGER = Logger.getLogger(ResourceManager.class.getName());
+    
+    private final PersistenceManager persistenceManager;
     private final ConcurrentMap<String, ImageResource> imageResourceCache;
     private final ConcurrentMap<String, AudioResource> audioResourceCache;
+    private final ConcurrentMap<String, AudioSeekIndex> seekIndexCache;
+    private final ConcurrentMap<String, WaveformPyramid> waveformCache;
     private final Cache<String, BufferedImage> imageCache;
     private final Cache<String, BufferedImage> thumbNailCache;
 
-    public ResourceManager()
+    public ResourceManager() {
+        this(null);
+    }
+    
+    /**
+     * Creates a new resource manager.
+     * @param persistenceManager the persistence manager that derived data of
+     * audio resources, such as seek indexes, is loaded from and saved to, or
+     * null if it is only kept in memory
+     */
+    public ResourceManager(PersistenceManager persistenceManager)
     {
+        this.persistenceManager = persistenceManager;
         this.imageResourceCache = new ConcurrentHashMap<>();
         this.audioResourceCache = new ConcurrentHashMap<>();
+        this.seekIndexCache = new ConcurrentHashMap<>();
+        this.waveformCache = new ConcurrentHashMap<>();
         
         this.imageCache = CacheBuilder.newBuilder()
                         .maximumSize(128)
@@ -123,6 +149,215 @@ public final class ResourceManager extends Disposable
         return resource;
     }
 
+    /**
+     * Creates an audio source that reads the audio resource with the given 
+     * name. The source seeks by the seek index of the resource, which is 
+     * loaded from the persistence manager if it has not been loaded yet. 
+     * <p>
+     * If the resource has no seek index or waveform yet, they are built while
+     * the source is decoded in full for the first time, so that the resource 
+     * does not have to be decoded for them separately. Both are then kept and
+     * saved.
+     * </p>
+     * @param name the name of the audio resource
+     * @return the audio source, which has not been opened yet
+     */
+    public AudioSource openAudioSource(String name) 
+    {
+        final AudioResource resource = this.getAudioResource(name);
+        if (resource == null)
+            throw new IllegalArgumentException("No audio resource with the specified name exists.");
+        
+        final AudioSource source = new AudioSource(resource.getPath().toFile());
+        source.setSeekIndex(this.loadAudioSeekIndex(name));
+        
+        final WaveformSink waveformSink = this.loadAudioWaveform(name) == null 
+                ? new WaveformSink(resource.getFormat()) 
+                : null;
+        if (waveformSink != null)
+            source.addListener(waveformSink);
+        
+        source.setFullDecodeListener(seekIndex -> {
+            if (this.seekIndexCache.get(name) != seekIndex)
+                this.saveAudioSeekIndex(name, seekIndex);
+            
+            if (waveformSink != null && !waveformSink.isClosed()) {
+                source.removeListener(waveformSink);
+                this.saveAudioWaveform(name, waveformSink.build());
+                waveformSink.close();
+            }
+        });
+        return source;
+    }
+    
+    /**
+     * Creates an audio input that reads the audio resource with the given 
+     * name, e.g. to link it to a mixer for previewing. The PCM cache of the 
+     * resource is read if it has one, which requires no decoding at all and
+     * seeks sample-accurately in constant time, otherwise the resource itself
+     * is decoded by an audio source, see {@link #openAudioSource(String)}.
+     * @param name the name of the audio resource
+     * @return the audio input, which has not been opened yet
+     */
+    public AudioInput openAudioInput(String name) 
+    {
+        final AudioResource resource = this.getAudioResource(name);
+        if (resource == null)
+            throw new IllegalArgumentException("No audio resource with the specified name exists.");
+        
+        final AudioInput input = resource.openPcmSource();
+        return input != null ? input : this.openAudioSource(name);
+    }
+    
+    /**
+     * Decodes the audio resource with the given name into a PCM cache file, 
+     * which is read by {@link #openAudioInput(String)} from then on. The seek
+     * index and waveform of the resource are built by the same decode if the
+     * resource has none yet.
+     * @param name the name of the audio resource
+     * @param cachePath the path of the PCM cache file
+     * @param audioFormat the format to cache the audio in, which is converted
+     * to the processing format
+     * @throws IOException if the PCM cache file could not be written
+     */
+    public void createAudioCache(String name, Path cachePath, AudioFormat audioFormat) 
+            throws IOException
+    {
+        final AudioResource resource = this.getAudioResource(name);
+        if (resource == null)
+            throw new IllegalArgumentException("No audio resource with the specified name exists.");
+        
+        try (AudioSource source = this.openAudioSource(name)) {
+            resource.createPcmCache(source, cachePath, audioFormat);
+        }
+    }
+    
+    private AudioSeekIndex loadAudioSeekIndex(String name) 
+    {
+        AudioSeekIndex seekIndex = this.seekIndexCache.get(name);
+        if (seekIndex != null || this.persistenceManager == null)
+            return seekIndex;
+        
+        try {
+            seekIndex = this.persistenceManager.getAudioSeekIndex(name);
+        } 
+        catch (IOException ex) {
+            /* The index only speeds up seeking, so it can be built again. */
+            LOGGER.log(Level.WARNING, "The seek index of audio resource " + name + " could not be loaded.", ex);
+            return null;
+        }
+        
+        if (seekIndex != null)
+            this.seekIndexCache.putIfAbsent(name, seekIndex);
+        return seekIndex;
+    }
+    
+    private void saveAudioSeekIndex(String name, AudioSeekIndex seekIndex) 
+    {
+        this.setAudioSeekIndex(name, seekIndex);
+        if (this.persistenceManager == null)
+            return;
+        
+        try {
+            this.persistenceManager.saveAudioSeekIndex(name, seekIndex);
+        } 
+        catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "The seek index of audio resource " + name + " could not be saved.", ex);
+        }
+    }
+    
+    private WaveformPyramid loadAudioWaveform(String name) 
+    {
+        WaveformPyramid waveform = this.waveformCache.get(name);
+        if (waveform != null || this.persistenceManager == null)
+            return waveform;
+        
+        try {
+            waveform = this.persistenceManager.getAudioWaveform(name);
+        } 
+        catch (IOException ex) {
+            /* The waveform can be built again from the resource. */
+            LOGGER.log(Level.WARNING, "The waveform of audio resource " + name + " could not be loaded.", ex);
+            return null;
+        }
+        
+        if (waveform != null)
+            this.waveformCache.putIfAbsent(name, waveform);
+        return waveform;
+    }
+    
+    private void saveAudioWaveform(String name, WaveformPyramid waveform) 
+    {
+        this.setAudioWaveform(name, waveform);
+        if (this.persistenceManager == null)
+            return;
+        
+        try {
+            this.persistenceManager.saveAudioWaveform(name, waveform);
+        } 
+        catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "The waveform of audio resource " + name + " could not be saved.", ex);
+        }
+    }
+
+    /**
+     * Gets the seek index of the audio resource with the given name.
+     * @param name the name of the audio resource
+     * @return the seek index, or null if none has been built for the resource
+     */
+    public AudioSeekIndex getAudioSeekIndex(String name) 
+    {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("No resource name has been specified.");
+        
+        return this.seekIndexCache.get(name);
+    }
+    
+    /**
+     * Sets the seek index of the audio resource with the given name, so that
+     * any audio source of the resource can seek without indexing it again.
+     * @param name the name of the audio resource
+     * @param seekIndex the seek index of the resource
+     */
+    public void setAudioSeekIndex(String name, AudioSeekIndex seekIndex) 
+    {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("No resource name has been specified.");
+        if (seekIndex == null)
+            throw new IllegalArgumentException("No seek index has been specified.");
+        
+        this.seekIndexCache.put(name, seekIndex);
+    }
+    
+    /**
+     * Gets the waveform of the audio resource with the given name.
+     * @param name the name of the audio resource
+     * @return the waveform, or null if none has been built for the resource
+     */
+    public WaveformPyramid getAudioWaveform(String name) 
+    {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("No resource name has been specified.");
+        
+        return this.waveformCache.get(name);
+    }
+    
+    /**
+     * Sets the waveform of the audio resource with the given name, so that it
+     * can be drawn at any zoom level without decoding the resource again.
+     * @param name the name of the audio resource
+     * @param waveform the waveform of the resource
+     */
+    public void setAudioWaveform(String name, WaveformPyramid waveform) 
+    {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("No resource name has been specified.");
+        if (waveform == null)
+            throw new IllegalArgumentException("No waveform has been specified.");
+        
+        this.waveformCache.put(name, waveform);
+    }
+
     public void invalidateResource(String name) 
     {
         if (name == null || name.isEmpty())
@@ -132,6 +367,8 @@ public final class ResourceManager extends Disposable
         this.thumbNailCache.invalidate(name);
         this.imageResourceCache.remove(name);
         this.audioResourceCache.remove(name);
+        this.seekIndexCache.remove(name);
+        this.waveformCache.remove(name);
     }
     
     public void invalidateAllImageResources() 
@@ -141,8 +378,11 @@ public final class ResourceManager extends Disposable
         this.imageResourceCache.clear();
     }
     
-    public void invalidateAllAudioResources() {
+    public void invalidateAllAudioResources() 
+    {
         this.audioResourceCache.clear();
+        this.seekIndexCache.clear();
+        this.waveformCache.clear();
     }
     
     public void invalidateAll() 
@@ -37,6 +37,9 @@ import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import org.maksvzw.zetcam.core.audio.AudioFormat;
+import org.maksvzw.zetcam.core.audio.AudioSource;
+import org.maksvzw.zetcam.core.audio.MappedPcmSource;
+import org.maksvzw.zetcam.core.audio.PcmCacheWriter;
 import org.maksvzw.zetcam.core.MediaType;
 
 /**
@@ -53,11 +56,12 @@ public final class AudioResource extends MediaResource
     private final int bitRateTolerance;
     private final Duration startTime;
     private final Duration duration;
+    private Path pcmCachePath;
     
     public AudioResource(final Path audioPath) 
             throws FileNotFoundException, Exception
     {
-        super(audioPath.getFileName().toString().split(".")[0]);
+        super(audioPath.getFileName().toString().split("\\.")[0]);
         
         if (audioPath == null)
             throw new IllegalArgumentException("No audio file path has been specified.");
@@ -174,6 +178,83 @@ public final class AudioResource extends MediaResource
         return this.duration;
     }
     
+    /**
+     * Gets the path of the PCM cache file of this audio resource.
+     * @return the path of the PCM cache file, or null if this audio resource
+     * has no PCM cache
+     */
+    public final Path getPcmCachePath() {
+        return this.pcmCachePath;
+    }
+    
+    public final boolean hasPcmCache() {
+        return this.pcmCachePath != null && Files.isRegularFile(this.pcmCachePath);
+    }
+    
+    /**
+     * Decodes this audio resource once into a PCM cache file, so that it can
+     * be read through {@link #openPcmSource()} without decoding it again.
+     * @param cachePath the path of the PCM cache file, which must be on the 
+     * default file system in order to be mapped into memory
+     * @param audioFormat the format to cache the audio in, which is converted
+     * to the processing format
+     * @throws IOException if the PCM cache file could not be written
+     */
+    public void createPcmCache(Path cachePath, AudioFormat audioFormat) throws IOException
+    {
+        try (AudioSource source = new AudioSource(this.resourcePath.toFile())) {
+            this.createPcmCache(source, cachePath, audioFormat);
+        }
+    }
+    
+    /**
+     * Decodes this audio resource once into a PCM cache file by reading the 
+     * given audio source of it in full, so that anything else that listens to
+     * the source, such as a waveform builder, is served by the same decode.
+     * @param source the audio source of this resource, which is left open
+     * @param cachePath the path of the PCM cache file, which must be on the 
+     * default file system in order to be mapped into memory
+     * @param audioFormat the format to cache the audio in, which is converted
+     * to the processing format
+     * @throws IOException if the PCM cache file could not be written
+     */
+    public void createPcmCache(AudioSource source, Path cachePath, AudioFormat audioFormat) throws IOException
+    {
+        if (source == null)
+            throw new IllegalArgumentException("No audio source has been specified.");
+        if (cachePath == null)
+            throw new IllegalArgumentException("No cache file path has been specified.");
+        
+        PcmCacheWriter.write(source, cachePath, audioFormat);
+        this.pcmCachePath = cachePath;
+    }
+    
+    /**
+     * Removes the PCM cache file of this audio resource, if any.
+     * @throws IOException if the PCM cache file could not be deleted
+     */
+    public void deletePcmCache() throws IOException
+    {
+        if (this.pcmCachePath == null)
+            return;
+        
+        Files.deleteIfExists(this.pcmCachePath);
+        this.pcmCachePath = null;
+    }
+    
+    /**
+     * Creates an audio source that reads the PCM cache of this audio resource.
+     * @return the audio source, or null if this audio resource has no PCM 
+     * cache
+     */
+    public MappedPcmSource openPcmSource() 
+    {
+        if (!this.hasPcmCache())
+            return null;
+        
+        return new MappedPcmSource(this.pcmCachePath);
+    }
+    
     @Override
     public void copy(Path targetPath) throws IOException 
     {
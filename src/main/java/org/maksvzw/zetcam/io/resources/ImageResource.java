@@ -27,6 +27,8 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import org.maksvzw.zetcam.core.MediaType;
 import org.maksvzw.zetcam.core.images.Image;
+import org.maksvzw.zetcam.core.metrics.MediaEvents;
+import org.maksvzw.zetcam.core.metrics.MediaStage;
 
 /**
  *
@@ -70,7 +72,13 @@ public abstract class ImageResource extends MediaResource
         return this.imageCache.get(this.getName(), new Callable() { 
             @Override
             public BufferedImage call() throws IOException {
-                return loadImage();
+                /* Only a cache miss actually decodes the image. */
+                final MediaEvents.BlockEvent event = MediaEvents.begin(MediaStage.DECODE);
+                final BufferedImage image = loadImage();
+                if (event != null && image != null)
+                    MediaEvents.end(event, getName(), MediaType.IMAGE, 
+                            (long)image.getWidth() * image.getHeight(), 0);
+                return image;
             }
         });
     }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import com.xuggle.xuggler.IAudioSamples;
+import com.xuggle.xuggler.IAudioSamples.Format;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.Test;
+import org.maksvzw.zetcam.core.metrics.MediaMetrics;
+
+/**
+ *
+ * @author Lenny Knockaert
+ */
+public class AudioSamplesPoolTest 
+{
+    private static final AudioFormat STEREO = new AudioFormat(44100, Format.FMT_FLT, 2);
+    private static final AudioFormat MONO = new AudioFormat(44100, Format.FMT_FLT, 1);
+    
+    @Test
+    public void testCapacityIsRoundedUpToPowerOfTwo() 
+    {
+        final AudioSamplesPool pool = new AudioSamplesPool(4);
+        final IAudioSamples samples = pool.acquire(STEREO, 1000, 0);
+        try {
+            assertEquals(1000, samples.getNumSamples());
+            assertEquals(1024, Integer.highestOneBit((int)samples.getMaxSamples()));
+        } finally {
+            samples.delete();
+        }
+    }
+    
+    @Test
+    public void testSamplesOfTheSameBucketAreReused() 
+    {
+        final AudioSamplesPool pool = new AudioSamplesPool(4);
+        final LongAdder allocations = MediaMetrics.getInstance().counter(MediaMetrics.BUFFER_ALLOCATIONS);
+        
+        final IAudioSamples samples = pool.acquire(STEREO, 1000, 0);
+        pool.release(samples);
+        
+        final long numOfAllocations = allocations.sum();
+        final IAudioSamples reused = pool.acquire(STEREO, 600, 4410);
+        assertSame(samples, reused);
+        assertEquals(numOfAllocations, allocations.sum());
+        assertEquals(600, reused.getNumSamples());
+        assertEquals(4410, reused.getTimeStamp());
+        assertEquals(100000, reused.getPts());
+        assertEquals(44100, reused.getSampleRate());
+        assertEquals(2, reused.getChannels());
+        
+        pool.release(reused);
+        pool.clear();
+    }
+    
+    @Test
+    public void testSamplesOfAnotherBucketAreNotReused() 
+    {
+        final AudioSamplesPool pool = new AudioSamplesPool(4);
+        final IAudioSamples samples = pool.acquire(STEREO, 1000, 0);
+        pool.release(samples);
+        
+        /* Both a larger capacity and another format map to another bucket. */
+        final IAudioSamples larger = pool.acquire(STEREO, 1500, 0);
+        final IAudioSamples mono = pool.acquire(MONO, 1000, 0);
+        assertNotSame(samples, larger);
+        assertNotSame(samples, mono);
+        assertEquals(2048, Integer.highestOneBit((int)larger.getMaxSamples()));
+        
+        larger.delete();
+        mono.delete();
+        pool.clear();
+    }
+    
+    @Test
+    public void testBucketsAreBounded() 
+    {
+        final AudioSamplesPool pool = new AudioSamplesPool(1);
+        final IAudioSamples first = pool.acquire(STEREO, 1000, 0);
+        final IAudioSamples second = pool.acquire(STEREO, 1000, 0);
+        pool.release(first);
+        pool.release(second);
+        
+        /* The second samples have been deleted, as the bucket was full. */
+        final IAudioSamples samples = pool.acquire(STEREO, 1000, 0);
+        final IAudioSamples allocated = pool.acquire(STEREO, 1000, 0);
+        assertSame(first, samples);
+        assertNotSame(second, allocated);
+        
+        samples.delete();
+        allocated.delete();
+    }
+}
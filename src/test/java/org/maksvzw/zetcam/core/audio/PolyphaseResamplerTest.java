@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lenny Knockaert
+ */
+public class PolyphaseResamplerTest 
+{
+    private static final int[][] RATES = {
+        { 44100, 48000 }, { 48000, 44100 }, { 22050, 44100 }, { 44100, 8000 }
+    };
+    
+    /**
+     * Resamples the given interleaved input in blocks of varying size and 
+     * flushes the resampler.
+     * @return the number of output samples (per channel)
+     */
+    private static int resample(
+            final PolyphaseResampler resampler, final float[] src, 
+            final int numOfSamples, final float[] dst) 
+    {
+        final int channels = resampler.getChannels();
+        int offset = 0, total = 0, blockSize = 1;
+        while (offset < numOfSamples) {
+            final int length = Math.min(blockSize, numOfSamples - offset);
+            final float[] block = Arrays.copyOfRange(src, offset * channels, (offset + length) * channels);
+            total += resampler.resample(block, 0, length, dst, total, resampler.getMaxOutputSamples(length));
+            offset += length;
+            blockSize = blockSize * 3 % 997 + 1;
+        }
+        return total + resampler.flush(dst, total, resampler.getMaxFlushSamples());
+    }
+    
+    private static int getExpectedLength(final int numOfSamples, final int[] rates) {
+        return (int)(((long)numOfSamples * rates[1] + rates[0] - 1) / rates[0]);
+    }
+    
+    @Test
+    public void testLength() 
+    {
+        final int numOfSamples = 10000;
+        for(int[] rates : RATES) {
+            for(ResamplerQuality quality : ResamplerQuality.values()) {
+                final PolyphaseResampler resampler = new PolyphaseResampler(2, rates[0], rates[1], quality);
+                final float[] dst = new float[2 * 2 * numOfSamples * 6];
+                final int length = resample(resampler, new float[2 * numOfSamples], numOfSamples, dst);
+                assertEquals(rates[0] + " -> " + rates[1] + " " + quality, 
+                        getExpectedLength(numOfSamples, rates), length);
+            }
+        }
+    }
+    
+    @Test
+    public void testDcGain() 
+    {
+        final int numOfSamples = 10000;
+        final float[] src = new float[2 * numOfSamples];
+        Arrays.fill(src, 0.5f);
+        
+        for(int[] rates : RATES) {
+            for(ResamplerQuality quality : ResamplerQuality.values()) {
+                final PolyphaseResampler resampler = new PolyphaseResampler(2, rates[0], rates[1], quality);
+                final float[] dst = new float[2 * numOfSamples * 6];
+                final int length = resample(resampler, src, numOfSamples, dst);
+                
+                /* Skip the samples that the filter overlaps with the silence 
+                before and after the signal. */
+                final int margin = quality.getTaps() * rates[1] / Math.min(rates[0], rates[1]) + 1;
+                for(int i = margin; i < length - margin; i++)
+                    assertEquals(rates[0] + " -> " + rates[1] + " " + quality + " at " + i, 
+                            0.5f, dst[i * 2], 1e-3f);
+            }
+        }
+    }
+    
+    @Test
+    public void testDownsamplingRejectsAliases() 
+    {
+        /* A tone above the Nyquist frequency of the output rate would fold 
+        back into the pass band if the filters were not stretched. */
+        final int inputRate = 44100, outputRate = 8000, numOfSamples = 44100;
+        final float[] src = new float[numOfSamples];
+        for(int i = 0; i < numOfSamples; i++)
+            src[i] = (float)Math.sin(2 * Math.PI * 6000 * i / inputRate);
+        
+        for(ResamplerQuality quality : ResamplerQuality.values()) {
+            final PolyphaseResampler resampler = new PolyphaseResampler(1, inputRate, outputRate, quality);
+            final float[] dst = new float[resampler.getMaxOutputSamples(numOfSamples)];
+            final int length = resampler.resample(src, 0, numOfSamples, dst, 0, dst.length);
+            
+            for(int i = 1000; i < length - 1000; i++)
+                assertEquals(quality + " at " + i, 0.0f, dst[i], 1e-2f);
+        }
+    }
+    
+    @Test
+    public void testNoTailLoss() 
+    {
+        /* A signal that only starts at the end of the input has to show up 
+        in the output, which the resampler holds back until it is flushed. */
+        final int numOfSamples = 2000, numOfSilentSamples = 1900;
+        final float[] src = new float[numOfSamples];
+        Arrays.fill(src, numOfSilentSamples, numOfSamples, 0.5f);
+        
+        for(int[] rates : RATES) {
+            final PolyphaseResampler resampler = new PolyphaseResampler(1, rates[0], rates[1], ResamplerQuality.EXPORT);
+            final float[] dst = new float[numOfSamples * 6];
+            
+            final int resampled = resampler.resample(src, 0, numOfSamples, dst, 0, resampler.getMaxOutputSamples(numOfSamples));
+            final int flushed = resampler.flush(dst, resampled, resampler.getMaxFlushSamples());
+            assertTrue(flushed > 0);
+            assertEquals(getExpectedLength(numOfSamples, rates), resampled + flushed);
+            
+            /* Only the very last samples fade out, as the filter overlaps 
+            with the silence after the signal. */
+            final int length = resampled + flushed;
+            final int start = length - getExpectedLength(numOfSamples - numOfSilentSamples, rates) / 2;
+            assertEquals(0.5f, dst[start], 1e-3f);
+            for(int i = start; i < length; i++)
+                assertTrue(rates[0] + " -> " + rates[1] + " at " + i, dst[i] > 0.2f);
+        }
+    }
+    
+    @Test
+    public void testQualityChangeKeepsSignal() 
+    {
+        final int inputRate = 44100, outputRate = 48000, numOfSamples = 512;
+        final ResamplerQuality[] qualities = ResamplerQuality.values();
+        PolyphaseResampler resampler = new PolyphaseResampler(1, inputRate, outputRate, ResamplerQuality.EXPORT);
+        
+        final float[] src = new float[numOfSamples];
+        final float[] dst = new float[numOfSamples * 100];
+        int total = 0;
+        for(int b = 0; b < 90; b++) {
+            for(int i = 0; i < numOfSamples; i++)
+                src[i] = (float)Math.sin(2 * Math.PI * 440 * (b * numOfSamples + i) / inputRate);
+            if (b % 10 == 5)
+                resampler = resampler.withQuality(qualities[b % qualities.length]);
+            total += resampler.resample(src, 0, numOfSamples, dst, total, resampler.getMaxOutputSamples(numOfSamples));
+        }
+        
+        for(int i = 64; i < total - 64; i++)
+            assertEquals("at " + i, Math.sin(2 * Math.PI * 440 * i / outputRate), dst[i], 1e-2);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio.buffers.fifo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import com.xuggle.xuggler.IAudioSamples;
+import com.xuggle.xuggler.IAudioSamples.Format;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.FloatBuffer;
+import org.junit.Test;
+import org.maksvzw.zetcam.core.audio.Audio;
+import org.maksvzw.zetcam.core.audio.AudioFormat;
+
+/**
+ *
+ * @author Lenny Knockaert
+ */
+public class AudioSampleFifoBufferTest 
+{
+    private static final AudioFormat STEREO = new AudioFormat(44100, Format.FMT_FLT, 2);
+    
+    /**
+     * Allocates audio samples that hold a ramp of the given number of samples
+     * (per channel), starting at the given value.
+     */
+    private static IAudioSamples createRamp(final int numOfSamples, final float start) 
+    {
+        final IAudioSamples samples = Audio.allocateSamples(STEREO, numOfSamples);
+        final FloatBuffer data = Audio.getByteBuffer(samples).asFloatBuffer();
+        for(int i = 0; i < numOfSamples; i++) {
+            data.put(start + i);
+            data.put(start + i);
+        }
+        return samples;
+    }
+    
+    private static void assertRamp(final IAudioSamples samples, final int numOfSamples, final float start) 
+    {
+        final FloatBuffer data = Audio.getByteBuffer(samples).asFloatBuffer();
+        for(int i = 0; i < numOfSamples; i++) {
+            assertEquals(start + i, data.get(2 * i), 0.0f);
+            assertEquals(start + i, data.get(2 * i + 1), 0.0f);
+        }
+    }
+    
+    @Test(expected = BufferOverflowException.class)
+    public void testWriteBeyondMaxCapacityIsRejected() 
+    {
+        final IAudioSamples samples = createRamp(100, 0);
+        try (AudioSampleFifoBuffer<?> fifo = AudioSampleFifoBuffer.allocate(STEREO, 64)) {
+            fifo.setMaxCapacity(128);
+            fifo.put(samples, 0, 100);
+            assertEquals(100, fifo.delay());
+            assertEquals(28, fifo.remainingCapacity());
+            assertTrue(fifo.capacity() <= 128);
+            
+            fifo.put(samples, 0, 29);
+        } finally {
+            samples.delete();
+        }
+    }
+    
+    @Test(expected = BufferUnderflowException.class)
+    public void testReadBeyondDelayIsRejected() 
+    {
+        final IAudioSamples samples = createRamp(10, 0);
+        try (AudioSampleFifoBuffer<?> fifo = AudioSampleFifoBuffer.allocate(STEREO, 64)) {
+            fifo.put(samples, 0, 10);
+            fifo.get(samples, 0, 5);
+            fifo.get(samples, 0, 6);
+        } finally {
+            samples.delete();
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxCapacityBelowInitialCapacityIsRejected() 
+    {
+        try (AudioSampleFifoBuffer<?> fifo = AudioSampleFifoBuffer.allocate(STEREO, 64)) {
+            fifo.setMaxCapacity(fifo.capacity() - 1);
+        }
+    }
+    
+    @Test
+    public void testShrinksAfterBurst() 
+    {
+        final IAudioSamples burst = createRamp(4000, 0);
+        final IAudioSamples dst = Audio.allocateSamples(STEREO, 4000);
+        try (AudioSampleFifoBuffer<?> fifo = AudioSampleFifoBuffer.allocate(STEREO, 64)) {
+            final int initialCapacity = fifo.capacity();
+            fifo.put(burst, 0, 4000);
+            assertTrue(fifo.capacity() >= 4000);
+            
+            /* Remaining samples survive every shrink in order. */
+            fifo.get(dst, 0, 3990);
+            assertRamp(dst, 3990, 0);
+            for(int i = 0; i < 10; i++) {
+                fifo.get(dst, 0, 1);
+                assertRamp(dst, 1, 3990 + i);
+            }
+            
+            /* Keep the buffer mostly empty for a while. */
+            for(int i = 0; i < 1000; i++) {
+                fifo.put(burst, 0, 10);
+                fifo.get(dst, 0, 10);
+                assertRamp(dst, 10, 0);
+            }
+            assertEquals(initialCapacity, fifo.capacity());
+        } finally {
+            burst.delete();
+            dst.delete();
+        }
+    }
+    
+    @Test
+    public void testShrinksToMaxCapacity() 
+    {
+        final IAudioSamples burst = createRamp(4000, 0);
+        final IAudioSamples dst = Audio.allocateSamples(STEREO, 4000);
+        try (AudioSampleFifoBuffer<?> fifo = AudioSampleFifoBuffer.allocate(STEREO, 64)) {
+            fifo.put(burst, 0, 4000);
+            fifo.get(dst, 0, 3990);
+            
+            /* A buffer beyond its maximum capacity shrinks on the next read. */
+            fifo.setMaxCapacity(1024);
+            fifo.get(dst, 0, 1);
+            assertTrue(fifo.capacity() <= 1024);
+            assertEquals(9, fifo.delay());
+            fifo.get(dst, 0, 9);
+            assertRamp(dst, 9, 3991);
+        } finally {
+            burst.delete();
+            dst.delete();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 Lenny Knockaert <lknockx@gmail.com>
+ *
+ * This file is part of ZetCam
+ *
+ * ZetCam is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZetCam is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.maksvzw.zetcam.core.audio.buffers.fifo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import com.xuggle.xuggler.IAudioSamples.Format;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import org.maksvzw.zetcam.core.audio.AudioFormat;
+
+/**
+ *
+ * @author Lenny Knockaert
+ */
+public class AudioSampleRingBufferTest 
+{
+    private static final AudioFormat STEREO = new AudioFormat(44100, Format.FMT_FLT, 2);
+    
+    @Test
+    public void testCapacityIsPowerOfTwo() 
+    {
+        assertEquals(1024, new AudioSampleRingBuffer(STEREO, 1000).capacity());
+        assertEquals(1024, new AudioSampleRingBuffer(STEREO, 1024).capacity());
+        assertEquals(2048, new AudioSampleRingBuffer(STEREO, 1025).capacity());
+    }
+    
+    @Test
+    public void testWriteStopsWhenFull() 
+    {
+        final AudioSampleRingBuffer buffer = new AudioSampleRingBuffer(STEREO, 16);
+        assertEquals(16, buffer.write(new float[2 * 20], 0, 20));
+        assertEquals(16, buffer.available());
+        assertEquals(0, buffer.remainingCapacity());
+        assertEquals(0, buffer.write(new float[2], 0, 1));
+    }
+    
+    @Test
+    public void testWrapAround() 
+    {
+        final AudioSampleRingBuffer buffer = new AudioSampleRingBuffer(STEREO, 16);
+        final float[] src = new float[2 * 7], dst = new float[2 * 7];
+        float next = 0, expected = 0;
+        
+        /* Blocks of 7 samples do not divide the capacity, so that reads and 
+        writes wrap around the end of the ring at every possible offset. */
+        for(int b = 0; b < 100; b++) {
+            for(int i = 0; i < src.length; i++)
+                src[i] = next++;
+            assertEquals(7, buffer.write(src, 0, 7));
+            assertEquals(7, buffer.read(dst, 0, 7));
+            for(int i = 0; i < dst.length; i++)
+                assertEquals(expected++, dst[i], 0.0f);
+            assertEquals(0, buffer.available());
+        }
+    }
+    
+    @Test
+    public void testMixIntoWrapsAround() 
+    {
+        final AudioSampleRingBuffer buffer = new AudioSampleRingBuffer(STEREO, 8);
+        final float[] src = new float[2 * 6];
+        for(int i = 0; i < src.length; i++)
+            src[i] = i;
+        
+        buffer.write(src, 0, 6);
+        buffer.read(new float[2 * 6], 0, 6);
+        buffer.write(src, 0, 6);
+        
+        final float[] acc = new float[2 * 6];
+        Arrays.fill(acc, 1.0f);
+        assertEquals(6, buffer.mixInto(acc, 6, 0.5f));
+        for(int i = 0; i < acc.length; i++)
+            assertEquals(1.0f + i * 0.5f, acc[i], 0.0f);
+    }
+    
+    @Test
+    public void testConcurrentProducerAndConsumer() throws InterruptedException 
+    {
+        final AudioSampleRingBuffer buffer = new AudioSampleRingBuffer(STEREO, 64);
+        final int numOfSamples = 1000000;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        
+        final Thread producer = new Thread(() -> {
+            final float[] src = new float[2 * 37];
+            int next = 0;
+            while (next < numOfSamples) {
+                final int length = Math.min(37, numOfSamples - next);
+                for(int i = 0; i < length; i++)
+                    src[2 * i] = src[2 * i + 1] = next + i;
+                
+                int written = 0;
+                while (written < length) {
+                    if (!buffer.awaitWritable(1, 10, TimeUnit.SECONDS)) {
+                        error.set(new AssertionError("The consumer stalled."));
+                        return;
+                    }
+                    written += buffer.write(src, written, length - written);
+                }
+                next += length;
+            }
+        }, "producer");
+        producer.start();
+        
+        final float[] dst = new float[2 * 53];
+        int expected = 0;
+        while (expected < numOfSamples) {
+            assertTrue("The producer stalled.", buffer.awaitReadable(1, 10, TimeUnit.SECONDS));
+            final int length = buffer.read(dst, 0, 53);
+            for(int i = 0; i < length; i++, expected++) {
+                assertEquals(expected, dst[2 * i], 0.0f);
+                assertEquals(expected, dst[2 * i + 1], 0.0f);
+            }
+        }
+        
+        producer.join();
+        assertEquals(null, error.get());
+        assertEquals(0, buffer.available());
+        assertFalse(buffer.awaitReadable(1, 1, TimeUnit.MILLISECONDS));
+    }
+}